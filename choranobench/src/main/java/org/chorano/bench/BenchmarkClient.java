@@ -0,0 +1,70 @@
+package org.chorano.bench;
+
+import org.chorano.client.dispatch.DispatchListener;
+import org.chorano.client.dispatch.DispatchStats;
+import org.chorano.client.dispatch.RequestDispatcher;
+import org.chorano.client.dispatch.RequestSender;
+import org.chorano.client.membership.Membership;
+import org.chorano.client.service.ClientPipeline;
+
+/**
+ * Runs the benchmark requests through the request path of the chorano client (see {@link ClientPipeline}),
+ * configured by the client.* properties. It stays open over all runs of a benchmark, so later runs see warm
+ * connections and balancer statistics.
+ */
+final class BenchmarkClient implements AutoCloseable {
+
+    private final ClientPipeline pipeline;
+    private final RequestSender sender;
+
+    /**
+     * @param membership     the alive servers
+     * @param maxOutstanding the maximum number of requests any run keeps in flight
+     */
+    BenchmarkClient(Membership membership, int maxOutstanding) {
+        this.pipeline = new ClientPipeline(membership, maxOutstanding);
+        this.sender = sequence -> this.pipeline.send(null, "Benchmark request no: " + sequence);
+    }
+
+    /**
+     * Runs requests in a closed loop.
+     *
+     * @param requests       the number of requests
+     * @param maxOutstanding the number of requests kept in flight
+     * @param listener       records the requests
+     * @return returns the outcome once every request has completed
+     */
+    DispatchStats closedLoop(long requests, int maxOutstanding, DispatchListener listener) {
+        try (RequestDispatcher dispatcher = this.pipeline.newDispatcher(this.sender, maxOutstanding, listener)) {
+            return dispatcher.closedLoop(requests).join();
+        }
+    }
+
+    /**
+     * Runs requests in an open loop.
+     *
+     * @param requests       the number of requests
+     * @param ratePerSecond  the number of requests started per second
+     * @param maxOutstanding the number of requests in flight beyond which requests are skipped
+     * @param listener       records the requests
+     * @return returns the outcome once every request has completed or been skipped
+     */
+    DispatchStats openLoop(long requests, double ratePerSecond, int maxOutstanding, DispatchListener listener) {
+        try (RequestDispatcher dispatcher = this.pipeline.newDispatcher(this.sender, maxOutstanding, listener)) {
+            return dispatcher.openLoop(requests, ratePerSecond).join();
+        }
+    }
+
+    long getHedgeCount() {
+        return this.pipeline.getHedgeCount();
+    }
+
+    long getRetryCount() {
+        return this.pipeline.getRetryCount();
+    }
+
+    @Override
+    public void close() {
+        this.pipeline.close();
+    }
+}
@@ -0,0 +1,107 @@
+package org.chorano.bench;
+
+import org.HdrHistogram.Histogram;
+import org.chorano.client.dispatch.DispatchStats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The results of the runs of a benchmark, written as JSON so that two builds can be compared:
+ *
+ * <pre>
+ * {"servers": 2, "runs": [{"mode": "closed", "requests": 20000, "succeeded": 20000,
+ *   "failed": 0, "skipped": 0, "elapsedMs": 6012, "throughput": 3326.5, "targetRate": 0, "hedged": 0,
+ *   "retried": 0, "latencyMicros": {"raw": {"count": 20000, "mean": 18.9, "p50": 17, ...},
+ *   "corrected": {...}}}]}
+ * </pre>
+ * Latencies are reported in microseconds.
+ */
+final class BenchmarkReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999", "p9999"};
+
+    private final int servers;
+    private final List<String> runs = new ArrayList<>();
+
+    BenchmarkReport(int servers) {
+        this.servers = servers;
+    }
+
+    /**
+     * Adds the result of a run.
+     *
+     * @param mode       "open" or "closed", also the name of the histogram log of the run
+     * @param targetRate the requests per second of an open loop, 0 for a closed loop
+     * @param stats      the outcome of the dispatcher
+     * @param latencies  the recorded latencies
+     * @param hedged     the hedged requests of the run
+     * @param retried    the retried requests of the run
+     */
+    void add(String mode, double targetRate, DispatchStats stats, LatencyRecorder latencies, long hedged,
+             long retried) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"mode\": \"").append(mode)
+                .append("\", \"requests\": ").append(stats.getSucceeded() + stats.getFailed() + stats.getSkipped())
+                .append(", \"succeeded\": ").append(stats.getSucceeded())
+                .append(", \"failed\": ").append(stats.getFailed())
+                .append(", \"skipped\": ").append(stats.getSkipped())
+                .append(", \"elapsedMs\": ").append(stats.getElapsedNanos() / 1_000_000)
+                .append(", \"throughput\": ").append(format(stats.getThroughput()))
+                .append(", \"targetRate\": ").append(format(targetRate))
+                .append(", \"hedged\": ").append(hedged)
+                .append(", \"retried\": ").append(retried)
+                .append(", \"latencyMicros\": {\"raw\": ");
+        appendLatencies(json, latencies.getRaw());
+        json.append(", \"corrected\": ");
+        appendLatencies(json, latencies.getCorrected());
+        json.append("}}");
+        this.runs.add(json.toString());
+    }
+
+    /**
+     * @param file the file to write the report to
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("{\"servers\": " + this.servers + ", \"runs\": [\n  ");
+            writer.write(String.join(",\n  ", this.runs));
+            writer.write("\n]}\n");
+        }
+    }
+
+    /**
+     * @param histogram latencies in nanoseconds
+     * @return returns a line with the count and percentiles in microseconds, for the log
+     */
+    static String summary(Histogram histogram) {
+        StringBuilder line = new StringBuilder("count=").append(histogram.getTotalCount());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            line.append(", ").append(PERCENTILE_NAMES[i]).append('=')
+                    .append(histogram.getValueAtPercentile(PERCENTILES[i]) / 1000).append("us");
+        }
+        return line.append(", max=").append(histogram.getMaxValue() / 1000).append("us").toString();
+    }
+
+    private static void appendLatencies(StringBuilder json, Histogram histogram) {
+        json.append("{\"count\": ").append(histogram.getTotalCount())
+                .append(", \"mean\": ").append(format(histogram.getMean() / 1000));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ")
+                    .append(histogram.getValueAtPercentile(PERCENTILES[i]) / 1000);
+        }
+        json.append(", \"max\": ").append(histogram.getMaxValue() / 1000).append('}');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
@@ -0,0 +1,110 @@
+package org.chorano.bench;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.chorano.client.common.ZkConstant;
+import org.chorano.client.dispatch.DispatchListener;
+import org.chorano.client.dispatch.DispatchStats;
+import org.chorano.client.membership.Membership;
+import org.chorano.client.membership.ZkMembershipTracker;
+import org.chorano.client.service.impl.ZkServiceImpl;
+import org.chorano.client.transport.HttpConnectionPools;
+import org.chorano.client.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of the chorano benchmark. Starts an embedded zookeeper and bench.servers chorano servers in
+ * this JVM, then sends the servers the requests of every run in bench.modes (closed and/or open) through
+ * the chorano client. A run is preceded by bench.warmup.requests unrecorded requests.
+ *
+ * For every run an HdrHistogram log (run.hlog) with the raw and the coordinated omission corrected latency
+ * (see {@link LatencyRecorder}) is written to bench.output.dir, and all runs are summed up in report.json
+ * (see {@link BenchmarkReport}). The server and client are configured by the properties file of this
+ * module, which includes the server and client settings.
+ */
+public class ChoranoBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChoranoBenchmark.class);
+    private static final int SERVERS = PropUtil.getIntPropVal("bench.servers", 2);
+    private static final String SERVER_MODE = PropUtil.getPropVal("server.mode", "socket");
+    private static final String[] MODES = PropUtil.getPropVal("bench.modes", "closed,open").split(",");
+    private static final int REQUESTS = PropUtil.getIntPropVal("bench.requests", 20000);
+    private static final int WARMUP_REQUESTS = PropUtil.getIntPropVal("bench.warmup.requests", 2000);
+    private static final int MAX_OUTSTANDING = PropUtil.getIntPropVal("bench.max.outstanding.requests", 64);
+    private static final int OPEN_LOOP_RATE = PropUtil.getIntPropVal("bench.open.loop.rate", 2000);
+    private static final int OPEN_LOOP_MAX_OUTSTANDING =
+            PropUtil.getIntPropVal("bench.open.loop.max.outstanding.requests", 1024);
+    private static final long EXPECTED_INTERVAL_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(PropUtil.getIntPropVal("bench.closed.loop.expected.interval.us", 0));
+    private static final int HISTOGRAM_INTERVAL_MS = PropUtil.getIntPropVal("bench.histogram.interval.ms", 1000);
+    private static final String OUTPUT_DIR = PropUtil.getPropVal("bench.output.dir", "bench-results");
+
+    public static void main(String[] args) throws Exception {
+        Path output = Files.createDirectories(Paths.get(OUTPUT_DIR));
+        BenchmarkReport report = new BenchmarkReport(SERVERS);
+        List<InProcessServer> servers = new ArrayList<>();
+        try (EmbeddedZooKeeper zookeeper = EmbeddedZooKeeper.start()) {
+            LOGGER.debug("Started zookeeper at {}", zookeeper.getConnectString());
+            try {
+                for (int i = 0; i < SERVERS; i++) {
+                    servers.add(InProcessServer.start(zookeeper.getConnectString(), SERVER_MODE));
+                }
+                LOGGER.debug("Started {} {} servers", SERVERS, SERVER_MODE);
+                run(zookeeper.getConnectString(), output, report);
+            } finally {
+                InProcessServer.stopAll(servers);
+            }
+        }
+        Path reportFile = output.resolve("report.json");
+        report.write(reportFile);
+        LOGGER.debug("Wrote {}", reportFile.toAbsolutePath());
+        System.exit(0);
+    }
+
+    private static void run(String zkConnection, Path output, BenchmarkReport report)
+            throws IOException, InterruptedException {
+        ZooKeeper zooKeeper = new ZkServiceImpl().connectZookeeper(zkConnection, ZkConstant.ZK_SESSION_TIME_OUT);
+        Membership membership = new Membership();
+        membership.addListener(HttpConnectionPools.instance()::retain);
+        ZkMembershipTracker tracker = new ZkMembershipTracker(zooKeeper, "/chorano", membership);
+        tracker.start().join();
+        try (BenchmarkClient client =
+                     new BenchmarkClient(membership, Math.max(MAX_OUTSTANDING, OPEN_LOOP_MAX_OUTSTANDING))) {
+            for (String mode : MODES) {
+                mode = mode.trim();
+                boolean open = "open".equals(mode);
+                LOGGER.debug("Warming up {} run with {} requests", mode, WARMUP_REQUESTS);
+                client.closedLoop(WARMUP_REQUESTS, MAX_OUTSTANDING, DispatchListener.NONE);
+                long hedged = client.getHedgeCount();
+                long retried = client.getRetryCount();
+                File log = output.resolve(mode + ".hlog").toFile();
+                LatencyRecorder latencies =
+                        new LatencyRecorder(log, open, EXPECTED_INTERVAL_NANOS, HISTOGRAM_INTERVAL_MS);
+                DispatchStats stats;
+                try {
+                    stats = open ? client.openLoop(REQUESTS, OPEN_LOOP_RATE, OPEN_LOOP_MAX_OUTSTANDING, latencies)
+                            : client.closedLoop(REQUESTS, MAX_OUTSTANDING, latencies);
+                } finally {
+                    latencies.close();
+                }
+                LOGGER.debug("{} run: {}", mode, stats);
+                LOGGER.debug("{} raw latency: {}", mode, BenchmarkReport.summary(latencies.getRaw()));
+                LOGGER.debug("{} corrected latency: {}", mode, BenchmarkReport.summary(latencies.getCorrected()));
+                report.add(mode, open ? OPEN_LOOP_RATE : 0, stats, latencies, client.getHedgeCount() - hedged,
+                        client.getRetryCount() - retried);
+            }
+        } finally {
+            tracker.stop();
+            zooKeeper.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.chorano.bench;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+/**
+ * A standalone zookeeper server in this JVM, listening on an ephemeral loopback port, with its data in a
+ * temporary directory that is deleted on close.
+ */
+final class EmbeddedZooKeeper implements AutoCloseable {
+
+    private static final int TICK_TIME_MS = 500;
+    private static final int MAX_CLIENT_CONNECTIONS = 100;
+
+    private final File dataDir;
+    private final ServerCnxnFactory factory;
+
+    private EmbeddedZooKeeper(File dataDir, ServerCnxnFactory factory) {
+        this.dataDir = dataDir;
+        this.factory = factory;
+    }
+
+    static EmbeddedZooKeeper start() throws IOException, InterruptedException {
+        File dataDir = Files.createTempDirectory("chorano-bench-zk").toFile();
+        ServerCnxnFactory factory = ServerCnxnFactory.createFactory(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), MAX_CLIENT_CONNECTIONS);
+        factory.startup(new ZooKeeperServer(dataDir, dataDir, TICK_TIME_MS));
+        return new EmbeddedZooKeeper(dataDir, factory);
+    }
+
+    /**
+     * @return returns the connection string for zookeeper clients, e.g. 127.0.0.1:40313
+     */
+    String getConnectString() {
+        return "127.0.0.1:" + this.factory.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        this.factory.shutdown();
+        delete(this.dataDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
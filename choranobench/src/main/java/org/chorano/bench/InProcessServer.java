@@ -0,0 +1,116 @@
+package org.chorano.bench;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.chorano.server.ChoranoServer;
+import org.chorano.server.common.ZkConstant;
+import org.chorano.server.metrics.LoadReportPublisher;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerLoadReport;
+import org.chorano.server.service.impl.ZkServiceImpl;
+import org.chorano.server.util.ServerStatusUtil;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chorano server running on a thread of this JVM, set up like {@link ChoranoServer#main(String[])}: it
+ * listens on a free port and registers itself with its load under /chorano once it accepts connections.
+ *
+ * In-process servers share the JVM-wide state of the server (the stop flag, the load monitor and the
+ * metrics), so they all publish the same load and are stopped together by {@link #stopAll(Iterable)}.
+ */
+final class InProcessServer {
+
+    private static final long START_TIMEOUT_MS = 10000;
+
+    private final int port;
+    private final Thread thread;
+    private ZooKeeper zooKeeper;
+    private LoadReportPublisher publisher;
+
+    private InProcessServer(int port, String mode) {
+        this.port = port;
+        this.thread = new Thread(() -> ChoranoServer.createServerService(mode).startChoranoServer(port),
+                "chorano-bench-server-" + port);
+    }
+
+    /**
+     * Starts a server and registers it in zookeeper.
+     *
+     * @param zkConnection the zookeeper connection string
+     * @param mode         the server.mode of the server
+     * @return returns the started server
+     * @throws IOException if the server does not accept connections in time
+     */
+    static InProcessServer start(String zkConnection, String mode) throws IOException {
+        InProcessServer server = new InProcessServer(freePort(), mode);
+        server.thread.start();
+        server.awaitListening();
+        ZkServiceImpl zkService = new ZkServiceImpl();
+        server.zooKeeper = zkService.connectZookeeper(zkConnection, ZkConstant.ZK_SESSION_TIME_OUT);
+        ServerLoadReport initialLoad = ServerLoadMonitor.instance().report(server.getLocation());
+        String node = zkService.registerInZookeeper(server.zooKeeper, "/chorano", initialLoad.toBytes());
+        if (node != null) {
+            server.publisher = LoadReportPublisher.fromProperties(zkService, server.zooKeeper, node, initialLoad);
+            server.publisher.start();
+        }
+        return server;
+    }
+
+    String getLocation() {
+        return "localhost:" + this.port;
+    }
+
+    /**
+     * Stops the servers: raises the shared stop flag, wakes up the blocked accept loops and closes the
+     * zookeeper sessions so that the nodes disappear at once.
+     *
+     * @param servers the servers to stop
+     */
+    static void stopAll(Iterable<InProcessServer> servers) throws InterruptedException {
+        ServerStatusUtil.instance().stopServer(true);
+        for (InProcessServer server : servers) {
+            try (Socket ignored = new Socket("localhost", server.port)) {
+                // the blocking server checks the flag after every accepted connection
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        for (InProcessServer server : servers) {
+            server.thread.join(TimeUnit.SECONDS.toMillis(10));
+            if (server.publisher != null) {
+                server.publisher.stop();
+            }
+            if (server.zooKeeper != null) {
+                server.zooKeeper.close();
+            }
+        }
+    }
+
+    private void awaitListening() throws IOException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (true) {
+            try (Socket ignored = new Socket("localhost", this.port)) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Server on port " + this.port + " did not start", e);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while starting server on port " + this.port);
+                }
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.chorano.bench;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.chorano.client.dispatch.DispatchListener;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency of the requests of one run in nanoseconds, twice:
+ *
+ * <ul>
+ *     <li>raw: from sending a successful request to its response, what the client measured</li>
+ *     <li>corrected: corrected for coordinated omission. In an open loop the latency is measured from
+ *     the time the request was due, so a stalled client or server is charged to every request that
+ *     should have been sent meanwhile. That includes the requests skipped at the outstanding limit: each
+ *     counts as sent when the next request completes and answered at once, i.e. from its due time to
+ *     that completion (or the end of the run), the least it would have waited. The open loop corrected
+ *     count is the succeeded plus the skipped requests. A closed loop has no schedule; there each raw
+ *     interval histogram is corrected by HdrHistogram with the expected interval between two requests of
+ *     a slot (by default the median latency of the interval), which back-fills the requests a slow
+ *     response held up.</li>
+ * </ul>
+ * Both are written as tagged interval histograms to an HdrHistogram log every interval and summed up
+ * for the report.
+ */
+final class LatencyRecorder implements DispatchListener, AutoCloseable {
+
+    static final String TAG_RAW = "raw";
+    static final String TAG_CORRECTED = "corrected";
+
+    private final boolean openLoop;
+    private final long expectedIntervalNanos;
+    private final Recorder raw = new Recorder(3);
+    private final Recorder corrected = new Recorder(3);
+    private final Histogram rawTotal = new Histogram(3);
+    private final Histogram correctedTotal = new Histogram(3);
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final Queue<Long> skippedDue = new ConcurrentLinkedQueue<>();
+    private final HistogramLogWriter log;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "chorano-bench-histogram-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Histogram rawInterval;
+    private Histogram correctedInterval;
+
+    /**
+     * @param logFile               the HdrHistogram log to write
+     * @param openLoop              true if the requests follow a schedule
+     * @param expectedIntervalNanos the expected time between two requests of a closed loop slot, 0 for the
+     *                              mean latency of every interval
+     * @param intervalMs            the time between two interval histograms
+     * @throws FileNotFoundException if the log cannot be created
+     */
+    LatencyRecorder(File logFile, boolean openLoop, long expectedIntervalNanos, long intervalMs)
+            throws FileNotFoundException {
+        this.openLoop = openLoop;
+        this.expectedIntervalNanos = expectedIntervalNanos;
+        this.log = new HistogramLogWriter(logFile);
+        long now = System.currentTimeMillis();
+        this.log.outputComment("chorano benchmark, " + (openLoop ? "open" : "closed")
+                + " loop, latencies in nanoseconds, tags " + TAG_RAW + " and " + TAG_CORRECTED);
+        this.log.outputLogFormatVersion();
+        this.log.setBaseTime(now);
+        this.log.outputBaseTime(now);
+        this.log.outputStartTime(now);
+        this.log.outputLegend();
+        this.timer.scheduleAtFixedRate(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void requestCompleted(long sequence, long dueNanos, long sentNanos, long endNanos, Throwable failure) {
+        // the completion frees the slot a skipped request would have been sent in
+        Long skippedDueNanos = this.skippedDue.poll();
+        if (skippedDueNanos != null) {
+            this.corrected.recordValue(Math.max(0, endNanos - skippedDueNanos));
+        }
+        if (failure != null) {
+            this.failed.increment();
+            return;
+        }
+        this.raw.recordValue(endNanos - sentNanos);
+        if (this.openLoop) {
+            this.corrected.recordValue(endNanos - Math.min(dueNanos, sentNanos));
+        }
+    }
+
+    @Override
+    public void requestSkipped(long sequence, long dueNanos) {
+        this.skipped.increment();
+        this.skippedDue.add(dueNanos);
+    }
+
+    /**
+     * @return returns the latencies as measured by the client
+     */
+    Histogram getRaw() {
+        return this.rawTotal;
+    }
+
+    /**
+     * @return returns the latencies corrected for coordinated omission
+     */
+    Histogram getCorrected() {
+        return this.correctedTotal;
+    }
+
+    long getFailed() {
+        return this.failed.sum();
+    }
+
+    long getSkipped() {
+        return this.skipped.sum();
+    }
+
+    /**
+     * Stops the interval timer and writes the last interval. The totals are complete afterwards.
+     */
+    @Override
+    public void close() {
+        this.timer.shutdownNow();
+        try {
+            this.timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long end = System.nanoTime();
+        for (Long dueNanos; (dueNanos = this.skippedDue.poll()) != null; ) {
+            this.corrected.recordValue(Math.max(0, end - dueNanos));
+        }
+        flush();
+        this.log.close();
+    }
+
+    private synchronized void flush() {
+        this.rawInterval = this.raw.getIntervalHistogram(this.rawInterval);
+        Histogram correctedInterval;
+        if (this.openLoop) {
+            correctedInterval = this.correctedInterval = this.corrected.getIntervalHistogram(this.correctedInterval);
+        } else {
+            long expected = this.expectedIntervalNanos > 0 ? this.expectedIntervalNanos
+                    : (long) this.rawInterval.getMean();
+            correctedInterval = this.rawInterval.copyCorrectedForCoordinatedOmission(expected);
+            correctedInterval.setStartTimeStamp(this.rawInterval.getStartTimeStamp());
+            correctedInterval.setEndTimeStamp(this.rawInterval.getEndTimeStamp());
+        }
+        this.rawTotal.add(this.rawInterval);
+        this.correctedTotal.add(correctedInterval);
+        this.rawInterval.setTag(TAG_RAW);
+        correctedInterval.setTag(TAG_CORRECTED);
+        this.log.outputIntervalHistogram(this.rawInterval);
+        this.log.outputIntervalHistogram(correctedInterval);
+    }
+}
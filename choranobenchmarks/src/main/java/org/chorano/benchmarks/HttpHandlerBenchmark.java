@@ -0,0 +1,166 @@
+package org.chorano.benchmarks;
+
+import org.chorano.server.ChoranoServer;
+import org.chorano.server.util.ServerStatusUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of a chorano server over loopback sockets: every benchmark thread keeps a
+ * persistent connection and sends the request of the chorano client, waiting for each response. The
+ * server runs in the benchmark JVM, so the allocation rate covers both the handler and the (small,
+ * allocation-free apart from the response array) client loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class HttpHandlerBenchmark {
+
+    private static final byte[] REQUEST = HttpRequestParserBenchmark.CLIENT.getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"socket", "nio"})
+    private String mode;
+
+    private int port;
+    private Thread server;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException, InterruptedException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+        String serverMode = this.mode;
+        int serverPort = this.port;
+        this.server = new Thread(() -> ChoranoServer.createServerService(serverMode).startChoranoServer(serverPort),
+                "chorano-benchmark-server");
+        this.server.setDaemon(true);
+        this.server.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Socket ignored = new Socket("localhost", this.port)) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws InterruptedException {
+        ServerStatusUtil.instance().stopServer(true);
+        try (Socket ignored = new Socket("localhost", this.port)) {
+            // wakes up the accept loop of the blocking server
+        } catch (IOException e) {
+            // already closed
+        }
+        this.server.join(10000);
+    }
+
+    /**
+     * A persistent connection of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private final byte[] response = new byte[4096];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        @Setup(Level.Trial)
+        public void connect(HttpHandlerBenchmark benchmark) throws IOException {
+            this.socket = new Socket("localhost", benchmark.port);
+            this.socket.setTcpNoDelay(true);
+            this.in = this.socket.getInputStream();
+            this.out = this.socket.getOutputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            this.socket.close();
+        }
+
+        /**
+         * Reads one response framed by its Content-Length.
+         *
+         * @return returns the length of the response
+         */
+        int readResponse() throws IOException {
+            int length = 0;
+            int headerEnd = -1;
+            int total = Integer.MAX_VALUE;
+            while (length < total) {
+                int count = this.in.read(this.response, length, this.response.length - length);
+                if (count < 0) {
+                    throw new IOException("Connection closed by the server");
+                }
+                length += count;
+                if (headerEnd < 0 && (headerEnd = indexOfHeaderEnd(this.response, length)) >= 0) {
+                    total = headerEnd + contentLength(this.response, headerEnd);
+                }
+            }
+            return length;
+        }
+
+        private static int indexOfHeaderEnd(byte[] bytes, int length) {
+            for (int i = 3; i < length; i++) {
+                if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private static int contentLength(byte[] bytes, int headerEnd) {
+            byte[] name = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+            outer:
+            for (int i = 0; i + name.length < headerEnd; i++) {
+                for (int j = 0; j < name.length; j++) {
+                    if (bytes[i + j] != name[j]) {
+                        continue outer;
+                    }
+                }
+                int value = 0;
+                for (int k = i + name.length; bytes[k] >= '0' && bytes[k] <= '9'; k++) {
+                    value = value * 10 + bytes[k] - '0';
+                }
+                return value;
+            }
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public int request(Connection connection) throws IOException {
+        connection.out.write(REQUEST);
+        connection.out.flush();
+        return connection.readResponse();
+    }
+}
@@ -0,0 +1,107 @@
+package org.chorano.benchmarks;
+
+import org.chorano.server.request.handler.KeepAlivePolicy;
+import org.chorano.server.request.parser.HttpHeaders;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of complete requests by {@link HttpRequestParser}, as done by the handlers for every request:
+ * the request of the chorano client, the same request as sent by Jersey and a browser-like GET with many
+ * and long headers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpRequestParserBenchmark {
+
+    static final String CLIENT = "POST / HTTP/1.1\r\n"
+            + "Host: localhost:8111\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 22\r\n"
+            + "\r\n"
+            + "Client request no: 123";
+
+    static final String JERSEY = "POST / HTTP/1.1\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "User-Agent: Jersey/2.12 (HttpUrlConnection 1.8.0_131)\r\n"
+            + "Host: localhost:8111\r\n"
+            + "Accept: text/html, image/gif, image/jpeg, *; q=.2, */*; q=.2\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Content-Length: 22\r\n"
+            + "\r\n"
+            + "Client request no: 123";
+
+    static final String BROWSER = "GET /metrics?format=text&scope=all HTTP/1.1\r\n"
+            + "Host: chorano.example.com:8111\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Referer: https://chorano.example.com/dashboard/servers?sort=latency&order=desc\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cookie: session=7f3c2a9e4b1d4e8f9a0b1c2d3e4f5a6b; theme=dark; tz=Europe%2FBerlin; "
+            + "consent=analytics%3Dfalse%26functional%3Dtrue\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "Sec-Fetch-User: ?1\r\n"
+            + "Priority: u=0, i\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "\r\n";
+
+    @Param({"client", "jersey", "browser"})
+    private String request;
+
+    private final HttpRequestParser parser = new HttpRequestParser(8192, 1024 * 1024);
+    private ByteBuffer buffer;
+    private int length;
+
+    @Setup
+    public void setUp() {
+        String text = "client".equals(this.request) ? CLIENT : "jersey".equals(this.request) ? JERSEY : BROWSER;
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        this.buffer = ByteBuffer.allocate(1024);
+        this.buffer.put(bytes);
+        this.length = bytes.length;
+    }
+
+    @Benchmark
+    public HttpRequestParser.Result parse() {
+        this.parser.reset();
+        this.buffer.position(this.length);
+        return this.parser.parse(this.buffer);
+    }
+
+    /**
+     * Parses and then looks at the request like the handler does: keep-alive and the body.
+     */
+    @Benchmark
+    public void parseAndInspect(Blackhole blackhole) {
+        this.parser.reset();
+        this.buffer.position(this.length);
+        blackhole.consume(this.parser.parse(this.buffer));
+        blackhole.consume(KeepAlivePolicy.keepAlive(this.parser, this.buffer, 1));
+        blackhole.consume(this.parser.headerValueAsLong(this.buffer, HttpHeaders.CONTENT_LENGTH));
+        blackhole.consume(this.parser.body(this.buffer));
+    }
+}
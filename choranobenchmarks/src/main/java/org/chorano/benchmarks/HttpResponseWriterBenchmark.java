@@ -0,0 +1,86 @@
+package org.chorano.benchmarks;
+
+import org.chorano.server.request.handler.HttpRequestHandler;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of responses by {@link HttpResponseWriter}: the echo response of every chorano request and a
+ * pre-encoded error response, written with a gathering write to a channel that discards the bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpResponseWriterBenchmark {
+
+    private final HttpResponseWriter writer = new HttpResponseWriter();
+    private final ByteBuffer entity = ByteBuffer.wrap("Client request no: 123".getBytes(StandardCharsets.US_ASCII));
+    private final DiscardingChannel channel = new DiscardingChannel();
+
+    @Benchmark
+    public long echoResponse() throws IOException {
+        this.entity.rewind();
+        HttpRequestHandler.buildResponse(this.entity, true, this.writer).writeFully(this.channel);
+        return this.writer.bytesWritten();
+    }
+
+    @Benchmark
+    public long errorResponse() throws IOException {
+        this.writer.complete(HttpResponses.BAD_REQUEST).writeFully(this.channel);
+        return this.writer.bytesWritten();
+    }
+
+    /**
+     * Accepts every byte, like a socket with an empty send buffer.
+     */
+    private static final class DiscardingChannel implements GatheringByteChannel {
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(sources[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int remaining = source.remaining();
+            source.position(source.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.chorano.benchmarks;
+
+import org.chorano.client.balancer.LoadBalancer;
+import org.chorano.client.balancer.LoadBalancerType;
+import org.chorano.client.balancer.ServerNode;
+import org.chorano.client.common.ServerLoadReport;
+import org.chorano.client.membership.Membership;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server selection of every {@link LoadBalancer} strategy by four threads at once, each pick followed by
+ * the request statistics the client reports to the picked node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LoadBalancerBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"weighted-round-robin", "least-outstanding", "power-of-two-choices", "peak-ewma", "consistent-hash"})
+    private String strategy;
+
+    @Param({"8"})
+    private int servers;
+
+    private LoadBalancer balancer;
+    private final String[] keys = new String[KEYS];
+
+    @Setup
+    public void setUp() {
+        Membership membership = new Membership();
+        for (int i = 0; i < this.servers; i++) {
+            membership.update(String.format("/chorano/x_%010d", i),
+                    ServerLoadReport.decode(("localhost:" + (8111 + i)).getBytes(StandardCharsets.UTF_8)));
+        }
+        this.balancer = LoadBalancerType.fromProperty(this.strategy).create();
+        this.balancer.update(membership.snapshot());
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = "key-" + i;
+        }
+    }
+
+    /**
+     * The affinity key of the next request of a thread; strategies without affinity ignore it.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+    }
+
+    @Benchmark
+    public ServerNode pick(Cursor cursor) {
+        ServerNode node = this.balancer.pick(this.keys[cursor.next++ & (KEYS - 1)]);
+        node.requestCompleted(node.requestStarted(), true);
+        return node;
+    }
+}
@@ -0,0 +1,84 @@
+package org.chorano.benchmarks;
+
+import org.chorano.client.common.ServerLoadReport;
+import org.chorano.client.membership.Membership;
+import org.chorano.client.membership.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the client {@link Membership} snapshot, alone and while a watcher thread keeps applying
+ * zookeeper changes (a server leaving and joining again, a new load report).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembershipBenchmark {
+
+    @Param({"16"})
+    private int servers;
+
+    private final Membership membership = new Membership();
+    private String[] paths;
+    private ServerLoadReport[] reports;
+    private int nextRead;
+    private int nextUpdate;
+
+    @Setup
+    public void setUp() {
+        this.paths = new String[this.servers];
+        this.reports = new ServerLoadReport[this.servers];
+        for (int i = 0; i < this.servers; i++) {
+            this.paths[i] = String.format("/chorano/x_%010d", i);
+            this.reports[i] = ServerLoadReport.decode(("localhost:" + (8111 + i)).getBytes(StandardCharsets.UTF_8));
+            this.membership.update(this.paths[i], this.reports[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public Server read() {
+        return find();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Server readWhileUpdating() {
+        return find();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void update() {
+        int index = this.nextUpdate++ % this.servers;
+        if ((this.nextUpdate & 1) == 0) {
+            this.membership.remove(this.paths[index]);
+        }
+        this.membership.update(this.paths[index], this.reports[index]);
+    }
+
+    private Server find() {
+        // the cursor is shared by the readers of a group, a lost increment only repeats a lookup
+        int index = this.nextRead++ % this.servers;
+        return this.membership.snapshot().find(this.paths[index]);
+    }
+}
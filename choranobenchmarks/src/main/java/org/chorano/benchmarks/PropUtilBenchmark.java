@@ -0,0 +1,42 @@
+package org.chorano.benchmarks;
+
+import org.chorano.server.util.PropUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Property lookups through {@link PropUtil}: a set and an unset property and the parsing of an int, the
+ * cost a lookup on a hot path instead of a constant would add.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropUtilBenchmark {
+
+    @Benchmark
+    public String lookup() {
+        return PropUtil.getPropVal("server.mode", "socket");
+    }
+
+    @Benchmark
+    public String lookupDefault() {
+        return PropUtil.getPropVal("benchmark.unset.property", "default");
+    }
+
+    @Benchmark
+    public int lookupInt() {
+        return PropUtil.getIntPropVal("request.handler.thread.pool.size", 1);
+    }
+}
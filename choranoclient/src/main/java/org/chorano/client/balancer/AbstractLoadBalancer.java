@@ -0,0 +1,122 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.limit.ConcurrencyLimiter;
+import org.chorano.client.limit.LimitAlgorithm;
+import org.chorano.client.membership.MembershipSnapshot;
+import org.chorano.client.membership.Server;
+import org.chorano.client.util.PropUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the nodes of a {@link LoadBalancer} in an array that is replaced as a whole on every update, so
+ * that {@link #pick()} reads a consistent set of nodes without locking. Strategies skip the nodes an
+ * {@link OutlierDetector} has ejected and the nodes that reached their concurrency limit
+ * (client.concurrency.limit), unless no node is left; requests over a node's limit thus go to another
+ * server and only queue at the node when every server is at its limit.
+ */
+abstract class AbstractLoadBalancer implements LoadBalancer {
+
+    private static final ServerNode[] NO_NODES = new ServerNode[0];
+    private static final LimitAlgorithm LIMIT_ALGORITHM =
+            LimitAlgorithm.fromProperty(PropUtil.getPropVal("client.concurrency.limit", "vegas"));
+
+    private final OutlierDetector outliers = OutlierDetector.fromProperties(this::nodes);
+    private final LongAdder outstanding = new LongAdder();
+    private Map<String, ServerNode> nodesByPath = new HashMap<>();
+    private int limiterQueueSize = ConcurrencyLimiter.QUEUE_SIZE;
+    private volatile ServerNode[] nodes = NO_NODES;
+
+    @Override
+    public synchronized void update(MembershipSnapshot servers) {
+        Map<String, ServerNode> next = new HashMap<>();
+        ServerNode[] array = new ServerNode[servers.size()];
+        for (int i = 0; i < array.length; i++) {
+            Server server = servers.get(i);
+            ServerNode node = this.nodesByPath.get(server.getPath());
+            if (node == null) {
+                node = new ServerNode(server.getPath(), this.outliers,
+                        LIMIT_ALGORITHM.newLimiter(this.limiterQueueSize), this.outstanding);
+            }
+            node.update(server.getLocation(), server.getReport());
+            next.put(server.getPath(), node);
+            array[i] = node;
+        }
+        this.nodesByPath = next;
+        nodesChanged(array);
+        this.nodes = array;
+    }
+
+    @Override
+    public ServerNode pickOther(String key, ServerNode excluded) {
+        ServerNode node = pick(key);
+        if (node != excluded) {
+            return node;
+        }
+        ServerNode[] nodes = nodes();
+        if (nodes.length < 2) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(nodes.length);
+        long now = System.nanoTime();
+        ServerNode fallback = null;
+        for (int i = 0; i < nodes.length; i++) {
+            node = nodes[(start + i) % nodes.length];
+            if (node != excluded) {
+                if (selectable(node, now)) {
+                    return node;
+                }
+                fallback = fallback == null ? node : fallback;
+            }
+        }
+        return fallback;
+    }
+
+    @Override
+    public List<ServerNode> getNodes() {
+        return Collections.unmodifiableList(Arrays.asList(this.nodes));
+    }
+
+    /**
+     * @param limiterQueueSize the number of requests that may wait for the limit of a node added later
+     */
+    synchronized void setLimiterQueueSize(int limiterQueueSize) {
+        this.limiterQueueSize = limiterQueueSize;
+    }
+
+    protected ServerNode[] nodes() {
+        return this.nodes;
+    }
+
+    /**
+     * @return returns the requests in flight to all nodes, including removed nodes until their requests
+     * complete
+     */
+    protected long totalOutstanding() {
+        return this.outstanding.sum();
+    }
+
+    /**
+     * @param node     the node
+     * @param nowNanos the current time
+     * @return returns false while outlier detection keeps the node out of rotation or it is at its limit
+     */
+    protected boolean selectable(ServerNode node, long nowNanos) {
+        return (node.getLimiter() == null || node.getLimiter().hasCapacity())
+                && (this.outliers == null || this.outliers.isSelectable(node, nowNanos));
+    }
+
+    /**
+     * Called under the update lock before the new nodes become visible to {@link #pick()}.
+     *
+     * @param nodes the new nodes, sorted by path
+     */
+    protected void nodesChanged(ServerNode[] nodes) {
+    }
+}
@@ -0,0 +1,197 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.util.PropUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Consistent hashing with bounded loads: requests with the same key go to the same server, as long as
+ * that server does not have more than client.hash.load.factor times the average requests in flight.
+ * An overloaded or ejected server passes the key on to the next server clockwise on the ring.
+ *
+ * Every server owns client.hash.ring.replicas points on the ring (scaled by its weight), hashed from its
+ * location, so a server that comes back at the same location gets its keys back and a joining or
+ * leaving server moves only its share of the keys. On an update only the points of new servers are
+ * hashed; the ring is merged from the sorted points of the servers that remain. A pick is a binary
+ * search over the ring; requests without a key are spread at random.
+ */
+class ConsistentHashLoadBalancer extends AbstractLoadBalancer {
+
+    private static final int REPLICAS = PropUtil.getIntPropVal("client.hash.ring.replicas", 100);
+    private static final double LOAD_FACTOR =
+            Double.parseDouble(PropUtil.getPropVal("client.hash.load.factor", "1.25"));
+
+    private Map<ServerNode, Points> pointsByNode = new HashMap<>();
+    private volatile Ring ring = new Ring(new long[0], new ServerNode[0]);
+
+    @Override
+    public ServerNode pick() {
+        return pick(ThreadLocalRandom.current().nextLong());
+    }
+
+    @Override
+    public ServerNode pick(String key) {
+        return key == null ? pick() : pick(hash(key, 0));
+    }
+
+    private ServerNode pick(long hash) {
+        Ring ring = this.ring;
+        ServerNode[] owners = ring.owners;
+        if (owners.length == 0) {
+            return null;
+        }
+        // the bound of the paper: ceil(c * (m + 1) / n) with the request about to be sent counted
+        long total = totalOutstanding() + 1;
+        long bound = (long) Math.ceil(LOAD_FACTOR * total / Math.max(1, nodes().length));
+        int index = Arrays.binarySearch(ring.hashes, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        long now = System.nanoTime();
+        ServerNode fallback = null;
+        for (int i = 0; i < owners.length; i++) {
+            ServerNode owner = owners[(index + i) % owners.length];
+            if (selectable(owner, now)) {
+                if (owner.getOutstanding() < bound) {
+                    return owner;
+                }
+                if (fallback == null) {
+                    fallback = owner;
+                }
+            }
+        }
+        return fallback != null ? fallback : owners[index % owners.length];
+    }
+
+    @Override
+    protected void nodesChanged(ServerNode[] nodes) {
+        Map<ServerNode, Points> next = new HashMap<>();
+        List<Points> added = new ArrayList<>();
+        int count = 0;
+        for (ServerNode node : nodes) {
+            Points points = this.pointsByNode.get(node);
+            if (points == null || !points.matches(node)) {
+                points = new Points(node);
+                added.add(points);
+            }
+            next.put(node, points);
+            count += points.hashes.length;
+        }
+        Ring ring = this.ring;
+        Ring kept = ring.retain(this.pointsByNode, next, count);
+        this.pointsByNode = next;
+        this.ring = added.isEmpty() ? kept : kept.merge(Ring.of(added));
+    }
+
+    /**
+     * 64 bit FNV-1a over the chars of a key followed by a replica number, finished with the murmur3 mix
+     * so that similar keys end up far apart on the ring.
+     */
+    static long hash(String key, int replica) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ replica) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * The sorted points a node owns, kept until its location or weight changes.
+     */
+    private static final class Points {
+
+        private final ServerNode node;
+        private final String location;
+        private final int weight;
+        private final long[] hashes;
+
+        Points(ServerNode node) {
+            this.node = node;
+            this.location = node.getLocation();
+            this.weight = node.getWeight();
+            int replicas = (int) Math.max(1, (long) REPLICAS * Math.max(0, this.weight) / 100);
+            this.hashes = new long[replicas];
+            for (int i = 0; i < replicas; i++) {
+                this.hashes[i] = hash(this.location, i);
+            }
+            Arrays.sort(this.hashes);
+        }
+
+        boolean matches(ServerNode node) {
+            return this.location.equals(node.getLocation()) && this.weight == node.getWeight();
+        }
+    }
+
+    private static final class Ring {
+
+        private final long[] hashes;
+        private final ServerNode[] owners;
+
+        Ring(long[] hashes, ServerNode[] owners) {
+            this.hashes = hashes;
+            this.owners = owners;
+        }
+
+        /**
+         * @return returns the ring of the points of new nodes
+         */
+        static Ring of(List<Points> points) {
+            Ring ring = new Ring(new long[0], new ServerNode[0]);
+            for (Points node : points) {
+                ServerNode[] owners = new ServerNode[node.hashes.length];
+                Arrays.fill(owners, node.node);
+                ring = ring.merge(new Ring(node.hashes, owners));
+            }
+            return ring;
+        }
+
+        /**
+         * @param previous the points of the nodes this ring was built from
+         * @param next     the points of the nodes after the update
+         * @param capacity the maximum size of the result
+         * @return returns the points of this ring whose owner remains with the same points
+         */
+        Ring retain(Map<ServerNode, Points> previous, Map<ServerNode, Points> next, int capacity) {
+            long[] hashes = new long[Math.min(capacity, this.hashes.length)];
+            ServerNode[] owners = new ServerNode[hashes.length];
+            int count = 0;
+            for (int i = 0; i < this.hashes.length; i++) {
+                Points points = next.get(this.owners[i]);
+                if (points != null && points == previous.get(this.owners[i]) && count < hashes.length) {
+                    hashes[count] = this.hashes[i];
+                    owners[count++] = this.owners[i];
+                }
+            }
+            return new Ring(Arrays.copyOf(hashes, count), Arrays.copyOf(owners, count));
+        }
+
+        Ring merge(Ring other) {
+            int length = this.hashes.length + other.hashes.length;
+            long[] hashes = new long[length];
+            ServerNode[] owners = new ServerNode[length];
+            int i = 0;
+            int j = 0;
+            for (int slot = 0; slot < length; slot++) {
+                if (j == other.hashes.length || (i < this.hashes.length && this.hashes[i] <= other.hashes[j])) {
+                    hashes[slot] = this.hashes[i];
+                    owners[slot] = this.owners[i++];
+                } else {
+                    hashes[slot] = other.hashes[j];
+                    owners[slot] = other.owners[j++];
+                }
+            }
+            return new Ring(hashes, owners);
+        }
+    }
+}
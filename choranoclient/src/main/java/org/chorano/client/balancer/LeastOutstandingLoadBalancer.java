@@ -0,0 +1,49 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.util.PropUtil;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the node with the fewest requests in flight among client.least.outstanding.sample.size random
+ * nodes, so a pick costs the same however many servers there are. With no more servers than that every
+ * node is looked at, starting at a random one so that ties do not all go to the first node. Only when no
+ * sampled node is selectable are the others scanned.
+ */
+class LeastOutstandingLoadBalancer extends AbstractLoadBalancer {
+
+    private static final int SAMPLE_SIZE =
+            Math.max(1, PropUtil.getIntPropVal("client.least.outstanding.sample.size", 8));
+
+    @Override
+    public ServerNode pick() {
+        ServerNode[] nodes = nodes();
+        int count = nodes.length;
+        if (count == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int start = random.nextInt(count);
+        long now = System.nanoTime();
+        ServerNode best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        boolean sampled = count > SAMPLE_SIZE;
+        for (int i = 0; i < (sampled ? SAMPLE_SIZE : count) && bestOutstanding > 0; i++) {
+            ServerNode node = nodes[sampled ? random.nextInt(count) : (start + i) % count];
+            int outstanding = node.getOutstanding();
+            if (outstanding < bestOutstanding && selectable(node, now)) {
+                best = node;
+                bestOutstanding = outstanding;
+            }
+        }
+        if (best == null && sampled) {
+            for (int i = 0; i < count; i++) {
+                ServerNode node = nodes[(start + i) % count];
+                if (selectable(node, now)) {
+                    return node;
+                }
+            }
+        }
+        return best != null ? best : nodes[start];
+    }
+}
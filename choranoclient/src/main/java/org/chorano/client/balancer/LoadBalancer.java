@@ -0,0 +1,52 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.membership.MembershipSnapshot;
+
+import java.util.List;
+
+/**
+ * Picks the server a request is sent to.
+ *
+ * The caller reports every request to the picked node ({@link ServerNode#requestStarted()} and
+ * {@link ServerNode#requestCompleted(long, boolean)}), which keeps the per-node statistics the strategies
+ * work with. {@link #pick()} runs on every request and is called concurrently; implementations must not
+ * lock or allocate there. {@link #update(MembershipSnapshot)} runs when the servers change and may do both.
+ */
+public interface LoadBalancer {
+
+    /**
+     * @return returns the node to send the next request to or null if there is no server
+     */
+    ServerNode pick();
+
+    /**
+     * Picks the node for a request with an affinity key. Strategies without affinity ignore the key.
+     *
+     * @param key the key whose requests should go to the same server, null for none
+     * @return returns the node to send the request to or null if there is no server
+     */
+    default ServerNode pick(String key) {
+        return pick();
+    }
+
+    /**
+     * Picks a node other than the one a request already went to, for a retry or a hedged copy.
+     *
+     * @param key      the affinity key, null for none
+     * @param excluded the node to avoid
+     * @return returns another node or null if there is none
+     */
+    ServerNode pickOther(String key, ServerNode excluded);
+
+    /**
+     * @return returns the current nodes with their live statistics
+     */
+    List<ServerNode> getNodes();
+
+    /**
+     * Replaces the known servers. Nodes that remain keep their statistics.
+     *
+     * @param servers the alive servers
+     */
+    void update(MembershipSnapshot servers);
+}
@@ -0,0 +1,70 @@
+package org.chorano.client.balancer;
+
+/**
+ * The load balancing strategies selectable with client.load.balancer.
+ */
+public enum LoadBalancerType {
+
+    /**
+     * Smooth weighted round-robin over the weights the servers publish.
+     */
+    WEIGHTED_ROUND_ROBIN,
+
+    /**
+     * The server with the fewest requests in flight among a random sample.
+     */
+    LEAST_OUTSTANDING,
+
+    /**
+     * The less busy of two random servers.
+     */
+    POWER_OF_TWO_CHOICES,
+
+    /**
+     * The cheaper of two random servers by peak EWMA latency times requests in flight.
+     */
+    PEAK_EWMA,
+
+    /**
+     * A consistent hash ring over the affinity key with bounded loads.
+     */
+    CONSISTENT_HASH;
+
+    public LoadBalancer create() {
+        return newBalancer();
+    }
+
+    /**
+     * @param limiterQueueSize the number of requests that may wait for the concurrency limit of a server,
+     *                         instead of client.concurrency.limit.queue.size
+     * @return returns a new load balancer
+     */
+    public LoadBalancer create(int limiterQueueSize) {
+        AbstractLoadBalancer balancer = newBalancer();
+        balancer.setLimiterQueueSize(limiterQueueSize);
+        return balancer;
+    }
+
+    private AbstractLoadBalancer newBalancer() {
+        switch (this) {
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingLoadBalancer();
+            case POWER_OF_TWO_CHOICES:
+                return new PowerOfTwoChoicesLoadBalancer();
+            case PEAK_EWMA:
+                return new PeakEwmaLoadBalancer();
+            case CONSISTENT_HASH:
+                return new ConsistentHashLoadBalancer();
+            default:
+                return new WeightedRoundRobinLoadBalancer();
+        }
+    }
+
+    /**
+     * @param value the property value e.g. peak-ewma
+     * @return returns the type
+     */
+    public static LoadBalancerType fromProperty(String value) {
+        return LoadBalancerType.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
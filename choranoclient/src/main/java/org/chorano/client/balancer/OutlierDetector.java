@@ -0,0 +1,243 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Passive outlier detection: takes servers that fail or are much slower than the rest out of rotation
+ * while they are still registered in zookeeper (a stopped server keeps its node until the session times
+ * out).
+ *
+ * A server is ejected after client.outlier.consecutive.failures failures in a row, or, evaluated every
+ * client.outlier.interval.ms over the last client.outlier.window.ms, if at least
+ * client.outlier.failure.percent of at least client.outlier.min.requests requests failed or its mean
+ * latency is more than client.outlier.latency.factor times the median of the fleet. The first ejection
+ * lasts client.outlier.base.ejection.ms and every further one twice as long, up to
+ * client.outlier.max.ejection.ms; a server that stays healthy for an interval earns one doubling back.
+ * Once the ejection is over, the server is half open: a single probe request goes through, and its
+ * outcome closes the circuit or ejects the server again. The probe is claimed by the pick that finds the
+ * server selectable; if the server is not sent a request within client.outlier.interval.ms after all,
+ * the claim lapses. No more than client.outlier.max.ejection.percent
+ * of the servers (but always one of several) are ejected at a time.
+ */
+final class OutlierDetector {
+
+    static final int HEALTHY = 0;
+    static final int EJECTED = 1;
+    static final int PROBING = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutlierDetector.class);
+
+    private final int consecutiveFailures;
+    private final long intervalNanos;
+    private final long windowNanos;
+    private final int minRequests;
+    private final int failurePercent;
+    private final double latencyFactor;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+    private final Supplier<ServerNode[]> nodes;
+    private final AtomicLong nextEvaluation;
+    private final long[] sums = new long[3];
+
+    OutlierDetector(Supplier<ServerNode[]> nodes, int consecutiveFailures, long intervalMs, long windowMs,
+                    int minRequests, int failurePercent, double latencyFactor, long baseEjectionMs,
+                    long maxEjectionMs, int maxEjectionPercent) {
+        this.nodes = nodes;
+        this.consecutiveFailures = consecutiveFailures;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.minRequests = minRequests;
+        this.failurePercent = failurePercent;
+        this.latencyFactor = latencyFactor;
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionMs);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionMs);
+        this.maxEjectionPercent = maxEjectionPercent;
+        this.nextEvaluation = new AtomicLong(System.nanoTime() + this.intervalNanos);
+    }
+
+    /**
+     * @param nodes the nodes of the load balancer
+     * @return returns the detector configured by the properties file or null if it is disabled
+     */
+    static OutlierDetector fromProperties(Supplier<ServerNode[]> nodes) {
+        if (!Boolean.parseBoolean(PropUtil.getPropVal("client.outlier.detection.enabled", "true"))) {
+            return null;
+        }
+        return new OutlierDetector(nodes,
+                PropUtil.getIntPropVal("client.outlier.consecutive.failures", 5),
+                PropUtil.getIntPropVal("client.outlier.interval.ms", 1000),
+                PropUtil.getIntPropVal("client.outlier.window.ms", 10000),
+                PropUtil.getIntPropVal("client.outlier.min.requests", 20),
+                PropUtil.getIntPropVal("client.outlier.failure.percent", 50),
+                Double.parseDouble(PropUtil.getPropVal("client.outlier.latency.factor", "3")),
+                PropUtil.getIntPropVal("client.outlier.base.ejection.ms", 1000),
+                PropUtil.getIntPropVal("client.outlier.max.ejection.ms", 30000),
+                PropUtil.getIntPropVal("client.outlier.max.ejection.percent", 50));
+    }
+
+    SlidingWindow newWindow() {
+        return new SlidingWindow(10, this.windowNanos);
+    }
+
+    /**
+     * Claims the probe of a node whose ejection is over: of all concurrent callers exactly one sees it as
+     * selectable, and the node stays out for the others until the probe completes.
+     *
+     * @return returns false while the node is ejected or its probe is under way
+     */
+    boolean isSelectable(ServerNode node, long nowNanos) {
+        switch (node.health.get()) {
+            case HEALTHY:
+                return true;
+            case EJECTED:
+                return nowNanos - node.ejectedUntilNanos >= 0 && claimProbe(node, EJECTED, nowNanos);
+            default:
+                return isProbeAbandoned(node, nowNanos) && claimProbe(node, PROBING, nowNanos);
+        }
+    }
+
+    void requestStarted(ServerNode node, long nowNanos) {
+        if (!node.probeSent && node.health.get() == PROBING) {
+            node.probeSent = true;
+        }
+    }
+
+    void requestCompleted(ServerNode node, long startNanos, long nowNanos, boolean success) {
+        node.window.record(nowNanos, success, nowNanos - startNanos);
+        if (success) {
+            if (node.consecutiveFailures.get() != 0) {
+                node.consecutiveFailures.set(0);
+            }
+            if (node.health.get() == PROBING && startNanos - node.probeStartNanos >= 0
+                    && node.health.compareAndSet(PROBING, HEALTHY)) {
+                LOGGER.debug("Probe succeeded, closing the circuit of {}", node);
+            }
+        } else {
+            int failures = node.consecutiveFailures.incrementAndGet();
+            int health = node.health.get();
+            if (health == PROBING && startNanos - node.probeStartNanos >= 0) {
+                eject(node, PROBING, nowNanos, "probe failed");
+            } else if (health == HEALTHY && failures >= this.consecutiveFailures) {
+                eject(node, HEALTHY, nowNanos, failures + " consecutive failures");
+            }
+        }
+        long next = this.nextEvaluation.get();
+        if (nowNanos - next >= 0 && this.nextEvaluation.compareAndSet(next, nowNanos + this.intervalNanos)) {
+            evaluate(nowNanos);
+        }
+    }
+
+    /**
+     * Ejects the nodes whose failure rate or latency stands out. Runs on one completing thread per interval.
+     */
+    private synchronized void evaluate(long nowNanos) {
+        ServerNode[] nodes = this.nodes.get();
+        double[] means = new double[nodes.length];
+        int measured = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].window.sum(nowNanos, this.sums);
+            means[i] = this.sums[0] + this.sums[1] >= this.minRequests && this.sums[0] > 0
+                    ? (double) this.sums[2] / this.sums[0] : -1;
+            if (means[i] >= 0) {
+                measured++;
+            }
+        }
+        double median = median(means, measured);
+        for (int i = 0; i < nodes.length; i++) {
+            ServerNode node = nodes[i];
+            if (node.health.get() != HEALTHY) {
+                continue;
+            }
+            node.window.sum(nowNanos, this.sums);
+            long requests = this.sums[0] + this.sums[1];
+            if (requests >= this.minRequests && this.sums[1] * 100 >= requests * this.failurePercent) {
+                eject(node, HEALTHY, nowNanos, this.sums[1] + " of " + requests + " requests failed");
+            } else if (median > 0 && means[i] > median * this.latencyFactor) {
+                eject(node, HEALTHY, nowNanos, "mean latency " + (long) means[i] / 1000 + " us, median "
+                        + (long) median / 1000 + " us");
+            } else if (node.ejections > 0 && nowNanos - node.ejectedUntilNanos >= this.intervalNanos) {
+                node.ejections--;
+            }
+        }
+    }
+
+    /**
+     * @return returns the median of the non-negative values if there are at least three, 0 otherwise
+     */
+    private static double median(double[] values, int count) {
+        if (count < 3) {
+            return 0;
+        }
+        double[] measured = new double[count];
+        int next = 0;
+        for (double value : values) {
+            if (value >= 0) {
+                measured[next++] = value;
+            }
+        }
+        Arrays.sort(measured);
+        return count % 2 == 1 ? measured[count / 2] : (measured[count / 2 - 1] + measured[count / 2]) / 2;
+    }
+
+    /**
+     * A probe that never completes, or a claim no request followed because the node was not picked after
+     * all, must not keep the node out for good.
+     */
+    private boolean isProbeAbandoned(ServerNode node, long nowNanos) {
+        long claimed = nowNanos - node.probeStartNanos;
+        return claimed >= this.maxEjectionNanos || !node.probeSent && claimed >= this.intervalNanos;
+    }
+
+    /**
+     * Moves the node from EJECTED (or an abandoned probe) to PROBING. The claim time is written under the
+     * lock of the node before the state changes, so a caller that sees PROBING also sees when it started.
+     */
+    private boolean claimProbe(ServerNode node, int from, long nowNanos) {
+        synchronized (node) {
+            if (node.health.get() != from || from == PROBING && !isProbeAbandoned(node, nowNanos)) {
+                return false;
+            }
+            node.probeStartNanos = nowNanos;
+            node.probeSent = false;
+            if (!node.health.compareAndSet(from, PROBING)) {
+                return false;
+            }
+        }
+        LOGGER.debug("Probing {}", node);
+        return true;
+    }
+
+    private synchronized void eject(ServerNode node, int from, long nowNanos, String reason) {
+        if (from == HEALTHY && !canEject()) {
+            LOGGER.debug("Not ejecting {} ({}), too many servers are ejected already", node, reason);
+            return;
+        }
+        long duration = Math.min(this.maxEjectionNanos, this.baseEjectionNanos << Math.min(node.ejections, 20));
+        node.ejectedUntilNanos = nowNanos + duration;
+        if (node.health.compareAndSet(from, EJECTED)) {
+            node.ejections++;
+            node.consecutiveFailures.set(0);
+            LOGGER.debug("Ejecting {} for {} ms: {}", node, TimeUnit.NANOSECONDS.toMillis(duration), reason);
+        }
+    }
+
+    private boolean canEject() {
+        ServerNode[] nodes = this.nodes.get();
+        int ejected = 0;
+        for (ServerNode node : nodes) {
+            if (node.health.get() != HEALTHY) {
+                ejected++;
+            }
+        }
+        int allowed = nodes.length < 2 ? 0 : Math.max(1, nodes.length * this.maxEjectionPercent / 100);
+        return ejected < allowed;
+    }
+}
@@ -0,0 +1,14 @@
+package org.chorano.client.balancer;
+
+/**
+ * Power of two choices by expected wait: the peak EWMA latency of a node (see {@link ServerNode}) times
+ * its requests in flight plus one. A node without any latency yet costs nothing, so new servers are
+ * probed right away.
+ */
+class PeakEwmaLoadBalancer extends PowerOfTwoChoicesLoadBalancer {
+
+    @Override
+    protected double cost(ServerNode node, long nowNanos) {
+        return node.latencyNanos(nowNanos) * (node.getOutstanding() + 1);
+    }
+}
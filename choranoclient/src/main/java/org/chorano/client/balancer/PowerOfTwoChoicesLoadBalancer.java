@@ -0,0 +1,49 @@
+package org.chorano.client.balancer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two distinct nodes at random and sends to the cheaper one. Nearly as good as looking at every
+ * node, in constant time, and without the herding of many clients onto the one least loaded node. An
+ * ejected candidate loses to the other one.
+ */
+class PowerOfTwoChoicesLoadBalancer extends AbstractLoadBalancer {
+
+    @Override
+    public ServerNode pick() {
+        ServerNode[] nodes = nodes();
+        int count = nodes.length;
+        if (count < 2) {
+            return count == 0 ? null : nodes[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if (second >= first) {
+            second++;
+        }
+        long now = System.nanoTime();
+        boolean firstSelectable = selectable(nodes[first], now);
+        boolean secondSelectable = selectable(nodes[second], now);
+        if (firstSelectable && secondSelectable) {
+            return cost(nodes[second], now) < cost(nodes[first], now) ? nodes[second] : nodes[first];
+        }
+        if (firstSelectable || secondSelectable) {
+            return firstSelectable ? nodes[first] : nodes[second];
+        }
+        for (int i = 1; i < count; i++) {
+            ServerNode node = nodes[(first + i) % count];
+            if (selectable(node, now)) {
+                return node;
+            }
+        }
+        return nodes[first];
+    }
+
+    /**
+     * @return returns the cost of sending the next request to the node, by default its requests in flight
+     */
+    protected double cost(ServerNode node, long nowNanos) {
+        return node.getOutstanding();
+    }
+}
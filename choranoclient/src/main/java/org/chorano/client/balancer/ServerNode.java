@@ -0,0 +1,209 @@
+package org.chorano.client.balancer;
+
+import org.chorano.client.common.ServerLoadReport;
+import org.chorano.client.limit.ConcurrencyLimiter;
+import org.chorano.client.util.PropUtil;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A chorano server as seen by a {@link LoadBalancer}, with lock-free request statistics.
+ *
+ * The latency is tracked as a peak EWMA: a response slower than the average replaces it right away,
+ * faster responses pull it down with a weight that decays over client.peak.ewma.decay.ms. A server
+ * that turns slow is thus avoided at once and only trusted again gradually. Until the first response
+ * the p99 latency published by the server is used. The p95 latency is estimated by stochastic
+ * approximation: every response nudges the estimate up (with probability 0.95) when it was slower and
+ * down (with probability 0.05) when it was faster, by a fraction of the estimate.
+ *
+ * With an {@link OutlierDetector} the node also carries its health: a sliding window of outcomes and
+ * whether it is ejected. With a {@link ConcurrencyLimiter} it carries the adaptive limit of requests
+ * in flight to the server.
+ */
+public final class ServerNode {
+
+    private static final double DECAY_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(PropUtil.getIntPropVal("client.peak.ewma.decay.ms", 10000));
+
+    final AtomicInteger health = new AtomicInteger(OutlierDetector.HEALTHY);
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final SlidingWindow window;
+    volatile long ejectedUntilNanos;
+    volatile long probeStartNanos;
+    volatile boolean probeSent;
+    int ejections;
+
+    private final String path;
+    private final OutlierDetector outliers;
+    private final ConcurrencyLimiter limiter;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder totalOutstanding;
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(-1));
+    private final AtomicLong p95Nanos = new AtomicLong(-1);
+    private volatile long ewmaStamp = System.nanoTime();
+    private volatile String location;
+    private volatile ServerLoadReport report;
+
+    /**
+     * @param totalOutstanding the requests in flight to all nodes of the load balancer, kept up to date by
+     *                         this node as well
+     */
+    ServerNode(String path, OutlierDetector outliers, ConcurrencyLimiter limiter, LongAdder totalOutstanding) {
+        this.path = path;
+        this.outliers = outliers;
+        this.limiter = limiter;
+        this.totalOutstanding = totalOutstanding;
+        this.window = outliers == null ? null : outliers.newWindow();
+    }
+
+    void update(String location, ServerLoadReport report) {
+        this.location = location;
+        this.report = report;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getLocation() {
+        return this.location;
+    }
+
+    /**
+     * @return returns the last load report of the server, null if it has not published one
+     */
+    public ServerLoadReport getReport() {
+        return this.report;
+    }
+
+    /**
+     * @return returns the weight the server publishes, 100 by default
+     */
+    public int getWeight() {
+        ServerLoadReport report = this.report;
+        return report == null ? 100 : report.getWeight();
+    }
+
+    public int getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * @return returns the limiter requests to the server pass, null if client.concurrency.limit is none
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return this.limiter;
+    }
+
+    /**
+     * @return returns the current concurrency limit of the server, -1 if there is none
+     */
+    public int getConcurrencyLimit() {
+        return this.limiter == null ? -1 : this.limiter.getLimit();
+    }
+
+    /**
+     * Called before a request is sent to the server.
+     *
+     * @return returns the start time to pass to {@link #requestCompleted(long, boolean)}
+     */
+    public long requestStarted() {
+        this.outstanding.incrementAndGet();
+        this.totalOutstanding.increment();
+        long now = System.nanoTime();
+        if (this.outliers != null) {
+            this.outliers.requestStarted(this, now);
+        }
+        return now;
+    }
+
+    /**
+     * Called once the response (or failure) of a request is in. Only successful requests count towards
+     * the latency, a fast failure must not make a broken server look attractive.
+     *
+     * @param startNanos the value returned by {@link #requestStarted()}
+     * @param success    false if the request failed
+     */
+    public void requestCompleted(long startNanos, boolean success) {
+        this.outstanding.decrementAndGet();
+        this.totalOutstanding.decrement();
+        long now = System.nanoTime();
+        if (success) {
+            observe(now, now - startNanos);
+            observeP95(now - startNanos);
+        }
+        if (this.outliers != null) {
+            this.outliers.requestCompleted(this, startNanos, now, success);
+        }
+    }
+
+    /**
+     * @return returns true while the node is taken out of rotation by outlier detection
+     */
+    public boolean isEjected() {
+        return this.health.get() != OutlierDetector.HEALTHY;
+    }
+
+    /**
+     * @param nowNanos the current time
+     * @return returns the peak EWMA latency in nanoseconds decayed to now, 0 if nothing is known
+     */
+    public double latencyNanos(long nowNanos) {
+        double ewma = Double.longBitsToDouble(this.ewmaBits.get());
+        if (ewma < 0) {
+            ServerLoadReport report = this.report;
+            return report == null || report.getP99Micros() < 0 ? 0 : report.getP99Micros() * 1000.0;
+        }
+        return ewma * Math.exp(-Math.max(0, nowNanos - this.ewmaStamp) / DECAY_NANOS);
+    }
+
+    /**
+     * @return returns the estimated p95 latency of successful requests in nanoseconds, -1 before the first
+     */
+    public long p95Nanos() {
+        return this.p95Nanos.get();
+    }
+
+    private void observeP95(long latencyNanos) {
+        long estimate = this.p95Nanos.get();
+        if (estimate < 0) {
+            this.p95Nanos.compareAndSet(estimate, latencyNanos);
+            return;
+        }
+        double chance = ThreadLocalRandom.current().nextDouble();
+        long step = Math.max(1, estimate >> 4);
+        if (latencyNanos > estimate && chance < 0.95) {
+            this.p95Nanos.compareAndSet(estimate, estimate + step);
+        } else if (latencyNanos < estimate && chance < 0.05) {
+            this.p95Nanos.compareAndSet(estimate, Math.max(1, estimate - step));
+        }
+    }
+
+    private void observe(long nowNanos, long latencyNanos) {
+        while (true) {
+            long bits = this.ewmaBits.get();
+            double ewma = Double.longBitsToDouble(bits);
+            double next;
+            if (ewma < 0 || latencyNanos > ewma) {
+                next = latencyNanos;
+            } else {
+                double weight = Math.exp(-Math.max(0, nowNanos - this.ewmaStamp) / DECAY_NANOS);
+                next = ewma * weight + latencyNanos * (1 - weight);
+            }
+            if (this.ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                this.ewmaStamp = nowNanos;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServerNode[path=" + this.path + ", location=" + this.location + ", outstanding="
+                + getOutstanding() + ", limit=" + getConcurrencyLimit() + ", ejected=" + isEjected() + "]";
+    }
+}
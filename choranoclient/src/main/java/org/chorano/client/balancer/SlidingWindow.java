@@ -0,0 +1,79 @@
+package org.chorano.client.balancer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request counts and latency of the last windowNanos, kept in rotating buckets.
+ *
+ * Each bucket holds (epoch, successes, failures, latency sum) in one {@link AtomicLongArray}. A recorder
+ * that finds a bucket of an older epoch resets it; concurrent recorders may lose a sample at that moment,
+ * which is fine for outlier detection and keeps recording free of locks and allocation.
+ *
+ * Epochs count buckets from the time the window was created, as {@link System#nanoTime()} may be negative.
+ */
+final class SlidingWindow {
+
+    private static final int FIELDS = 4;
+    private static final int EPOCH = 0;
+    private static final int SUCCESSES = 1;
+    private static final int FAILURES = 2;
+    private static final int LATENCY = 3;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final int buckets;
+    private final long bucketNanos;
+    private final long baseNanos = System.nanoTime();
+    private final AtomicLongArray data;
+
+    SlidingWindow(int buckets, long windowNanos) {
+        this.buckets = buckets;
+        this.bucketNanos = Math.max(1, windowNanos / buckets);
+        this.data = new AtomicLongArray(buckets * FIELDS);
+        for (int i = 0; i < buckets; i++) {
+            this.data.set(i * FIELDS + EPOCH, UNSET);
+        }
+    }
+
+    void record(long nowNanos, boolean success, long latencyNanos) {
+        long epoch = epoch(nowNanos);
+        int base = (int) Math.floorMod(epoch, (long) this.buckets) * FIELDS;
+        long seen = this.data.get(base + EPOCH);
+        if (seen != epoch && this.data.compareAndSet(base + EPOCH, seen, epoch)) {
+            this.data.set(base + SUCCESSES, 0);
+            this.data.set(base + FAILURES, 0);
+            this.data.set(base + LATENCY, 0);
+        }
+        if (success) {
+            this.data.incrementAndGet(base + SUCCESSES);
+            this.data.addAndGet(base + LATENCY, latencyNanos);
+        } else {
+            this.data.incrementAndGet(base + FAILURES);
+        }
+    }
+
+    /**
+     * Sums the buckets of the window.
+     *
+     * @param nowNanos the current time
+     * @param sums     receives the successes, failures and latency sum of the successes
+     */
+    void sum(long nowNanos, long[] sums) {
+        long current = epoch(nowNanos);
+        sums[0] = 0;
+        sums[1] = 0;
+        sums[2] = 0;
+        for (int i = 0; i < this.buckets; i++) {
+            int base = i * FIELDS;
+            long epoch = this.data.get(base + EPOCH);
+            if (epoch != UNSET && current - epoch < this.buckets) {
+                sums[0] += this.data.get(base + SUCCESSES);
+                sums[1] += this.data.get(base + FAILURES);
+                sums[2] += this.data.get(base + LATENCY);
+            }
+        }
+    }
+
+    private long epoch(long nowNanos) {
+        return Math.floorDiv(nowNanos - this.baseNanos, this.bucketNanos);
+    }
+}
@@ -0,0 +1,95 @@
+package org.chorano.client.balancer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Smooth weighted round-robin (as in nginx): every round each node gains its weight, the node with the
+ * highest current weight is picked and loses the total weight. A node of weight 3 next to one of weight
+ * 1 is picked a, a, b, a rather than a, a, a, b.
+ *
+ * The sequence is computed once per update into a schedule that {@link #pick()} walks with a single
+ * atomic counter. Weights are reduced by their greatest common divisor and scaled down to at most
+ * MAX_SCHEDULE slots; a node of weight 0 is only used if every node has weight 0. The slots of an
+ * ejected node are passed on to the next slots.
+ */
+class WeightedRoundRobinLoadBalancer extends AbstractLoadBalancer {
+
+    private static final int MAX_SCHEDULE = 1024;
+
+    private final AtomicLong next = new AtomicLong();
+    private volatile ServerNode[] schedule = new ServerNode[0];
+
+    @Override
+    public ServerNode pick() {
+        ServerNode[] schedule = this.schedule;
+        if (schedule.length == 0) {
+            return null;
+        }
+        int start = (int) ((this.next.getAndIncrement() & Long.MAX_VALUE) % schedule.length);
+        long now = System.nanoTime();
+        for (int i = 0; i < schedule.length; i++) {
+            ServerNode node = schedule[(start + i) % schedule.length];
+            if (selectable(node, now)) {
+                return node;
+            }
+        }
+        return schedule[start];
+    }
+
+    @Override
+    protected void nodesChanged(ServerNode[] nodes) {
+        int[] weights = new int[nodes.length];
+        long total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            weights[i] = Math.max(0, nodes[i].getWeight());
+            total += weights[i];
+        }
+        if (total == 0) {
+            Arrays.fill(weights, 1);
+            total = nodes.length;
+        }
+        int gcd = 0;
+        for (int weight : weights) {
+            gcd = gcd(gcd, weight);
+        }
+        total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = gcd == 0 ? 0 : weights[i] / gcd;
+            total += weights[i];
+        }
+        if (total > MAX_SCHEDULE) {
+            long scaled = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = (int) Math.max(1, weights[i] * MAX_SCHEDULE / total);
+                }
+                scaled += weights[i];
+            }
+            total = scaled;
+        }
+        ServerNode[] schedule = new ServerNode[(int) total];
+        long[] current = new long[nodes.length];
+        for (int slot = 0; slot < schedule.length; slot++) {
+            int best = -1;
+            for (int i = 0; i < nodes.length; i++) {
+                current[i] += weights[i];
+                if (weights[i] > 0 && (best < 0 || current[i] > current[best])) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            schedule[slot] = nodes[best];
+        }
+        this.schedule = schedule;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,121 @@
+package org.chorano.client.common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Load of a chorano server as published by the server in the data of its zookeeper node "/chorano/x_n".
+ *
+ * Binary layout (big endian):
+ * <pre>
+ * byte   0x00 marker, never the first byte of the plain "host:port" data of older servers
+ * byte   version
+ * short  length of the location, followed by the location in UTF-8 (e.g. localhost:8111)
+ * int    in-flight requests
+ * int    queue depth
+ * int    p99 latency of the last interval in microseconds
+ * int    capacity
+ * int    weight
+ * byte   supported protocols, a bitmask of PROTOCOL_ constants (since version 2)
+ * </pre>
+ * Later versions only append fields, so the fields above are read from any version. Data of older
+ * servers holds the location only; its load is unknown (-1) and it speaks http only.
+ */
+public final class ServerLoadReport {
+
+    public static final int UNKNOWN = -1;
+    public static final int PROTOCOL_HTTP = 1;
+    public static final int PROTOCOL_BINARY = 2;
+    private static final byte MARKER = 0;
+    private static final int DEFAULT_WEIGHT = 100;
+
+    private final String location;
+    private final int inFlight;
+    private final int queueDepth;
+    private final int p99Micros;
+    private final int capacity;
+    private final int weight;
+    private final int protocols;
+
+    private ServerLoadReport(String location, int inFlight, int queueDepth, int p99Micros, int capacity,
+                             int weight, int protocols) {
+        this.location = location;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.p99Micros = p99Micros;
+        this.capacity = capacity;
+        this.weight = weight;
+        this.protocols = protocols;
+    }
+
+    /**
+     * Decodes the data of a server node.
+     *
+     * @param data the node data
+     * @return returns the report or null if the data is malformed
+     */
+    public static ServerLoadReport decode(byte[] data) {
+        if (data.length == 0 || data[0] != MARKER) {
+            return new ServerLoadReport(new String(data, StandardCharsets.UTF_8), UNKNOWN, UNKNOWN, UNKNOWN,
+                    UNKNOWN, DEFAULT_WEIGHT, PROTOCOL_HTTP);
+        }
+        try {
+            int version = data[1];
+            ByteBuffer buffer = ByteBuffer.wrap(data, 2, data.length - 2);
+            byte[] location = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(location);
+            return new ServerLoadReport(new String(location, StandardCharsets.UTF_8), buffer.getInt(),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                    version >= 2 ? buffer.get() : PROTOCOL_HTTP);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    public String getLocation() {
+        return this.location;
+    }
+
+    /**
+     * @return returns false for servers that publish their location only
+     */
+    public boolean hasLoad() {
+        return this.inFlight != UNKNOWN;
+    }
+
+    public int getInFlight() {
+        return this.inFlight;
+    }
+
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public int getP99Micros() {
+        return this.p99Micros;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * @param protocol one of the PROTOCOL_ constants
+     * @return returns true if the server speaks the protocol
+     */
+    public boolean supports(int protocol) {
+        return (this.protocols & protocol) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerLoadReport[location=" + this.location + ", inFlight=" + this.inFlight + ", queueDepth="
+                + this.queueDepth + ", p99Micros=" + this.p99Micros + ", capacity=" + this.capacity
+                + ", weight=" + this.weight + ", protocols=" + this.protocols + "]";
+    }
+}
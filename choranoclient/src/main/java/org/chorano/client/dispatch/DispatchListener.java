@@ -0,0 +1,35 @@
+package org.chorano.client.dispatch;
+
+/**
+ * Observes the requests of a {@link RequestDispatcher}, e.g. to record their latency.
+ *
+ * Every request reports the time it was due as well as the time it was actually sent. In an open loop a
+ * request is due at its place in the schedule; if the dispatcher falls behind, it is sent later, and the
+ * time from due to completion is what a user arriving on schedule would have waited (latency corrected
+ * for coordinated omission). In a closed loop a request is due when it is sent. Called on the thread that
+ * completed the request; implementations must be thread safe and fast.
+ */
+public interface DispatchListener {
+
+    DispatchListener NONE = new DispatchListener() {
+    };
+
+    /**
+     * @param sequence  the number of the request
+     * @param dueNanos  the time the request was due
+     * @param sentNanos the time the request was sent
+     * @param endNanos  the time the response (or failure) came in
+     * @param failure   the failure, null if the request succeeded
+     */
+    default void requestCompleted(long sequence, long dueNanos, long sentNanos, long endNanos, Throwable failure) {
+    }
+
+    /**
+     * Called for an open-loop request that was not sent because the outstanding limit was reached.
+     *
+     * @param sequence the number of the request
+     * @param dueNanos the time the request was due
+     */
+    default void requestSkipped(long sequence, long dueNanos) {
+    }
+}
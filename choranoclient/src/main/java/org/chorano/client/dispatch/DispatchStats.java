@@ -0,0 +1,55 @@
+package org.chorano.client.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a dispatcher run.
+ */
+public final class DispatchStats {
+
+    private final long succeeded;
+    private final long failed;
+    private final long skipped;
+    private final long elapsedNanos;
+
+    DispatchStats(long succeeded, long failed, long skipped, long elapsedNanos) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.skipped = skipped;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getSucceeded() {
+        return this.succeeded;
+    }
+
+    public long getFailed() {
+        return this.failed;
+    }
+
+    /**
+     * @return returns the number of requests an open-loop run did not send because the outstanding limit
+     * was reached when they were due
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return returns the completed (succeeded or failed) requests per second
+     */
+    public double getThroughput() {
+        return this.elapsedNanos == 0 ? 0 : (this.succeeded + this.failed) * 1e9 / this.elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchStats[succeeded=" + this.succeeded + ", failed=" + this.failed + ", skipped="
+                + this.skipped + ", elapsed=" + TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos) + " ms"
+                + ", throughput=" + Math.round(getThroughput()) + "/s]";
+    }
+}
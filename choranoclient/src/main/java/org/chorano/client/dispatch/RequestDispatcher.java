@@ -0,0 +1,204 @@
+package org.chorano.client.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives many concurrent requests through a non-blocking {@link RequestSender} without a thread per
+ * request. At most maxOutstanding requests are in flight at any time.
+ *
+ * <ul>
+ *     <li>closed loop: maxOutstanding requests are started and every completed request starts the next
+ *     one, so the load adapts to how fast the servers answer</li>
+ *     <li>open loop: requests are started at a fixed rate whatever the servers do, which is how independent
+ *     users arrive; a request that is due while the limit is reached is skipped and counted</li>
+ * </ul>
+ * Work is spread over a pool of dispatcher threads, one per core by default. A {@link DispatchListener}
+ * sees the timing of every request.
+ */
+public class RequestDispatcher implements AutoCloseable {
+
+    private final Logger logger = LoggerFactory.getLogger(RequestDispatcher.class);
+    private final RequestSender sender;
+    private final DispatchListener listener;
+    private final int maxOutstanding;
+    private final int threads;
+    private final Semaphore permits;
+    private final ExecutorService dispatchers;
+
+    /**
+     * @param sender         sends a single request
+     * @param maxOutstanding the maximum number of requests in flight
+     * @param threads        the number of dispatcher threads
+     */
+    public RequestDispatcher(RequestSender sender, int maxOutstanding, int threads) {
+        this(sender, maxOutstanding, threads, DispatchListener.NONE);
+    }
+
+    /**
+     * @param sender         sends a single request
+     * @param maxOutstanding the maximum number of requests in flight
+     * @param threads        the number of dispatcher threads
+     * @param listener       observes every request of the closed and open loop runs
+     */
+    public RequestDispatcher(RequestSender sender, int maxOutstanding, int threads, DispatchListener listener) {
+        this.sender = sender;
+        this.listener = listener;
+        this.maxOutstanding = maxOutstanding;
+        this.threads = threads;
+        this.permits = new Semaphore(maxOutstanding);
+        AtomicInteger count = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "chorano-dispatcher-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends a single request, waiting for a free slot if the outstanding limit is reached.
+     *
+     * @param sequence the number of the request
+     * @return returns the future of the response
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public CompletableFuture<String> submit(long sequence) throws InterruptedException {
+        this.permits.acquire();
+        return send(sequence).whenComplete((response, failure) -> this.permits.release());
+    }
+
+    /**
+     * Runs requests in a closed loop: every completed request starts the next one.
+     *
+     * @param requests the number of requests
+     * @return returns a future completed once every request has completed
+     */
+    public CompletableFuture<DispatchStats> closedLoop(long requests) {
+        Run run = new Run(requests);
+        for (int i = 0; i < Math.min(this.maxOutstanding, requests); i++) {
+            this.dispatchers.execute(() -> sendNextClosed(run));
+        }
+        return run.done;
+    }
+
+    /**
+     * Runs requests in an open loop: request n is started n / ratePerSecond seconds after the start.
+     *
+     * @param requests      the number of requests
+     * @param ratePerSecond the number of requests started per second
+     * @return returns a future completed once every request has completed or been skipped
+     */
+    public CompletableFuture<DispatchStats> openLoop(long requests, double ratePerSecond) {
+        Run run = new Run(requests);
+        long intervalNanos = (long) (1e9 / ratePerSecond);
+        for (int i = 0; i < this.threads; i++) {
+            int first = i;
+            this.dispatchers.execute(() -> {
+                // every dispatcher thread starts every threads-th request of the schedule
+                for (long sequence = first; sequence < requests; sequence += this.threads) {
+                    long due = run.startNanos + sequence * intervalNanos;
+                    long delay;
+                    // parkNanos may return early, e.g. on a spurious wakeup
+                    while ((delay = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                    if (!this.permits.tryAcquire()) {
+                        this.listener.requestSkipped(sequence, due);
+                        run.skipped.increment();
+                        run.completed();
+                        continue;
+                    }
+                    long sent = System.nanoTime();
+                    long current = sequence;
+                    send(sequence).whenComplete((response, failure) -> {
+                        this.listener.requestCompleted(current, due, sent, System.nanoTime(), failure);
+                        this.permits.release();
+                        run.record(failure);
+                    });
+                }
+            });
+        }
+        return run.done;
+    }
+
+    @Override
+    public void close() {
+        this.dispatchers.shutdownNow();
+    }
+
+    private void sendNextClosed(Run run) {
+        long sequence = run.next.getAndIncrement();
+        if (sequence >= run.requests) {
+            return;
+        }
+        long sent = System.nanoTime();
+        // continue on a dispatcher thread, not on the thread of the transport that completed the request
+        send(sequence).whenComplete((response, failure) ->
+                this.listener.requestCompleted(sequence, sent, sent, System.nanoTime(), failure)
+        ).whenCompleteAsync((response, failure) -> {
+            run.record(failure);
+            sendNextClosed(run);
+        }, this.dispatchers);
+    }
+
+    private CompletableFuture<String> send(long sequence) {
+        try {
+            return this.sender.send(sequence);
+        } catch (RuntimeException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Progress of a single closed- or open-loop run.
+     */
+    private final class Run {
+
+        private final long requests;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicLong remaining;
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final CompletableFuture<DispatchStats> done = new CompletableFuture<>();
+
+        Run(long requests) {
+            this.requests = requests;
+            this.remaining = new AtomicLong(requests);
+            if (requests <= 0) {
+                completed();
+            }
+        }
+
+        void record(Throwable failure) {
+            if (failure == null) {
+                this.succeeded.increment();
+            } else {
+                this.failed.increment();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Request failed: {}", failure.toString());
+                }
+            }
+            completed();
+        }
+
+        void completed() {
+            if (this.remaining.decrementAndGet() <= 0) {
+                this.done.complete(new DispatchStats(this.succeeded.sum(), this.failed.sum(), this.skipped.sum(),
+                        System.nanoTime() - this.startNanos));
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.chorano.client.dispatch;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends one request of a run without blocking, e.g. by picking a server and a transport.
+ */
+@FunctionalInterface
+public interface RequestSender {
+
+    /**
+     * @param sequence the number of the request within the run, starting at 0
+     * @return returns a future completed with the response entity or the failure
+     */
+    CompletableFuture<String> send(long sequence);
+}
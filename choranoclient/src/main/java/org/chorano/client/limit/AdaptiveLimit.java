@@ -0,0 +1,21 @@
+package org.chorano.client.limit;
+
+/**
+ * A concurrency limit that adapts to the round trip times of the requests it lets through.
+ */
+public interface AdaptiveLimit {
+
+    /**
+     * @return returns the number of requests currently allowed in flight
+     */
+    int getLimit();
+
+    /**
+     * Called for every completed request.
+     *
+     * @param rttNanos the round trip time of the request
+     * @param inFlight the requests in flight when the request was sent
+     * @param dropped  true if the server refused the request as overloaded
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+}
@@ -0,0 +1,174 @@
+package org.chorano.client.limit;
+
+import org.chorano.client.transport.ServerOverloadedException;
+import org.chorano.client.util.PropUtil;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lets at most {@link AdaptiveLimit#getLimit()} requests to one server be in flight. Requests beyond the
+ * limit wait in a queue and are sent as earlier ones complete. Every completion feeds its round trip
+ * time (without the wait) into the limit.
+ *
+ * At most maxWaiting requests wait (client.concurrency.limit.queue.size by default), and a request that
+ * waited longer than client.concurrency.limit.queue.timeout.ms is not sent. Both fail with a
+ * {@link ServerOverloadedException}, so the request can be retried on another server.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The number of requests that may wait for the limit of one server unless the client sizes it.
+     */
+    public static final int QUEUE_SIZE = PropUtil.getIntPropVal("client.concurrency.limit.queue.size", 64);
+    private static final long MAX_WAIT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(PropUtil.getIntPropVal("client.concurrency.limit.queue.timeout.ms", 1000));
+
+    private final AdaptiveLimit limit;
+    private final int maxWaiting;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    ConcurrencyLimiter(AdaptiveLimit limit, int maxWaiting) {
+        this.limit = limit;
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * Sends a request as soon as the limit allows.
+     *
+     * @param request sends the request
+     * @return returns the response
+     */
+    public CompletableFuture<String> send(Supplier<CompletableFuture<String>> request) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        if (this.waiting.isEmpty() && tryAcquire()) {
+            run(request, response);
+        } else if (this.waitingCount.incrementAndGet() > this.maxWaiting) {
+            this.waitingCount.decrementAndGet();
+            response.completeExceptionally(new ServerOverloadedException("Too many requests waiting for the limit"));
+        } else {
+            this.waiting.add(new Waiting(request, response));
+            drain();
+        }
+        return response;
+    }
+
+    /**
+     * @return returns true if a request sent now would not have to wait
+     */
+    public boolean hasCapacity() {
+        return this.inFlight.get() < this.limit.getLimit() && this.waiting.isEmpty();
+    }
+
+    public int getLimit() {
+        return this.limit.getLimit();
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    private void run(Supplier<CompletableFuture<String>> request, CompletableFuture<String> response) {
+        int inFlight = this.inFlight.get();
+        long start = System.nanoTime();
+        CompletableFuture<String> sent;
+        try {
+            sent = request.get();
+        } catch (RuntimeException e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+        sent.whenComplete((body, failure) -> {
+            this.inFlight.decrementAndGet();
+            this.limit.onSample(System.nanoTime() - start, inFlight, isOverloaded(failure));
+            drain();
+            if (failure == null) {
+                response.complete(body);
+            } else {
+                response.completeExceptionally(failure);
+            }
+        });
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        while ((current = this.inFlight.get()) < this.limit.getLimit()) {
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts waiting requests while the limit allows. Runs after every enqueue and completion, so a request
+     * is never left waiting with the limit free. A request that completes while it is started, e.g. one that
+     * fails to connect, calls drain again; only the outermost call starts requests, the nested ones make it
+     * loop once more, so the stack does not grow with the number of waiting requests.
+     */
+    private void drain() {
+        if (this.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            Waiting next;
+            while ((next = this.waiting.peek()) != null && next.isExpired() && this.waiting.remove(next)) {
+                this.waitingCount.decrementAndGet();
+                next.expire();
+            }
+            while (!this.waiting.isEmpty() && tryAcquire()) {
+                next = this.waiting.poll();
+                if (next == null) {
+                    this.inFlight.decrementAndGet();
+                    break;
+                }
+                this.waitingCount.decrementAndGet();
+                if (next.isExpired()) {
+                    this.inFlight.decrementAndGet();
+                    next.expire();
+                } else {
+                    run(next.request, next.response);
+                }
+            }
+            requests = this.drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private static boolean isOverloaded(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServerOverloadedException || cause instanceof ServiceUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Waiting {
+
+        private final Supplier<CompletableFuture<String>> request;
+        private final CompletableFuture<String> response;
+        private final long since = System.nanoTime();
+
+        Waiting(Supplier<CompletableFuture<String>> request, CompletableFuture<String> response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - this.since > MAX_WAIT_NANOS;
+        }
+
+        void expire() {
+            this.response.completeExceptionally(new ServerOverloadedException("Request waited too long for the limit"));
+        }
+    }
+}
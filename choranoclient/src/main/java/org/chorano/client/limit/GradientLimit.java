@@ -0,0 +1,59 @@
+package org.chorano.client.limit;
+
+/**
+ * Gradient limit: compares a short-term round trip time (the last samples) with a long-term average.
+ * The gradient tolerance * longRtt / shortRtt, kept between 0.5 and 1, scales the limit down as soon as
+ * requests queue up at the server; sqrt(limit) is added so the limit keeps probing upwards while there is
+ * no queue. Changes are smoothed. If the long-term average drifts far above the short-term one (the
+ * server recovered) it decays towards it.
+ */
+class GradientLimit implements AdaptiveLimit {
+
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 2.0 / (600 + 1);
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private double estimate;
+    private double shortRttNanos;
+    private double longRttNanos;
+    private volatile int limit;
+
+    GradientLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.estimate = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return this.limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (this.longRttNanos == 0) {
+            this.shortRttNanos = rttNanos;
+            this.longRttNanos = rttNanos;
+        }
+        this.shortRttNanos += (rttNanos - this.shortRttNanos) * SHORT_WEIGHT;
+        this.longRttNanos += (rttNanos - this.longRttNanos) * LONG_WEIGHT;
+        if (this.longRttNanos > this.shortRttNanos * 2) {
+            this.longRttNanos *= 0.95;
+        }
+        if (!dropped && inFlight * 2 < this.estimate) {
+            // the client is not using the limit, the samples tell nothing about the server's capacity
+            return;
+        }
+        double gradient = dropped ? 0.5
+                : Math.max(0.5, Math.min(1.0, this.tolerance * this.longRttNanos / this.shortRttNanos));
+        double next = this.estimate * gradient + Math.sqrt(this.estimate);
+        next = this.estimate * (1 - SMOOTHING) + next * SMOOTHING;
+        this.estimate = Math.max(this.minLimit, Math.min(this.maxLimit, next));
+        this.limit = (int) this.estimate;
+    }
+}
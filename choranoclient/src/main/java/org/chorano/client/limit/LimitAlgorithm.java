@@ -0,0 +1,50 @@
+package org.chorano.client.limit;
+
+import org.chorano.client.util.PropUtil;
+
+/**
+ * The concurrency limit algorithms selectable with client.concurrency.limit.
+ */
+public enum LimitAlgorithm {
+
+    /**
+     * No limit per server.
+     */
+    NONE,
+
+    /**
+     * See {@link VegasLimit}.
+     */
+    VEGAS,
+
+    /**
+     * See {@link GradientLimit}.
+     */
+    GRADIENT;
+
+    private static final int INITIAL_LIMIT = PropUtil.getIntPropVal("client.concurrency.limit.initial", 20);
+    private static final int MIN_LIMIT = PropUtil.getIntPropVal("client.concurrency.limit.min", 1);
+    private static final int MAX_LIMIT = PropUtil.getIntPropVal("client.concurrency.limit.max", 200);
+    private static final double RTT_TOLERANCE =
+            Double.parseDouble(PropUtil.getPropVal("client.concurrency.limit.rtt.tolerance", "1.5"));
+
+    /**
+     * @param maxWaiting the number of requests that may wait for the limit
+     * @return returns a limiter for one server or null for NONE
+     */
+    public ConcurrencyLimiter newLimiter(int maxWaiting) {
+        switch (this) {
+            case VEGAS:
+                return new ConcurrencyLimiter(new VegasLimit(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT), maxWaiting);
+            case GRADIENT:
+                return new ConcurrencyLimiter(new GradientLimit(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT, RTT_TOLERANCE),
+                        maxWaiting);
+            default:
+                return null;
+        }
+    }
+
+    public static LimitAlgorithm fromProperty(String value) {
+        return LimitAlgorithm.valueOf(value.trim().toUpperCase());
+    }
+}
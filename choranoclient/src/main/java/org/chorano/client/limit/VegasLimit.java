@@ -0,0 +1,64 @@
+package org.chorano.client.limit;
+
+/**
+ * Limit in the style of TCP Vegas: the queue at the server is estimated from how much the round trip
+ * time exceeds the lowest one seen, queue = limit * (1 - minRtt / rtt). The limit grows while the queue
+ * is short (by log10(limit), or by 6 * log10(limit) while there is hardly any queue), shrinks by
+ * log10(limit) once the queue exceeds 6 * log10(limit) or a request is refused, and stays in between.
+ *
+ * The lowest round trip time is measured again every PROBE_SAMPLES samples so that the limit follows a
+ * server that got slower for good (e.g. a busier host).
+ */
+class VegasLimit implements AdaptiveLimit {
+
+    private static final int PROBE_SAMPLES = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double estimate;
+    private long minRttNanos;
+    private int samples;
+    private volatile int limit;
+
+    VegasLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimate = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return this.limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (++this.samples >= PROBE_SAMPLES) {
+            this.samples = 0;
+            this.minRttNanos = rttNanos;
+        }
+        if (this.minRttNanos == 0 || rttNanos < this.minRttNanos) {
+            this.minRttNanos = rttNanos;
+        }
+        double log = Math.max(1, Math.log10(this.estimate));
+        double next = this.estimate;
+        if (dropped) {
+            next = this.estimate - log;
+        } else if (inFlight * 2 < this.estimate) {
+            // the client is not using the limit, the samples tell nothing about the server's capacity
+            return;
+        } else {
+            double queue = this.estimate * (1 - (double) this.minRttNanos / Math.max(1, rttNanos));
+            if (queue <= log) {
+                next = this.estimate + 6 * log;
+            } else if (queue < 3 * log) {
+                next = this.estimate + log;
+            } else if (queue > 6 * log) {
+                next = this.estimate - log;
+            }
+        }
+        this.estimate = Math.max(this.minLimit, Math.min(this.maxLimit, next));
+        this.limit = (int) this.estimate;
+    }
+}
@@ -0,0 +1,71 @@
+package org.chorano.client.membership;
+
+import org.chorano.client.common.ServerLoadReport;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The alive chorano servers, kept as an immutable {@link MembershipSnapshot} that is replaced on every
+ * change. Readers take the current snapshot with a volatile read; changes (from the zookeeper watchers)
+ * are serialized and reported to the {@link MembershipListener}s in version order.
+ */
+public class Membership {
+
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile MembershipSnapshot snapshot = MembershipSnapshot.EMPTY;
+
+    /**
+     * @return returns the current snapshot
+     */
+    public MembershipSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Adds or updates a server.
+     *
+     * @param path   the node of the server
+     * @param report the report read from the node
+     */
+    public synchronized void update(String path, ServerLoadReport report) {
+        change(this.snapshot.with(new Server(path, report)));
+    }
+
+    /**
+     * Removes a server.
+     *
+     * @param path the node of the server
+     * @return returns the removed server or null if it was not a member
+     */
+    public synchronized Server remove(String path) {
+        Server server = this.snapshot.find(path);
+        change(this.snapshot.without(path));
+        return server;
+    }
+
+    /**
+     * Registers a listener and reports the current snapshot to it as a change from an empty membership.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(MembershipListener listener) {
+        this.listeners.add(listener);
+        listener.membershipChanged(MembershipSnapshot.EMPTY, this.snapshot);
+    }
+
+    public void removeListener(MembershipListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    private void change(MembershipSnapshot next) {
+        MembershipSnapshot previous = this.snapshot;
+        if (next == previous) {
+            return;
+        }
+        this.snapshot = next;
+        for (MembershipListener listener : this.listeners) {
+            listener.membershipChanged(previous, next);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.chorano.client.membership;
+
+/**
+ * Told about every change of the alive servers.
+ */
+@FunctionalInterface
+public interface MembershipListener {
+
+    /**
+     * Called on the thread that changed the membership, one change at a time and in version order.
+     * Must not block: it holds up zookeeper event processing.
+     *
+     * @param previous the snapshot before the change
+     * @param current  the snapshot after the change
+     */
+    void membershipChanged(MembershipSnapshot previous, MembershipSnapshot current);
+}
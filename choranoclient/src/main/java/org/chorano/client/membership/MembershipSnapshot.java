@@ -0,0 +1,135 @@
+package org.chorano.client.membership;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The alive servers at one point in time, sorted by node path. Immutable: a change produces a new
+ * snapshot with a higher version, so a reader always sees a consistent set of servers and can index it
+ * without locking or copying.
+ */
+public final class MembershipSnapshot {
+
+    static final MembershipSnapshot EMPTY = new MembershipSnapshot(0, new Server[0]);
+
+    private final long version;
+    private final Server[] servers;
+    private final List<Server> view;
+
+    private MembershipSnapshot(long version, Server[] servers) {
+        this.version = version;
+        this.servers = servers;
+        this.view = Collections.unmodifiableList(Arrays.asList(servers));
+    }
+
+    /**
+     * @return returns the version, incremented with every change
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int size() {
+        return this.servers.length;
+    }
+
+    public boolean isEmpty() {
+        return this.servers.length == 0;
+    }
+
+    /**
+     * @param index the index, from 0 to size() - 1
+     * @return returns the server at the index
+     */
+    public Server get(int index) {
+        return this.servers[index];
+    }
+
+    /**
+     * @return returns the servers as an unmodifiable list
+     */
+    public List<Server> servers() {
+        return this.view;
+    }
+
+    /**
+     * @param path the node of the server
+     * @return returns the server or null if it is not a member
+     */
+    public Server find(String path) {
+        int index = indexOf(path);
+        return index < 0 ? null : this.servers[index];
+    }
+
+    /**
+     * @param location the location e.g. localhost:8111
+     * @return returns true if a server at the location is a member
+     */
+    public boolean hasLocation(String location) {
+        for (Server server : this.servers) {
+            if (server.getLocation().equals(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return returns a snapshot with the server added or replaced
+     */
+    MembershipSnapshot with(Server server) {
+        int index = indexOf(server.getPath());
+        Server[] servers;
+        if (index >= 0) {
+            servers = this.servers.clone();
+            servers[index] = server;
+        } else {
+            int insert = -index - 1;
+            servers = new Server[this.servers.length + 1];
+            System.arraycopy(this.servers, 0, servers, 0, insert);
+            servers[insert] = server;
+            System.arraycopy(this.servers, insert, servers, insert + 1, this.servers.length - insert);
+        }
+        return new MembershipSnapshot(this.version + 1, servers);
+    }
+
+    /**
+     * @return returns a snapshot without the server or this snapshot if it is not a member
+     */
+    MembershipSnapshot without(String path) {
+        int index = indexOf(path);
+        if (index < 0) {
+            return this;
+        }
+        Server[] servers = new Server[this.servers.length - 1];
+        System.arraycopy(this.servers, 0, servers, 0, index);
+        System.arraycopy(this.servers, index + 1, servers, index, servers.length - index);
+        return new MembershipSnapshot(this.version + 1, servers);
+    }
+
+    /**
+     * @return returns the index of the server or -(insertion point) - 1 as {@link Arrays#binarySearch}
+     */
+    private int indexOf(String path) {
+        int low = 0;
+        int high = this.servers.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = this.servers[middle].getPath().compareTo(path);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipSnapshot[version=" + this.version + ", servers=" + this.view + "]";
+    }
+}
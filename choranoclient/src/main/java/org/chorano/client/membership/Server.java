@@ -0,0 +1,40 @@
+package org.chorano.client.membership;
+
+import org.chorano.client.common.ServerLoadReport;
+
+/**
+ * A chorano server as registered in zookeeper: its node, location and last load report. Immutable.
+ */
+public final class Server {
+
+    private final String path;
+    private final ServerLoadReport report;
+
+    public Server(String path, ServerLoadReport report) {
+        this.path = path;
+        this.report = report;
+    }
+
+    /**
+     * @return returns the zookeeper node of the server e.g. /chorano/x_0000000001
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return returns the location of the server e.g. localhost:8111
+     */
+    public String getLocation() {
+        return this.report.getLocation();
+    }
+
+    public ServerLoadReport getReport() {
+        return this.report;
+    }
+
+    @Override
+    public String toString() {
+        return "Server[path=" + this.path + ", report=" + this.report + "]";
+    }
+}
@@ -0,0 +1,229 @@
+package org.chorano.client.membership;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.chorano.client.common.ServerLoadReport;
+import org.chorano.client.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a {@link Membership} in line with the server nodes "/chorano/x_n" in zookeeper.
+ *
+ * Only the asynchronous zookeeper API is used. A change of the children of "/chorano" is answered with a
+ * single getChildren; the result is diffed against the known nodes, removed nodes leave the membership
+ * right away and only new nodes have their data fetched, all requests pipelined on the session. Bursts of
+ * child and data change events (e.g. a rolling restart) are coalesced for zk.refresh.coalesce.ms into one
+ * refresh. One watcher instance is used for the children and one for all server nodes, so zookeeper keeps
+ * a single watch per node no matter how often it is set again.
+ *
+ * While "/chorano" does not exist the tracker starts with no servers and watches for the node to be created.
+ * A connection loss or timeout is retried, before start at most zk.start.max.retries times; any other failure
+ * is final.
+ *
+ * Callbacks and watch events run on the zookeeper event thread, which is the only thread that touches
+ * the known nodes; the coalescing timer just issues requests.
+ */
+public class ZkMembershipTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkMembershipTracker.class);
+    private static final int COALESCE_MS = PropUtil.getIntPropVal("zk.refresh.coalesce.ms", 50);
+    private static final int MAX_START_RETRIES = PropUtil.getIntPropVal("zk.start.max.retries", 40);
+
+    private final ZooKeeper zooKeeper;
+    private final String root;
+    private final Membership membership;
+    private final Set<String> known = new HashSet<>();
+    private final Set<String> staleNodes = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean childrenRefreshScheduled = new AtomicBoolean();
+    private final AtomicBoolean dataRefreshScheduled = new AtomicBoolean();
+    private final CompletableFuture<MembershipSnapshot> started = new CompletableFuture<>();
+    private final AtomicInteger startRetries = new AtomicInteger();
+    private final Watcher childrenWatcher = this::childrenChanged;
+    private final Watcher rootWatcher = this::rootChanged;
+    private final Watcher nodeWatcher = this::nodeChanged;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "chorano-membership-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param zooKeeper  the zookeeper client
+     * @param root       the parent node of the servers e.g. /chorano
+     * @param membership the membership to keep up to date
+     */
+    public ZkMembershipTracker(ZooKeeper zooKeeper, String root, Membership membership) {
+        this.zooKeeper = zooKeeper;
+        this.root = root;
+        this.membership = membership;
+    }
+
+    /**
+     * Reads the servers and starts watching them.
+     *
+     * @return returns a future completed with the membership once the data of the servers found at start
+     * has been read
+     */
+    public CompletableFuture<MembershipSnapshot> start() {
+        refreshChildren();
+        return this.started;
+    }
+
+    public void stop() {
+        this.timer.shutdownNow();
+    }
+
+    private void childrenChanged(WatchedEvent event) {
+        if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+            LOGGER.debug("Change detected in the servers: {}", event);
+            if (this.childrenRefreshScheduled.compareAndSet(false, true)) {
+                this.timer.schedule(() -> {
+                    this.childrenRefreshScheduled.set(false);
+                    refreshChildren();
+                }, COALESCE_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void rootChanged(WatchedEvent event) {
+        if (event.getType() == Watcher.Event.EventType.NodeCreated) {
+            LOGGER.debug("Server root created: {}", event.getPath());
+            refreshChildren();
+        }
+    }
+
+    private void nodeChanged(WatchedEvent event) {
+        switch (event.getType()) {
+            case NodeDataChanged:
+                markStale(event.getPath());
+                break;
+            case NodeDeleted:
+                LOGGER.debug("Removing server node from zk path: {}", event.getPath());
+                this.known.remove(event.getPath());
+                this.membership.remove(event.getPath());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refreshChildren() {
+        this.zooKeeper.getChildren(this.root, this.childrenWatcher, (rc, path, ctx, children) -> {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                LOGGER.debug("No server root at path: {}, waiting for it", path);
+                watchRoot();
+                this.started.complete(this.membership.snapshot());
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                childrenFailed(path, KeeperException.Code.get(rc));
+                return;
+            }
+            diff(children);
+            if (!this.started.isDone()) {
+                // callbacks run in request order, so this one runs after the data of every server has been read
+                this.zooKeeper.exists(this.root, false,
+                        (existsRc, existsPath, existsCtx, stat) -> this.started.complete(this.membership.snapshot()),
+                        null);
+            }
+        }, null);
+    }
+
+    private void childrenFailed(String path, KeeperException.Code code) {
+        boolean transientFailure = code == KeeperException.Code.CONNECTIONLOSS
+                || code == KeeperException.Code.OPERATIONTIMEOUT;
+        if (transientFailure && (this.started.isDone() || this.startRetries.incrementAndGet() <= MAX_START_RETRIES)) {
+            LOGGER.debug("Unable to get children at path: {} ({}), retrying", path, code);
+            this.timer.schedule(this::refreshChildren, COALESCE_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        LOGGER.debug("Unable to get children at path: {} ({}), giving up", path, code);
+        this.started.complete(this.membership.snapshot());
+    }
+
+    /**
+     * Watches for the server root to be created. If it was created meanwhile, its children are read right away.
+     */
+    private void watchRoot() {
+        this.zooKeeper.exists(this.root, this.rootWatcher, (rc, path, ctx, stat) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                refreshChildren();
+            } else if (rc != KeeperException.Code.NONODE.intValue()) {
+                LOGGER.debug("Unable to watch path: {} ({})", path, KeeperException.Code.get(rc));
+            }
+        }, null);
+    }
+
+    private void diff(List<String> children) {
+        Set<String> current = new HashSet<>();
+        for (String child : children) {
+            current.add(this.root + "/" + child);
+        }
+        for (String node : new HashSet<>(this.known)) {
+            if (!current.contains(node)) {
+                LOGGER.debug("Removing server node from zk path: {}", node);
+                this.known.remove(node);
+                this.membership.remove(node);
+            }
+        }
+        for (String node : current) {
+            if (this.known.add(node)) {
+                readNode(node);
+            }
+        }
+        LOGGER.debug("Count of active servers: {}", current.size());
+    }
+
+    private void markStale(String node) {
+        this.staleNodes.add(node);
+        if (this.dataRefreshScheduled.compareAndSet(false, true)) {
+            this.timer.schedule(this::refreshStaleNodes, COALESCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshStaleNodes() {
+        this.dataRefreshScheduled.set(false);
+        for (String node : this.staleNodes) {
+            this.staleNodes.remove(node);
+            readNode(node);
+        }
+    }
+
+    private void readNode(String node) {
+        this.zooKeeper.getData(node, this.nodeWatcher, (rc, path, ctx, data, stat) -> {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                this.known.remove(path);
+                this.membership.remove(path);
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                LOGGER.debug("Unable to read server node: {} ({}), retrying", path, KeeperException.Code.get(rc));
+                markStale(path);
+                return;
+            }
+            ServerLoadReport report = ServerLoadReport.decode(data);
+            if (report == null) {
+                LOGGER.debug("Ignoring malformed data of server node: {}", path);
+                return;
+            }
+            if (this.known.contains(path)) {
+                this.membership.update(path, report);
+                LOGGER.debug("server: {} load: {}", path, report);
+            }
+        }, null);
+    }
+}
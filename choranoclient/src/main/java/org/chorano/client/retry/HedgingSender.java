@@ -0,0 +1,176 @@
+package org.chorano.client.retry;
+
+import org.chorano.client.balancer.LoadBalancer;
+import org.chorano.client.balancer.ServerNode;
+import org.chorano.client.transport.ServerOverloadedException;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Sends a request to the server picked by a {@link LoadBalancer}, with optional hedging and retries.
+ *
+ * Hedging: if no response has arrived after hedgeDelayMs (or, with 0, the observed p95 latency of the
+ * server), a copy of the request goes to a different server and the first response wins. Retries: a
+ * request that could not be delivered (connection refused, or the server refused it as overloaded) is
+ * sent to a different server, at most maxRetries times. Both draw on one {@link RetryBudget}, so they
+ * stay a bounded share of the traffic during an outage.
+ */
+public class HedgingSender implements AutoCloseable {
+
+    private final LoadBalancer balancer;
+    private final BiFunction<ServerNode, String, CompletableFuture<String>> transport;
+    private final RetryBudget budget;
+    private final boolean hedging;
+    private final long hedgeDelayNanos;
+    private final int maxRetries;
+    private final ScheduledExecutorService timer;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * @param balancer     picks the servers
+     * @param transport    sends an entity to a server
+     * @param budget       limits hedges and retries
+     * @param hedging      true to hedge slow requests
+     * @param hedgeDelayMs the time after which a request is hedged, 0 for the p95 latency of its server
+     * @param maxRetries   the number of times a request that was not delivered is sent elsewhere
+     */
+    public HedgingSender(LoadBalancer balancer, BiFunction<ServerNode, String, CompletableFuture<String>> transport,
+                         RetryBudget budget, boolean hedging, long hedgeDelayMs, int maxRetries) {
+        this.balancer = balancer;
+        this.transport = transport;
+        this.budget = budget;
+        this.hedging = hedging;
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs);
+        this.maxRetries = maxRetries;
+        this.timer = hedging ? Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "chorano-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * @param key    the affinity key, null for none
+     * @param entity the request entity
+     * @return returns the first successful response or the last failure
+     */
+    public CompletableFuture<String> send(String key, String entity) {
+        this.budget.deposit();
+        ServerNode node = this.balancer.pick(key);
+        if (node == null) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("No active chorano server"));
+            return failed;
+        }
+        Request request = new Request(key, entity);
+        request.attempt(node);
+        if (this.hedging) {
+            long p95 = node.p95Nanos();
+            long delay = this.hedgeDelayNanos > 0 ? this.hedgeDelayNanos : p95;
+            if (delay > 0) {
+                ScheduledFuture<?> hedge = this.timer.schedule(() -> request.hedge(node), delay, TimeUnit.NANOSECONDS);
+                request.response.whenComplete((response, failure) -> hedge.cancel(false));
+            }
+        }
+        return request.response;
+    }
+
+    public long getHedgeCount() {
+        return this.hedges.sum();
+    }
+
+    public long getRetryCount() {
+        return this.retries.sum();
+    }
+
+    @Override
+    public void close() {
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+        }
+    }
+
+    /**
+     * @return returns true if the failure shows that the request did not reach a server that processes it
+     */
+    static boolean isRetriable(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ServerOverloadedException
+                    || cause instanceof ServiceUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class Request {
+
+        private final String key;
+        private final String entity;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+
+        Request(String key, String entity) {
+            this.key = key;
+            this.entity = entity;
+        }
+
+        void attempt(ServerNode node) {
+            this.attempts.incrementAndGet();
+            dispatch(node);
+        }
+
+        private void dispatch(ServerNode node) {
+            long start = node.requestStarted();
+            transport.apply(node, this.entity).whenComplete((body, failure) -> {
+                node.requestCompleted(start, failure == null);
+                if (failure == null) {
+                    this.response.complete(body);
+                } else {
+                    failed(node, failure);
+                }
+            });
+        }
+
+        void hedge(ServerNode first) {
+            if (this.response.isDone()) {
+                return;
+            }
+            ServerNode other = balancer.pickOther(this.key, first);
+            if (other != null && budget.tryWithdraw()) {
+                hedges.increment();
+                attempt(other);
+            }
+        }
+
+        private void failed(ServerNode node, Throwable failure) {
+            if (this.response.isDone()) {
+                return;
+            }
+            if (isRetriable(failure) && this.retried.incrementAndGet() <= maxRetries) {
+                ServerNode other = balancer.pickOther(this.key, node);
+                if (other != null && budget.tryWithdraw()) {
+                    retries.increment();
+                    // the retry takes over the attempt of the failed request
+                    dispatch(other);
+                    return;
+                }
+            }
+            // a hedged copy may still succeed
+            if (this.attempts.decrementAndGet() == 0) {
+                this.response.completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.chorano.client.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits retries and hedged requests to a share of the traffic.
+ *
+ * Every request deposits percent / 100 of a token, every retry or hedge withdraws a whole one. Tokens
+ * are capped at burst, so after a quiet spell no more than burst extra requests go out at once. While a
+ * server fails every request, the extra traffic stays at percent instead of multiplying the load on the
+ * servers that are left.
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    /**
+     * @param percent the retries allowed per 100 requests
+     * @param burst   the retries allowed at once, also the initial balance
+     */
+    public RetryBudget(int percent, int burst) {
+        this.deposit = percent * SCALE / 100;
+        this.capacity = burst * SCALE;
+        this.balance = new AtomicLong(this.capacity);
+    }
+
+    /**
+     * Called for every request that is not a retry or hedge.
+     */
+    public void deposit() {
+        long balance;
+        while ((balance = this.balance.get()) < this.capacity
+                && !this.balance.compareAndSet(balance, Math.min(this.capacity, balance + this.deposit))) {
+            // retry until deposited or full
+        }
+    }
+
+    /**
+     * @return returns true if a retry or hedge may be sent
+     */
+    public boolean tryWithdraw() {
+        long balance;
+        while ((balance = this.balance.get()) >= SCALE) {
+            if (this.balance.compareAndSet(balance, balance - SCALE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return returns the retries that may be sent right now
+     */
+    public double available() {
+        return (double) this.balance.get() / SCALE;
+    }
+}
@@ -0,0 +1,137 @@
+package org.chorano.client.service;
+
+import org.chorano.client.balancer.LoadBalancer;
+import org.chorano.client.balancer.LoadBalancerType;
+import org.chorano.client.balancer.ServerNode;
+import org.chorano.client.common.ServerLoadReport;
+import org.chorano.client.dispatch.DispatchListener;
+import org.chorano.client.dispatch.RequestDispatcher;
+import org.chorano.client.dispatch.RequestSender;
+import org.chorano.client.limit.ConcurrencyLimiter;
+import org.chorano.client.membership.Membership;
+import org.chorano.client.membership.MembershipListener;
+import org.chorano.client.retry.HedgingSender;
+import org.chorano.client.retry.RetryBudget;
+import org.chorano.client.transport.BinaryTransport;
+import org.chorano.client.transport.HttpTransport;
+import org.chorano.client.transport.Transport;
+import org.chorano.client.util.PropUtil;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The request path of the chorano client: the client.load.balancer strategy picks an alive server, the
+ * request passes the adaptive concurrency limit of the server (client.concurrency.limit) and goes out over
+ * the binary protocol if the server advertises it, over http otherwise. Slow requests are hedged
+ * (client.hedge.enabled) and undelivered ones retried on another server, within a retry budget of
+ * client.retry.budget.percent of the requests.
+ *
+ * The pipeline is sized for at most maxOutstanding requests in flight: a server's limiter lets that many
+ * (twice as many with hedging) wait, so a dispatcher within the bound never has a request rejected by the
+ * client itself. It follows the membership until it is closed.
+ */
+public final class ClientPipeline implements AutoCloseable {
+
+    private static final boolean BINARY_PROTOCOL_ENABLED =
+            Boolean.parseBoolean(PropUtil.getPropVal("client.binary.protocol.enabled", "true"));
+    private static final int DISPATCH_THREADS =
+            PropUtil.getIntPropVal("client.dispatch.threads", Runtime.getRuntime().availableProcessors());
+    private static final LoadBalancerType LOAD_BALANCER =
+            LoadBalancerType.fromProperty(PropUtil.getPropVal("client.load.balancer", "weighted-round-robin"));
+    private static final boolean HEDGING_ENABLED =
+            Boolean.parseBoolean(PropUtil.getPropVal("client.hedge.enabled", "false"));
+    private static final int HEDGE_DELAY_MS = PropUtil.getIntPropVal("client.hedge.delay.ms", 0);
+    private static final int MAX_RETRIES = PropUtil.getIntPropVal("client.retry.max.attempts", 2);
+    private static final int RETRY_BUDGET_PERCENT = PropUtil.getIntPropVal("client.retry.budget.percent", 10);
+    private static final int RETRY_BUDGET_BURST = PropUtil.getIntPropVal("client.retry.budget.burst", 10);
+
+    private final Membership membership;
+    private final int maxOutstanding;
+    private final Transport http = new HttpTransport();
+    private final Transport binary = new BinaryTransport();
+    private final LoadBalancer balancer;
+    private final MembershipListener listener;
+    private final HedgingSender hedgingSender;
+
+    /**
+     * @param membership     the alive servers, followed by the load balancer
+     * @param maxOutstanding the maximum number of requests the callers keep in flight
+     */
+    public ClientPipeline(Membership membership, int maxOutstanding) {
+        this.membership = membership;
+        this.maxOutstanding = maxOutstanding;
+        // a hedged request may hold a second place in the queue of another server
+        int limiterQueueSize = HEDGING_ENABLED ? 2 * maxOutstanding : maxOutstanding;
+        this.balancer = LOAD_BALANCER.create(Math.max(ConcurrencyLimiter.QUEUE_SIZE, limiterQueueSize));
+        this.listener = (previous, current) -> this.balancer.update(current);
+        membership.addListener(this.listener);
+        this.hedgingSender = new HedgingSender(this.balancer, this::send,
+                new RetryBudget(RETRY_BUDGET_PERCENT, RETRY_BUDGET_BURST), HEDGING_ENABLED, HEDGE_DELAY_MS,
+                MAX_RETRIES);
+    }
+
+    /**
+     * @param key    the affinity key, null for none
+     * @param entity the request entity
+     * @return returns the first successful response or the last failure
+     */
+    public CompletableFuture<String> send(String key, String entity) {
+        return this.hedgingSender.send(key, entity);
+    }
+
+    /**
+     * Creates a dispatcher with client.dispatch.threads threads that drives requests through this pipeline.
+     *
+     * @param sender         sends a single request, usually through {@link #send(String, String)}
+     * @param maxOutstanding the maximum number of requests in flight, at most the one of this pipeline
+     * @param listener       observes every request
+     * @return returns the dispatcher, to be closed by the caller
+     */
+    public RequestDispatcher newDispatcher(RequestSender sender, int maxOutstanding, DispatchListener listener) {
+        if (maxOutstanding > this.maxOutstanding) {
+            throw new IllegalArgumentException("The pipeline is sized for at most " + this.maxOutstanding
+                    + " outstanding requests, not " + maxOutstanding);
+        }
+        return new RequestDispatcher(sender, maxOutstanding, DISPATCH_THREADS, listener);
+    }
+
+    public LoadBalancerType getLoadBalancerType() {
+        return LOAD_BALANCER;
+    }
+
+    /**
+     * @return returns the nodes of the load balancer
+     */
+    public List<ServerNode> getNodes() {
+        return this.balancer.getNodes();
+    }
+
+    public long getHedgeCount() {
+        return this.hedgingSender.getHedgeCount();
+    }
+
+    public long getRetryCount() {
+        return this.hedgingSender.getRetryCount();
+    }
+
+    @Override
+    public void close() {
+        this.hedgingSender.close();
+        this.membership.removeListener(this.listener);
+        this.http.close();
+        this.binary.close();
+    }
+
+    private CompletableFuture<String> send(ServerNode node, String entity) {
+        Transport transport = speaksBinary(node) ? this.binary : this.http;
+        ConcurrencyLimiter limiter = node.getLimiter();
+        return limiter == null ? transport.send(node.getLocation(), entity)
+                : limiter.send(() -> transport.send(node.getLocation(), entity));
+    }
+
+    private static boolean speaksBinary(ServerNode node) {
+        ServerLoadReport report = node.getReport();
+        return BINARY_PROTOCOL_ENABLED && report != null && report.supports(ServerLoadReport.PROTOCOL_BINARY);
+    }
+}
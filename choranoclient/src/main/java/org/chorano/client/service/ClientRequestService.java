@@ -1,16 +1,16 @@
 package org.chorano.client.service;
 
-import java.util.Map;
+import org.chorano.client.membership.Membership;
 
 public interface ClientRequestService {
 
     /**
-     * Sends http requests using a jax-rs(jersey) client to the alive servers
+     * Sends requests concurrently to the alive servers and waits until all of them have completed
      *
      * @param numOfRequests the number of http requests to be sent
-     * @param servers map consisting of servers and their locations
+     * @param servers the alive servers
      */
-    void sendHttpRequests(int numOfRequests, Map<String, String> servers);
+    void sendHttpRequests(int numOfRequests, Membership servers);
 
     /**
      * Signaling all servers to shutdown by writing "stop" in their output stream
@@ -16,7 +16,7 @@ public interface ZkService {
 
     List<String> getChildrenNodes(ZooKeeper zooKeeper, String path, Watcher watcher);
 
-    Optional<String> getNodeData(ZooKeeper zooKeeper, String path, Watcher watcher);
+    Optional<byte[]> getNodeData(ZooKeeper zooKeeper, String path, Watcher watcher);
 
     void createNode(ZooKeeper zooKeeper, String path, String data, CreateMode creationMode);
 
@@ -1,63 +1,65 @@
 package org.chorano.client.service.impl;
 
+import org.chorano.client.balancer.ServerNode;
+import org.chorano.client.dispatch.DispatchListener;
+import org.chorano.client.dispatch.DispatchStats;
+import org.chorano.client.dispatch.RequestDispatcher;
+import org.chorano.client.dispatch.RequestSender;
+import org.chorano.client.membership.Membership;
+import org.chorano.client.service.ClientPipeline;
 import org.chorano.client.service.ClientRequestService;
+import org.chorano.client.util.PropUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
 
 public class ClientRequestServiceImpl implements ClientRequestService {
 
+    private static final String DISPATCH_MODE = PropUtil.getPropVal("client.dispatch.mode", "closed");
+    private static final int MAX_OUTSTANDING = PropUtil.getIntPropVal("client.max.outstanding.requests", 64);
+    private static final int OPEN_LOOP_RATE = PropUtil.getIntPropVal("client.open.loop.rate", 1000);
+    private static final int AFFINITY_KEYS = PropUtil.getIntPropVal("client.affinity.key.count", 0);
+
     private final Logger logger = LoggerFactory.getLogger(ClientRequestServiceImpl.class);
 
     /**
-     * Sends http requests using a jax-rs(jersey) client to the alive servers
+     * Sends requests through a {@link ClientPipeline} to the alive servers picked by the client.load.balancer
+     * strategy, using the binary protocol with servers that advertise it and http with the others. The
+     * requests are driven by a {@link RequestDispatcher} in a closed loop, or in an open loop at
+     * client.open.loop.rate requests per second, with at most client.max.outstanding.requests in flight. With
+     * client.affinity.key.count set, request n carries the affinity key "key-(n % count)" (see
+     * consistent-hash). Slow requests are hedged (client.hedge.enabled) and undelivered ones retried on
+     * another server, within a retry budget of client.retry.budget.percent of the requests. Every request
+     * passes the adaptive concurrency limit of its server (client.concurrency.limit) before it reaches the
+     * transport.
      *
      * @param numOfRequests the number of http requests to be sent
-     * @param aliveServers map consisting of servers and their locations
+     * @param aliveServers the alive servers, followed by the load balancer while the requests are sent
      */
     @Override
-    public void sendHttpRequests(int numOfRequests, Map<String, String> aliveServers) {
-        long start = System.currentTimeMillis();
-        Client client = ClientBuilder.newClient();
-        AtomicInteger num = new AtomicInteger();
-        while (num.get() < numOfRequests) {
-            aliveServers.forEach((node, host) -> {
-                String url = "http://" + host;
-                this.logger.debug("Sending http request no. {} to chorano server: {} at url {}", num, node, url);
-                try {
-                    String requestEntity = "Client request no: " + num;
-                    Response response = client.target(url)
-                            .request()
-                            .post(Entity.entity(requestEntity, MediaType.TEXT_PLAIN));
-                    this.logger.debug("Node: {} Response entity: {}", node, response.readEntity(String.class));
-                } catch (Exception e) {
-                    this.logger.debug("Failed to send request at server: {} url: {}", node, url);
+    public void sendHttpRequests(int numOfRequests, Membership aliveServers) {
+        try (ClientPipeline pipeline = new ClientPipeline(aliveServers, MAX_OUTSTANDING)) {
+            RequestSender sender = sequence -> pipeline.send(
+                    AFFINITY_KEYS > 0 ? "key-" + sequence % AFFINITY_KEYS : null, "Client request no: " + sequence);
+            try (RequestDispatcher dispatcher =
+                         pipeline.newDispatcher(sender, MAX_OUTSTANDING, DispatchListener.NONE)) {
+                CompletableFuture<DispatchStats> run = "open".equals(DISPATCH_MODE)
+                        ? dispatcher.openLoop(numOfRequests, OPEN_LOOP_RATE)
+                        : dispatcher.closedLoop(numOfRequests);
+                this.logger.debug("Sending {} requests in {} loop mode with at most {} outstanding using {}",
+                        numOfRequests, DISPATCH_MODE, MAX_OUTSTANDING, pipeline.getLoadBalancerType());
+                this.logger.debug("Finished: {}", run.join());
+                this.logger.debug("Hedged requests: {}, retried requests: {}", pipeline.getHedgeCount(),
+                        pipeline.getRetryCount());
+                for (ServerNode node : pipeline.getNodes()) {
+                    this.logger.debug("Concurrency limit of {}: {}", node.getLocation(), node.getConcurrencyLimit());
                 }
-                num.getAndIncrement();
-            });
-            if (aliveServers.isEmpty()) {
-                break;
-            }
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                this.logger.debug("Interrupted while sleeping between requests {}", e);
             }
         }
-
-        long end = System.currentTimeMillis();
-        this.logger.debug("Time elapsed: {} minutes", (end - start)/(60 * 1000));
-        client.close();
     }
 
     /**
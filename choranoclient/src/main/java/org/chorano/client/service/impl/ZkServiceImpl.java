@@ -92,16 +92,16 @@ public class ZkServiceImpl implements ZkService {
      * @param zooKeeper the zookeeper client
      * @param path      the list of paths
      * @param watcher   the watch to be set
-     * @return returns key-value pairs of (path, data)
+     * @return returns the data at the path
      */
-    public Optional<String> getNodeData(ZooKeeper zooKeeper, String path, Watcher watcher) {
+    public Optional<byte[]> getNodeData(ZooKeeper zooKeeper, String path, Watcher watcher) {
         byte[] data = null;
         try {
             data = zooKeeper.getData(path, watcher, null);
         } catch (KeeperException | InterruptedException e) {
             logger.debug("Unable to get data at path: {}\n {}", path, e);
         }
-        return data == null ? Optional.empty() : Optional.of(new String(data));
+        return data == null ? Optional.empty() : Optional.of(data);
 
     }
 
@@ -0,0 +1,248 @@
+package org.chorano.client.transport;
+
+import org.chorano.client.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests with the length-prefixed binary protocol of chorano-server.
+ *
+ * A connection starts with the 4 byte preface 0xCB 'C' 'B' 'P', followed by frames (big endian):
+ * <pre>
+ * request:  int length (of what follows), int request id, payload
+ * response: int length (of what follows), int request id, byte status, payload
+ * </pre>
+ * There is one connection per server, shared by all callers. Requests are written as soon as they are
+ * sent and a reader thread completes them by request id, so many requests are on the wire at once and the
+ * server may answer them in any order. A broken connection fails its outstanding requests and is opened
+ * again by the next request.
+ *
+ * Connecting to a server waits at most client.binary.connect.timeout.ms and holds a lock of that server only, so an
+ * unreachable server does not hold up requests to the others. A request that has no response after
+ * client.binary.request.timeout.ms fails with a {@link SocketTimeoutException}, and a connection that has requests
+ * outstanding but has read nothing for that long is closed.
+ */
+public class BinaryTransport implements Transport {
+
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_REJECTED = 1;
+    private static final byte[] PREFACE = {(byte) 0xCB, 'C', 'B', 'P'};
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = PropUtil.getIntPropVal("client.binary.connect.timeout.ms", 5000);
+    private static final long REQUEST_TIMEOUT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(PropUtil.getIntPropVal("client.binary.request.timeout.ms", 30000));
+
+    private final Logger logger = LoggerFactory.getLogger(BinaryTransport.class);
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<String, Object> connectLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chorano-binary-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BinaryTransport() {
+        long period = Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(REQUEST_TIMEOUT_NANOS) / 4));
+        this.timeouts.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<String> send(String location, String entity) {
+        try {
+            return connection(location).send(entity.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.timeouts.shutdownNow();
+        this.connections.values().forEach(connection -> connection.fail(new IOException("Transport closed")));
+    }
+
+    private Connection connection(String location) throws IOException {
+        Connection connection = this.connections.get(location);
+        if (connection != null) {
+            return connection;
+        }
+        // only callers of the same server wait for the connect
+        synchronized (this.connectLocks.computeIfAbsent(location, key -> new Object())) {
+            connection = this.connections.get(location);
+            if (connection == null) {
+                connection = new Connection(location);
+                this.connections.put(location, connection);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Fails the requests that are past their deadline.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        for (Connection connection : this.connections.values()) {
+            connection.expire(now);
+        }
+    }
+
+    private final class Connection implements Runnable {
+
+        private final String location;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger requestIds = new AtomicInteger();
+        private volatile long lastReadNanos = System.nanoTime();
+        private volatile boolean closed;
+
+        Connection(String location) throws IOException {
+            String[] address = location.split(":");
+            this.location = location;
+            this.socket = new Socket();
+            try {
+                this.socket.connect(new InetSocketAddress(address[0], Integer.parseInt(address[1])),
+                        CONNECT_TIMEOUT_MS);
+            } catch (IOException e) {
+                this.socket.close();
+                throw e;
+            }
+            this.socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.out.write(PREFACE);
+            Thread reader = new Thread(this, "chorano-binary-reader-" + location);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<String> send(byte[] payload) {
+            int requestId = this.requestIds.incrementAndGet();
+            CompletableFuture<String> response = new CompletableFuture<>();
+            this.pending.put(requestId, new Pending(response, System.nanoTime() + REQUEST_TIMEOUT_NANOS));
+            try {
+                synchronized (this.out) {
+                    this.out.writeInt(4 + payload.length);
+                    this.out.writeInt(requestId);
+                    this.out.write(payload);
+                    this.out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (this.closed) {
+                // the reader may have failed the pending requests before this one was added
+                fail(new IOException("Connection to " + this.location + " closed"));
+            }
+            return response;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!this.closed) {
+                    int length = this.in.readInt();
+                    if (length < 5 || length > MAX_FRAME_BYTES) {
+                        // e.g. the http 503 of a server that shed the connection before it saw the preface
+                        throw new IOException("Malformed frame from " + this.location);
+                    }
+                    int requestId = this.in.readInt();
+                    byte status = this.in.readByte();
+                    byte[] body = new byte[length - 5];
+                    this.in.readFully(body);
+                    this.lastReadNanos = System.nanoTime();
+                    Pending pending = this.pending.remove(requestId);
+                    if (pending == null) {
+                        // e.g. a response that came after the request timed out
+                        logger.debug("Response for unknown request {} from {}", requestId, this.location);
+                        continue;
+                    }
+                    CompletableFuture<String> response = pending.response;
+                    if (status == STATUS_OK) {
+                        response.complete(new String(body, StandardCharsets.UTF_8));
+                    } else if (status == STATUS_REJECTED) {
+                        response.completeExceptionally(
+                                new ServerOverloadedException("Server " + this.location + " is overloaded"));
+                    } else {
+                        response.completeExceptionally(new IOException("Server " + this.location
+                                + " failed request " + requestId));
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Fails the requests sent before the deadline, and the whole connection if it read nothing since then.
+         */
+        void expire(long now) {
+            for (Map.Entry<Integer, Pending> entry : this.pending.entrySet()) {
+                Pending pending = entry.getValue();
+                if (now - pending.deadlineNanos < 0) {
+                    continue;
+                }
+                if (now - this.lastReadNanos >= REQUEST_TIMEOUT_NANOS) {
+                    fail(new SocketTimeoutException("No response from " + this.location + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(REQUEST_TIMEOUT_NANOS) + " ms"));
+                    return;
+                }
+                if (this.pending.remove(entry.getKey(), pending)) {
+                    pending.response.completeExceptionally(new SocketTimeoutException("Request "
+                            + entry.getKey() + " to " + this.location + " timed out"));
+                }
+            }
+        }
+
+        /**
+         * Closes the connection and fails every outstanding request.
+         */
+        void fail(IOException cause) {
+            this.closed = true;
+            connections.remove(this.location, this);
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close connection to {}: {}", this.location, e.getMessage());
+            }
+            for (Integer requestId : this.pending.keySet()) {
+                Pending pending = this.pending.remove(requestId);
+                if (pending != null) {
+                    pending.response.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+
+    private static final class Pending {
+
+        private final CompletableFuture<String> response;
+        private final long deadlineNanos;
+
+        Pending(CompletableFuture<String> response, long deadlineNanos) {
+            this.response = response;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
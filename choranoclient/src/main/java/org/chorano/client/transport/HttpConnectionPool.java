@@ -0,0 +1,234 @@
+package org.chorano.client.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keep-alive connections to a single server endpoint.
+ *
+ * At most maxConnections connections are open (busy or idle); once the limit is reached a request waits
+ * for a connection to finish its exchange, and fails if none does within its lease timeout. Idle
+ * connections are handed out most recently used first, checked for staleness when they have been idle for
+ * longer than validateAfterMs and closed after idleTimeoutMs.
+ *
+ * The connections are non-blocking and spread over the {@link HttpEventLoop}s, so a waiting or outstanding
+ * request holds no thread.
+ */
+public class HttpConnectionPool {
+
+    private final String host;
+    private final int port;
+    private final InetSocketAddress address;
+    private final Supplier<HttpEventLoop> loops;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final long validateAfterNanos;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final ArrayDeque<HttpExchange> waiting = new ArrayDeque<>();
+    private int open;
+    private boolean closed;
+
+    /**
+     * @param host             the host of the endpoint
+     * @param port             the port of the endpoint
+     * @param loops            picks the event loop of a new connection
+     * @param maxConnections   the maximum number of open connections
+     * @param idleTimeoutMs    the time after which an idle connection is closed
+     * @param validateAfterMs  the idle time after which a connection is checked before it is reused
+     * @param connectTimeoutMs the connect timeout of a new connection
+     * @param readTimeoutMs    the longest time to wait for the next bytes of a response
+     */
+    HttpConnectionPool(String host, int port, Supplier<HttpEventLoop> loops, int maxConnections, long idleTimeoutMs,
+                       long validateAfterMs, int connectTimeoutMs, int readTimeoutMs) {
+        this.host = host;
+        this.port = port;
+        this.address = new InetSocketAddress(host, port);
+        this.loops = loops;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(validateAfterMs);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * Sends the exchange over an idle connection or a new one, or queues it until a connection is free.
+     * Never blocks; the outcome completes {@link HttpExchange#response()}.
+     *
+     * @param exchange the exchange
+     */
+    void send(HttpExchange exchange) {
+        PooledConnection connection;
+        boolean validate = false;
+        synchronized (this) {
+            if (this.closed) {
+                connection = null;
+            } else if ((connection = this.idle.pollLast()) != null) {
+                validate = System.nanoTime() - connection.idleSinceNanos() >= this.validateAfterNanos;
+            } else if (this.open < this.maxConnections) {
+                this.open++;
+            } else {
+                this.waiting.addLast(exchange);
+                return;
+            }
+        }
+        if (connection != null) {
+            connection.execute(exchange, validate);
+        } else if (closed()) {
+            exchange.response().completeExceptionally(
+                    new IOException("Connection pool of " + this.host + ":" + this.port + " is closed"));
+        } else {
+            connect(exchange);
+        }
+    }
+
+    /**
+     * Takes back a connection whose exchange is complete.
+     *
+     * @param connection the connection
+     * @param reusable   false if the connection must be closed, e.g. after "Connection: close"
+     * @return returns the next waiting exchange to send over the connection, null if there is none
+     */
+    HttpExchange release(PooledConnection connection, boolean reusable) {
+        if (reusable) {
+            synchronized (this) {
+                if (!this.closed) {
+                    HttpExchange next = this.waiting.pollFirst();
+                    if (next == null) {
+                        connection.idleSince(System.nanoTime());
+                        this.idle.addLast(connection);
+                    }
+                    return next;
+                }
+            }
+        }
+        if (connection.close()) {
+            closed(connection);
+        }
+        return null;
+    }
+
+    /**
+     * Closes an idle connection that the server closed or sent unexpected bytes on. A connection that is
+     * already being reused is left to its next exchange, which checks it first.
+     *
+     * @param connection the connection
+     */
+    void discardIdle(PooledConnection connection) {
+        synchronized (this) {
+            if (!this.idle.remove(connection)) {
+                return;
+            }
+        }
+        if (connection.close()) {
+            closed(connection);
+        }
+    }
+
+    /**
+     * Accounts for a connection that has been closed and opens another one for a waiting exchange. Called
+     * exactly once per connection, by whoever closed it.
+     *
+     * @param connection the closed connection
+     */
+    void closed(PooledConnection connection) {
+        HttpExchange next;
+        synchronized (this) {
+            this.idle.remove(connection);
+            this.open--;
+            next = this.closed ? null : this.waiting.pollFirst();
+            if (next != null) {
+                this.open++;
+            }
+        }
+        if (next != null) {
+            connect(next);
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle timeout and fails the exchanges
+     * that waited for a connection for longer than their lease timeout.
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        List<PooledConnection> expired = new ArrayList<>();
+        List<HttpExchange> late = new ArrayList<>();
+        synchronized (this) {
+            Iterator<PooledConnection> connections = this.idle.iterator();
+            while (connections.hasNext()) {
+                PooledConnection connection = connections.next();
+                if (now - connection.idleSinceNanos() >= this.idleTimeoutNanos) {
+                    connections.remove();
+                    expired.add(connection);
+                }
+            }
+            Iterator<HttpExchange> exchanges = this.waiting.iterator();
+            while (exchanges.hasNext()) {
+                HttpExchange exchange = exchanges.next();
+                if (now - exchange.leaseDeadlineNanos() >= 0) {
+                    exchanges.remove();
+                    late.add(exchange);
+                }
+            }
+        }
+        for (PooledConnection connection : expired) {
+            if (connection.close()) {
+                closed(connection);
+            }
+        }
+        for (HttpExchange exchange : late) {
+            exchange.response().completeExceptionally(
+                    new IOException("No connection to " + this.host + ":" + this.port + " available in time"));
+        }
+    }
+
+    /**
+     * Closes the idle connections and fails the waiting exchanges; busy connections are closed when their
+     * exchange is complete.
+     */
+    public void close() {
+        List<PooledConnection> connections;
+        List<HttpExchange> exchanges;
+        synchronized (this) {
+            this.closed = true;
+            connections = new ArrayList<>(this.idle);
+            exchanges = new ArrayList<>(this.waiting);
+            this.idle.clear();
+            this.waiting.clear();
+        }
+        for (PooledConnection connection : connections) {
+            if (connection.close()) {
+                closed(connection);
+            }
+        }
+        for (HttpExchange exchange : exchanges) {
+            exchange.response().completeExceptionally(
+                    new IOException("Connection pool of " + this.host + ":" + this.port + " is closed"));
+        }
+    }
+
+    /**
+     * @return returns the number of open (busy or idle) connections
+     */
+    public synchronized int getOpenConnections() {
+        return this.open;
+    }
+
+    private synchronized boolean closed() {
+        return this.closed;
+    }
+
+    private void connect(HttpExchange exchange) {
+        new PooledConnection(this, this.loops.get(), this.address, this.connectTimeoutMs, this.readTimeoutMs)
+                .connect(exchange);
+    }
+}
@@ -0,0 +1,106 @@
+package org.chorano.client.transport;
+
+import org.chorano.client.membership.MembershipSnapshot;
+import org.chorano.client.membership.Server;
+import org.chorano.client.util.PropUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uses initialization on demand holder pattern to initialize a single registry of connection pools.
+ *
+ * Holds a {@link HttpConnectionPool} per server endpoint (e.g. localhost:8111), configured by the
+ * client.http.pool.* properties. The connections of all pools are driven by client.http.io.threads
+ * {@link HttpEventLoop}s, new connections are handed to them in turn. A background thread evicts idle
+ * connections every second. Registered as a
+ * {@link org.chorano.client.membership.MembershipListener} ({@link #retain}), the pool of a server is
+ * dropped once the server leaves zookeeper or moves to another location.
+ */
+public final class HttpConnectionPools {
+
+    private static final int MAX_CONNECTIONS = PropUtil.getIntPropVal("client.http.pool.max.connections.per.server", 16);
+    private static final int IDLE_TIMEOUT_MS = PropUtil.getIntPropVal("client.http.pool.idle.timeout.ms", 4000);
+    private static final int VALIDATE_AFTER_MS = PropUtil.getIntPropVal("client.http.pool.validate.after.ms", 1000);
+    private static final int CONNECT_TIMEOUT_MS = PropUtil.getIntPropVal("client.http.connect.timeout.ms", 5000);
+    private static final int READ_TIMEOUT_MS = PropUtil.getIntPropVal("client.http.read.timeout.ms", 30000);
+    private static final int IO_THREADS =
+            PropUtil.getIntPropVal("client.http.io.threads", Runtime.getRuntime().availableProcessors());
+    private static final long EVICT_INTERVAL_MS = 1000;
+
+    private final Map<String, HttpConnectionPool> pools = new ConcurrentHashMap<>();
+    private final HttpEventLoop[] loops = new HttpEventLoop[Math.max(1, IO_THREADS)];
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private HttpConnectionPools() {
+        for (int i = 0; i < this.loops.length; i++) {
+            try {
+                this.loops[i] = HttpEventLoop.start("chorano-http-io-" + i);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open a selector", e);
+            }
+        }
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "chorano-http-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(() -> this.pools.values().forEach(HttpConnectionPool::evictIdle),
+                EVICT_INTERVAL_MS, EVICT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param host the host of the endpoint
+     * @param port the port of the endpoint
+     * @return returns the pool of the endpoint, created on first use
+     */
+    public HttpConnectionPool pool(String host, int port) {
+        return this.pools.computeIfAbsent(host + ":" + port, endpoint -> new HttpConnectionPool(host, port,
+                this::nextLoop, MAX_CONNECTIONS, IDLE_TIMEOUT_MS, VALIDATE_AFTER_MS, CONNECT_TIMEOUT_MS,
+                READ_TIMEOUT_MS));
+    }
+
+    /**
+     * Drops the pool of an endpoint and closes its connections.
+     *
+     * @param endpoint the endpoint e.g. localhost:8111
+     */
+    public void remove(String endpoint) {
+        HttpConnectionPool pool = this.pools.remove(endpoint);
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Drops the pools of the locations that are no longer used by any server.
+     *
+     * @param previous the servers before a membership change
+     * @param current  the servers after the change
+     */
+    public void retain(MembershipSnapshot previous, MembershipSnapshot current) {
+        for (Server server : previous.servers()) {
+            if (!current.hasLocation(server.getLocation())) {
+                remove(server.getLocation());
+            }
+        }
+    }
+
+    private HttpEventLoop nextLoop() {
+        return this.loops[Math.floorMod(this.nextLoop.getAndIncrement(), this.loops.length)];
+    }
+
+    private static final class Holder {
+        static final HttpConnectionPools INSTANCE = new HttpConnectionPools();
+    }
+
+    public static HttpConnectionPools instance() {
+        return Holder.INSTANCE;
+    }
+}
@@ -0,0 +1,133 @@
+package org.chorano.client.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single threaded event loop that drives the pooled http connections registered with its selector.
+ * Connects, writes and reads never block, so one loop serves any number of outstanding requests; the
+ * responses are completed on the loop thread.
+ *
+ * Other threads talk to the loop only through {@link #execute(Runnable)} so that the state of a
+ * connection is touched by the loop thread alone.
+ */
+final class HttpEventLoop implements Runnable {
+
+    private static final long SELECT_TIMEOUT_MS = 500;
+    private static final long TIMEOUT_SWEEP_INTERVAL_NANOS = 250_000_000L;
+    private final Logger logger = LoggerFactory.getLogger(HttpEventLoop.class);
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private long lastTimeoutSweepNanos = System.nanoTime();
+
+    private HttpEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Opens a loop and starts its thread.
+     *
+     * @param name the name of the loop thread
+     * @return returns the running loop
+     * @throws IOException if no selector can be opened
+     */
+    static HttpEventLoop start(String name) throws IOException {
+        HttpEventLoop loop = new HttpEventLoop();
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        thread.start();
+        return loop;
+    }
+
+    /**
+     * Runs the task on the loop thread.
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    SelectionKey register(SocketChannel channel, int ops, PooledConnection connection) throws ClosedChannelException {
+        return channel.register(this.selector, ops, connection);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                this.selector.select(SELECT_TIMEOUT_MS);
+            } catch (IOException e) {
+                this.logger.debug("Select failed: {}", e);
+            }
+            runTasks();
+            processSelectedKeys();
+            expireConnections();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException | InternalError e) {
+                // the tasks fail their connection on I/O errors, anything else is logged and survived
+                this.logger.debug("Loop task failed: {}", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            PooledConnection connection = (PooledConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    connection.onConnectable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+            } catch (IOException e) {
+                connection.fail(e);
+            } catch (RuntimeException | InternalError e) {
+                // a bug in one connection must not take the loop and all its other connections down
+                this.logger.debug("Closing connection after an unexpected failure: {}", e);
+                connection.fail(new IOException("Unexpected failure", e));
+            }
+        }
+    }
+
+    /**
+     * Fails the connections whose connect or response takes too long.
+     */
+    private void expireConnections() {
+        long now = System.nanoTime();
+        if (now - this.lastTimeoutSweepNanos < TIMEOUT_SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        this.lastTimeoutSweepNanos = now;
+        for (SelectionKey key : this.selector.keys()) {
+            PooledConnection connection = (PooledConnection) key.attachment();
+            if (key.isValid() && connection != null) {
+                connection.expire(now);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.chorano.client.transport;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request on its way through a {@link HttpConnectionPool}: the encoded request and the future of its
+ * parsed response.
+ */
+final class HttpExchange {
+
+    private final byte[] request;
+    private final boolean head;
+    private final long leaseDeadlineNanos;
+    private final CompletableFuture<ResponseParser> response = new CompletableFuture<>();
+
+    /**
+     * @param request        the request line, headers and entity
+     * @param head           true for a HEAD request
+     * @param leaseTimeoutMs the longest time the request waits for a connection
+     */
+    HttpExchange(byte[] request, boolean head, long leaseTimeoutMs) {
+        this.request = request;
+        this.head = head;
+        this.leaseDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMs);
+    }
+
+    byte[] request() {
+        return this.request;
+    }
+
+    boolean isHead() {
+        return this.head;
+    }
+
+    long leaseDeadlineNanos() {
+        return this.leaseDeadlineNanos;
+    }
+
+    /**
+     * @return returns the future completed with the response, or with the failure of the exchange
+     */
+    CompletableFuture<ResponseParser> response() {
+        return this.response;
+    }
+}
@@ -0,0 +1,53 @@
+package org.chorano.client.transport;
+
+import org.chorano.client.util.PropUtil;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests as http posts using a jax-rs(jersey) client. The client runs on the keep-alive connection
+ * pools of {@link PooledConnectorProvider}, so consecutive requests to a server reuse its connections.
+ * Jersey prepares async requests on a pool of client.http.io.threads threads, which only encode the request
+ * and hand it to the non-blocking connector.
+ */
+public class HttpTransport implements Transport {
+
+    private static final int ASYNC_THREADS =
+            PropUtil.getIntPropVal("client.http.io.threads", Runtime.getRuntime().availableProcessors());
+
+    private final Client client = ClientBuilder.newClient(new ClientConfig()
+            .connectorProvider(new PooledConnectorProvider())
+            .property(ClientProperties.ASYNC_THREADPOOL_SIZE, Math.max(1, ASYNC_THREADS)));
+
+    @Override
+    public CompletableFuture<String> send(String location, String entity) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        this.client.target("http://" + location)
+                .request()
+                .async()
+                .post(Entity.entity(entity, MediaType.TEXT_PLAIN), new InvocationCallback<String>() {
+                    @Override
+                    public void completed(String body) {
+                        response.complete(body);
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        response.completeExceptionally(throwable);
+                    }
+                });
+        return response;
+    }
+
+    @Override
+    public void close() {
+        this.client.close();
+    }
+}
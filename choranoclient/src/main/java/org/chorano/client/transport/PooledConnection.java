@@ -0,0 +1,236 @@
+package org.chorano.client.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking keep-alive connection owned by a {@link HttpConnectionPool} and driven by one
+ * {@link HttpEventLoop}. It carries one exchange at a time: the request is written as far as the socket
+ * takes it, the response is parsed as it comes in, and the connection goes back to its pool once the
+ * response is complete.
+ *
+ * Everything but {@link #close()} and the idle time runs on the loop thread.
+ */
+final class PooledConnection {
+
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+
+    private final HttpConnectionPool pool;
+    private final HttpEventLoop loop;
+    private final InetSocketAddress address;
+    private final long connectTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connecting;
+    private boolean stale;
+    private HttpExchange exchange;
+    private ByteBuffer request;
+    private ResponseParser response;
+    private long deadlineNanos;
+    private long idleSinceNanos;
+
+    PooledConnection(HttpConnectionPool pool, HttpEventLoop loop, InetSocketAddress address, int connectTimeoutMs,
+                     int readTimeoutMs) {
+        this.pool = pool;
+        this.loop = loop;
+        this.address = address;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+    }
+
+    /**
+     * Opens the connection and sends the first exchange over it.
+     *
+     * @param first the exchange to send once connected
+     */
+    void connect(HttpExchange first) {
+        this.loop.execute(() -> {
+            this.exchange = first;
+            try {
+                this.channel = SocketChannel.open();
+                this.channel.configureBlocking(false);
+                this.channel.socket().setTcpNoDelay(true);
+                this.key = this.loop.register(this.channel, SelectionKey.OP_CONNECT, this);
+                if (this.channel.connect(this.address)) {
+                    send(first);
+                } else {
+                    this.connecting = true;
+                    this.deadlineNanos = System.nanoTime() + this.connectTimeoutNanos;
+                }
+            } catch (UnresolvedAddressException e) {
+                fail(new UnknownHostException(this.address.getHostString()));
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Sends an exchange over this idle connection.
+     *
+     * @param next     the exchange
+     * @param validate true to check first that the server has not closed the connection meanwhile
+     */
+    void execute(HttpExchange next, boolean validate) {
+        this.loop.execute(() -> {
+            if (this.closed.get() || this.stale || validate && isStale()) {
+                if (close()) {
+                    this.pool.closed(this);
+                }
+                this.pool.send(next);
+                return;
+            }
+            try {
+                send(next);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    void onConnectable() throws IOException {
+        if (this.channel.finishConnect()) {
+            this.connecting = false;
+            send(this.exchange);
+        }
+    }
+
+    void onWritable() throws IOException {
+        this.channel.write(this.request);
+        // the server may answer or close before it has read the whole request
+        this.key.interestOps(this.request.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ);
+    }
+
+    void onReadable() throws IOException {
+        this.readBuffer.clear();
+        int count = this.channel.read(this.readBuffer);
+        if (this.exchange == null) {
+            // an idle connection was closed by the server, or it sent bytes nobody asked for
+            if (count != 0) {
+                this.stale = true;
+                this.key.interestOps(0);
+                this.pool.discardIdle(this);
+            }
+            return;
+        }
+        if (count < 0) {
+            if (this.response.endOfStream()) {
+                complete();
+            }
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        this.readBuffer.flip();
+        this.deadlineNanos = System.nanoTime() + this.readTimeoutNanos;
+        if (this.response.feed(this.readBuffer)) {
+            complete();
+        }
+    }
+
+    /**
+     * Fails the connection if its connect or the response of its exchange takes too long.
+     */
+    void expire(long now) {
+        if ((this.connecting || this.exchange != null) && now - this.deadlineNanos >= 0) {
+            fail(new SocketTimeoutException((this.connecting ? "Connect to " : "Read from ") + this.address
+                    + " timed out"));
+        }
+    }
+
+    /**
+     * Closes the connection and fails its exchange.
+     */
+    void fail(IOException cause) {
+        if (!close()) {
+            return;
+        }
+        HttpExchange failed = this.exchange;
+        this.exchange = null;
+        this.pool.closed(this);
+        if (failed != null) {
+            failed.response().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * @return returns true if this call closed the connection, false if it was closed before
+     */
+    boolean close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return false;
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException ignored) {
+                // nothing left to do with a broken socket
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Guarded by the lock of the pool.
+     */
+    long idleSinceNanos() {
+        return this.idleSinceNanos;
+    }
+
+    void idleSince(long nanos) {
+        this.idleSinceNanos = nanos;
+    }
+
+    private void send(HttpExchange next) throws IOException {
+        this.exchange = next;
+        this.request = ByteBuffer.wrap(next.request());
+        this.response = new ResponseParser(next.isHead());
+        this.deadlineNanos = System.nanoTime() + this.readTimeoutNanos;
+        onWritable();
+    }
+
+    private void complete() {
+        HttpExchange done = this.exchange;
+        ResponseParser parsed = this.response;
+        this.exchange = null;
+        this.request = null;
+        this.response = null;
+        HttpExchange next = this.pool.release(this, parsed.isReusable());
+        if (next != null) {
+            try {
+                send(next);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        done.response().complete(parsed);
+    }
+
+    /**
+     * Checks that an idle connection can still be used. A server closes idle keep-alive connections, which
+     * shows up as end of stream; any unexpected byte would corrupt the next response.
+     *
+     * @return returns true if the server has closed the connection or sent something
+     */
+    private boolean isStale() {
+        try {
+            this.readBuffer.clear();
+            return this.channel.read(this.readBuffer) != 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
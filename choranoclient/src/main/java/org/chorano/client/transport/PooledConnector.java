@@ -0,0 +1,193 @@
+package org.chorano.client.transport;
+
+import org.chorano.client.util.PropUtil;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A jersey connector that speaks HTTP/1.1 over the pooled keep-alive connections of
+ * {@link HttpConnectionPools} instead of opening a connection per request.
+ *
+ * The request entity is buffered so that it is sent with a Content-Length. The connections are non-blocking:
+ * an async request is handed to its pool and completed by the {@link HttpEventLoop} of its connection, so
+ * no thread waits for a response, and requests beyond the connection limit of a server wait in the pool
+ * rather than fail. The response body is read completely (Content-Length, chunked or up to the end of the
+ * stream) before the connection goes back to its pool; a connection is only reused if neither side asked
+ * to close it. Responses are requested with Accept-Encoding: gzip, deflate and decoded by
+ * {@link ResponseDecoder} before jersey reads them.
+ */
+class PooledConnector implements Connector {
+
+    private static final int LEASE_TIMEOUT_MS = PropUtil.getIntPropVal("client.http.pool.lease.timeout.ms", 5000);
+
+    private final HttpConnectionPools pools;
+
+    PooledConnector(HttpConnectionPools pools) {
+        this.pools = pools;
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        try {
+            return send(request).get();
+        } catch (ExecutionException e) {
+            throw processingException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for the response", e);
+        }
+    }
+
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        CompletableFuture<ClientResponse> response = send(request);
+        response.whenComplete((result, failure) -> {
+            if (failure == null) {
+                callback.response(result);
+            } else {
+                callback.failure(processingException(failure));
+            }
+        });
+        return response;
+    }
+
+    @Override
+    public String getName() {
+        return "chorano-pooled";
+    }
+
+    @Override
+    public void close() {
+        // the pools are shared by all clients
+    }
+
+    private CompletableFuture<ClientResponse> send(ClientRequest request) {
+        URI uri = request.getUri();
+        int port = uri.getPort() < 0 ? 80 : uri.getPort();
+        byte[] message;
+        try {
+            message = encodeRequest(request, uri, port, bufferEntity(request));
+        } catch (IOException e) {
+            CompletableFuture<ClientResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        HttpExchange exchange = new HttpExchange(message, "HEAD".equals(request.getMethod()), LEASE_TIMEOUT_MS);
+        this.pools.pool(uri.getHost(), port).send(exchange);
+        return exchange.response().thenApply(parsed -> {
+            try {
+                return toClientResponse(request, parsed);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static ProcessingException processingException(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        return cause instanceof ProcessingException ? (ProcessingException) cause : new ProcessingException(cause);
+    }
+
+    private static byte[] bufferEntity(ClientRequest request) throws IOException {
+        if (!request.hasEntity()) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        request.setStreamProvider(contentLength -> body);
+        request.writeEntity();
+        return body.toByteArray();
+    }
+
+    private static byte[] encodeRequest(ClientRequest request, URI uri, int port, byte[] entity) {
+        StringBuilder head = new StringBuilder(256);
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        head.append(request.getMethod()).append(' ').append(path);
+        if (uri.getRawQuery() != null) {
+            head.append('?').append(uri.getRawQuery());
+        }
+        head.append(" HTTP/1.1\r\nHost: ").append(uri.getHost()).append(':').append(port).append("\r\n");
+        boolean acceptEncoding = false;
+        // the headers are complete once the entity has been written
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            String name = header.getKey();
+            if ("Host".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)
+                    || "Transfer-Encoding".equalsIgnoreCase(name)) {
+                continue;
+            }
+            acceptEncoding |= "Accept-Encoding".equalsIgnoreCase(name);
+            for (String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (!acceptEncoding && ResponseDecoder.ENABLED) {
+            head.append("Accept-Encoding: ").append(ResponseDecoder.ACCEPT_ENCODING).append("\r\n");
+        }
+        if (entity != null) {
+            head.append("Content-Length: ").append(entity.length).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (entity == null) {
+            return headBytes;
+        }
+        byte[] message = Arrays.copyOf(headBytes, headBytes.length + entity.length);
+        System.arraycopy(entity, 0, message, headBytes.length, entity.length);
+        return message;
+    }
+
+    private static ClientResponse toClientResponse(ClientRequest request, ResponseParser parsed) throws IOException {
+        ClientResponse response = new ClientResponse(statusType(parsed.getStatusCode(), parsed.getReasonPhrase()),
+                request);
+        for (String[] header : parsed.getHeaders()) {
+            response.headers(header[0], header[1]);
+        }
+        byte[] body = parsed.getBody();
+        String contentEncoding = parsed.getContentEncoding();
+        if (body.length > 0 && ResponseDecoder.isSupported(contentEncoding)) {
+            // jersey sees the decoded entity, as if it had been sent uncompressed
+            body = ResponseDecoder.decode(contentEncoding, body);
+            response.getHeaders().remove("Content-Encoding");
+            response.getHeaders().putSingle("Content-Length", Integer.toString(body.length));
+        }
+        response.setEntityStream(new ByteArrayInputStream(body));
+        return response;
+    }
+
+    private static Response.StatusType statusType(int code, String reason) {
+        Response.Status known = Response.Status.fromStatusCode(code);
+        return known != null ? known : new Response.StatusType() {
+            @Override
+            public int getStatusCode() {
+                return code;
+            }
+
+            @Override
+            public Response.Status.Family getFamily() {
+                return Response.Status.Family.familyOf(code);
+            }
+
+            @Override
+            public String getReasonPhrase() {
+                return reason;
+            }
+        };
+    }
+}
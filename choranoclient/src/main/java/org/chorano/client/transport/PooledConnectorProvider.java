@@ -0,0 +1,22 @@
+package org.chorano.client.transport;
+
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Configuration;
+
+/**
+ * Plugs the keep-alive connection pools of {@link HttpConnectionPools} into a jersey client.
+ *
+ * <pre>
+ * ClientBuilder.newClient(new ClientConfig().connectorProvider(new PooledConnectorProvider()));
+ * </pre>
+ */
+public class PooledConnectorProvider implements ConnectorProvider {
+
+    @Override
+    public Connector getConnector(Client client, Configuration runtimeConfig) {
+        return new PooledConnector(HttpConnectionPools.instance());
+    }
+}
@@ -0,0 +1,163 @@
+package org.chorano.client.transport;
+
+import org.chorano.client.util.PropUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes gzip and deflate response bodies for {@link PooledConnector}, which asks for them with
+ * Accept-Encoding unless client.http.compression.enabled is false.
+ *
+ * An {@link Inflater} holds native zlib memory, so the inflaters are pooled (client.http.inflater.pool.size
+ * per format) rather than created per response. A decoded body may not exceed
+ * client.http.max.decoded.body.bytes, which guards against bodies that decompress to far more than was sent.
+ */
+final class ResponseDecoder {
+
+    static final boolean ENABLED =
+            Boolean.parseBoolean(PropUtil.getPropVal("client.http.compression.enabled", "true"));
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int POOL_SIZE = PropUtil.getIntPropVal("client.http.inflater.pool.size", 16);
+    private static final int MAX_DECODED_BYTES =
+            PropUtil.getIntPropVal("client.http.max.decoded.body.bytes", 64 * 1024 * 1024);
+    private static final int CHUNK_BYTES = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final BlockingQueue<Inflater> RAW_INFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+    private static final BlockingQueue<Inflater> ZLIB_INFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+
+    private ResponseDecoder() {
+
+    }
+
+    /**
+     * @param encoding the value of the Content-Encoding header
+     * @return returns true if the body can be decoded
+     */
+    static boolean isSupported(String encoding) {
+        return "gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)
+                || "deflate".equalsIgnoreCase(encoding);
+    }
+
+    /**
+     * @param encoding a supported content coding, see {@link #isSupported(String)}
+     * @param body     the encoded body
+     * @return returns the decoded body
+     * @throws IOException if the body is malformed, truncated or too large once decoded
+     */
+    static byte[] decode(String encoding, byte[] body) throws IOException {
+        if ("deflate".equalsIgnoreCase(encoding)) {
+            // "deflate" means the zlib format, though some servers send a raw deflate stream
+            boolean zlib = body.length >= 2 && (body[0] & 0x0f) == 8
+                    && (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+            return inflate(body, 0, !zlib, null);
+        }
+        return inflate(body, gzipHeaderLength(body), true, new CRC32());
+    }
+
+    /**
+     * @param crc the checksum to verify against the gzip trailer after the deflate stream, null for none
+     */
+    private static byte[] inflate(byte[] body, int offset, boolean raw, CRC32 crc) throws IOException {
+        BlockingQueue<Inflater> pool = raw ? RAW_INFLATERS : ZLIB_INFLATERS;
+        Inflater inflater = pool.poll();
+        if (inflater == null) {
+            inflater = new Inflater(raw);
+        }
+        try {
+            inflater.setInput(body, offset, body.length - offset);
+            ByteArrayOutputStream decoded =
+                    new ByteArrayOutputStream((int) Math.min(body.length * 4L, MAX_DECODED_BYTES));
+            byte[] chunk = new byte[CHUNK_BYTES];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Compressed body ends before its last block");
+                }
+                if (decoded.size() + count > MAX_DECODED_BYTES) {
+                    throw new IOException("Decoded body exceeds " + MAX_DECODED_BYTES + " bytes");
+                }
+                decoded.write(chunk, 0, count);
+                if (crc != null) {
+                    crc.update(chunk, 0, count);
+                }
+            }
+            if (crc != null) {
+                int trailer = body.length - inflater.getRemaining();
+                if (trailer + 8 > body.length) {
+                    throw new EOFException("Gzip body ends before its trailer");
+                }
+                if ((int) crc.getValue() != readIntLittleEndian(body, trailer)
+                        || decoded.size() != readIntLittleEndian(body, trailer + 4)) {
+                    throw new IOException("Corrupt gzip body");
+                }
+            }
+            return decoded.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed body", e);
+        } finally {
+            inflater.reset();
+            if (!pool.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * @return returns the length of the gzip member header (RFC 1952) at the start of the body
+     */
+    private static int gzipHeaderLength(byte[] body) throws IOException {
+        if (body.length < 18 || readShortLittleEndian(body, 0) != GZIP_MAGIC || body[2] != 8) {
+            throw new IOException("Not a gzip body");
+        }
+        int flags = body[3];
+        // magic, method, flags, mtime, extra flags and os
+        int offset = 10;
+        if ((flags & FEXTRA) != 0) {
+            offset += 2 + readShortLittleEndian(body, offset);
+        }
+        if ((flags & FNAME) != 0) {
+            offset = skipZeroTerminated(body, offset);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            offset = skipZeroTerminated(body, offset);
+        }
+        if ((flags & FHCRC) != 0) {
+            offset += 2;
+        }
+        if (offset >= body.length) {
+            throw new EOFException("Gzip body ends within its header");
+        }
+        return offset;
+    }
+
+    private static int skipZeroTerminated(byte[] body, int offset) {
+        while (offset < body.length && body[offset] != 0) {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    private static int readShortLittleEndian(byte[] body, int offset) throws IOException {
+        if (offset + 2 > body.length) {
+            throw new EOFException("Gzip body ends within its header");
+        }
+        return (body[offset] & 0xff) | (body[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readIntLittleEndian(byte[] body, int offset) {
+        return (body[offset] & 0xff) | (body[offset + 1] & 0xff) << 8 | (body[offset + 2] & 0xff) << 16
+                | (body[offset + 3] & 0xff) << 24;
+    }
+}
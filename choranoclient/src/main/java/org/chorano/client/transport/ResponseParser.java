@@ -0,0 +1,275 @@
+package org.chorano.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses an HTTP/1.1 response from the bytes of a non-blocking connection as they come in.
+ *
+ * The body is complete after Content-Length bytes, after the last chunk of a chunked body or, without
+ * either, at the end of the stream. A connection is only reusable if neither side asked to close it and
+ * nothing but the response was received.
+ */
+final class ResponseParser {
+
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final int MAX_HEADER_LINES = 256;
+
+    private enum State {
+        STATUS, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_TO_END, DONE
+    }
+
+    private final boolean head;
+    private byte[] data = new byte[2048];
+    private int length;
+    private int position;
+    private State state = State.STATUS;
+    private long remaining;
+    private int headerLines;
+    private int statusCode;
+    private String reasonPhrase;
+    private final List<String[]> headers = new ArrayList<>();
+    private boolean keepAlive = true;
+    private boolean chunked;
+    private long contentLength = -1;
+    private String contentEncoding;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    /**
+     * @param head true if the request was a HEAD request, whose response has no body
+     */
+    ResponseParser(boolean head) {
+        this.head = head;
+    }
+
+    /**
+     * Consumes the bytes that came in.
+     *
+     * @param bytes the bytes read from the connection
+     * @return returns true once the response is complete
+     * @throws IOException if the response is malformed
+     */
+    boolean feed(ByteBuffer bytes) throws IOException {
+        int count = bytes.remaining();
+        if (this.length + count > this.data.length) {
+            if (this.position > 0) {
+                System.arraycopy(this.data, this.position, this.data, 0, this.length - this.position);
+                this.length -= this.position;
+                this.position = 0;
+            }
+            if (this.length + count > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.length + count));
+            }
+        }
+        bytes.get(this.data, this.length, count);
+        this.length += count;
+        parse();
+        return this.state == State.DONE;
+    }
+
+    /**
+     * Called when the server closed the connection.
+     *
+     * @return returns true if that completed the response, a body that ends with the connection
+     * @throws EOFException if the response is not complete
+     */
+    boolean endOfStream() throws EOFException {
+        if (this.state == State.BODY_TO_END) {
+            this.state = State.DONE;
+            this.keepAlive = false;
+            return true;
+        }
+        if (this.state == State.STATUS && this.length == 0) {
+            throw new EOFException("Connection closed before the response");
+        }
+        throw new EOFException("Connection closed within the response");
+    }
+
+    /**
+     * @return returns true if the connection can carry the next request
+     */
+    boolean isReusable() {
+        return this.state == State.DONE && this.keepAlive && this.position == this.length;
+    }
+
+    int getStatusCode() {
+        return this.statusCode;
+    }
+
+    String getReasonPhrase() {
+        return this.reasonPhrase;
+    }
+
+    /**
+     * @return returns the headers as name and value pairs in the order they were received
+     */
+    List<String[]> getHeaders() {
+        return this.headers;
+    }
+
+    String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    byte[] getBody() {
+        return this.body.toByteArray();
+    }
+
+    private void parse() throws IOException {
+        while (true) {
+            switch (this.state) {
+                case STATUS:
+                case HEADERS:
+                case CHUNK_SIZE:
+                case CHUNK_END:
+                case TRAILERS:
+                    String line = readLine();
+                    if (line == null) {
+                        return;
+                    }
+                    onLine(line);
+                    break;
+                case BODY:
+                case CHUNK_DATA:
+                    int count = (int) Math.min(this.remaining, this.length - this.position);
+                    if (count == 0) {
+                        return;
+                    }
+                    this.body.write(this.data, this.position, count);
+                    this.position += count;
+                    this.remaining -= count;
+                    if (this.remaining == 0) {
+                        this.state = this.state == State.BODY ? State.DONE : State.CHUNK_END;
+                    }
+                    break;
+                case BODY_TO_END:
+                    this.body.write(this.data, this.position, this.length - this.position);
+                    this.position = this.length;
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void onLine(String line) throws IOException {
+        switch (this.state) {
+            case STATUS:
+                parseStatusLine(line);
+                this.state = State.HEADERS;
+                break;
+            case HEADERS:
+                if (line.isEmpty()) {
+                    startBody();
+                } else {
+                    parseHeader(line);
+                }
+                break;
+            case CHUNK_SIZE:
+                int extension = line.indexOf(';');
+                try {
+                    this.remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + line, e);
+                }
+                if (this.remaining < 0) {
+                    throw new IOException("Malformed chunk size: " + line);
+                }
+                this.state = this.remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                this.state = State.CHUNK_SIZE;
+                break;
+            default:
+                // the trailers are skipped
+                if (line.isEmpty()) {
+                    this.state = State.DONE;
+                }
+                break;
+        }
+    }
+
+    private void parseStatusLine(String line) throws IOException {
+        // HTTP/1.1 200 OK
+        int codeStart = line.indexOf(' ');
+        if (!line.startsWith("HTTP/") || codeStart < 0 || line.length() < codeStart + 4) {
+            throw new IOException("Malformed status line: " + line);
+        }
+        try {
+            this.statusCode = Integer.parseInt(line.substring(codeStart + 1, codeStart + 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + line, e);
+        }
+        this.reasonPhrase = line.length() > codeStart + 5 ? line.substring(codeStart + 5) : "";
+    }
+
+    private void parseHeader(String line) throws IOException {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Malformed response header: " + line);
+        }
+        if (++this.headerLines > MAX_HEADER_LINES) {
+            throw new IOException("Too many response headers");
+        }
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        this.headers.add(new String[]{name, value});
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                this.contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + value, e);
+            }
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            this.chunked = value.toLowerCase().contains("chunked");
+        } else if ("Connection".equalsIgnoreCase(name)) {
+            this.keepAlive = !"close".equalsIgnoreCase(value);
+        } else if ("Content-Encoding".equalsIgnoreCase(name)) {
+            this.contentEncoding = value;
+        }
+    }
+
+    private void startBody() throws IOException {
+        if (this.head || this.statusCode == 204 || this.statusCode == 304 || this.statusCode / 100 == 1) {
+            this.state = State.DONE;
+        } else if (this.chunked) {
+            this.state = State.CHUNK_SIZE;
+        } else if (this.contentLength >= 0) {
+            if (this.contentLength > Integer.MAX_VALUE) {
+                throw new IOException("Response body too large: " + this.contentLength);
+            }
+            this.remaining = this.contentLength;
+            this.state = this.contentLength == 0 ? State.DONE : State.BODY;
+        } else {
+            // the body ends with the connection
+            this.state = State.BODY_TO_END;
+        }
+    }
+
+    /**
+     * @return returns the next line without its CRLF, null if it has not been received completely
+     */
+    private String readLine() throws IOException {
+        for (int i = this.position; i < this.length; i++) {
+            if (this.data[i] == '\n') {
+                int end = i > this.position && this.data[i - 1] == '\r' ? i - 1 : i;
+                if (end - this.position > MAX_HEADER_LINE) {
+                    throw new IOException("Response header line too long");
+                }
+                String line = new String(this.data, this.position, end - this.position, StandardCharsets.ISO_8859_1);
+                this.position = i + 1;
+                return line;
+            }
+        }
+        if (this.length - this.position > MAX_HEADER_LINE) {
+            throw new IOException("Response header line too long");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package org.chorano.client.transport;
+
+import java.io.IOException;
+
+/**
+ * A server refused a request because it is overloaded. The request has not been processed and can be
+ * sent elsewhere.
+ */
+public class ServerOverloadedException extends IOException {
+
+    public ServerOverloadedException(String message) {
+        super(message);
+    }
+}
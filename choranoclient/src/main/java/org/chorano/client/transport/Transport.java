@@ -0,0 +1,19 @@
+package org.chorano.client.transport;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends a request entity to a chorano server and completes with the response entity.
+ */
+public interface Transport extends AutoCloseable {
+
+    /**
+     * @param location the location of the server e.g. localhost:8111
+     * @param entity   the request entity
+     * @return returns a future completed with the response entity or the failure
+     */
+    CompletableFuture<String> send(String location, String entity);
+
+    @Override
+    void close();
+}
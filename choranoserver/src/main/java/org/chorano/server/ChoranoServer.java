@@ -4,7 +4,12 @@ import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.chorano.server.common.ZkConstant;
+import org.chorano.server.executor.VirtualThreads;
+import org.chorano.server.metrics.LoadReportPublisher;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerLoadReport;
 import org.chorano.server.service.ServerService;
+import org.chorano.server.service.impl.NioServerServiceImpl;
 import org.chorano.server.service.impl.SocketServerServiceImpl;
 import org.chorano.server.service.impl.ZkServiceImpl;
 import org.chorano.server.util.PropUtil;
@@ -37,13 +42,49 @@ public class ChoranoServer {
 
         LOGGER.debug("Creating root persistant node named \"/chorano\" in zk server");
         LOGGER.debug("Registering server at the root node e.g. \"/chorano/x_1\"");
-        zkServiceImpl.registerInZookeeper(zooKeeper, "/chorano",
-                "localhost:" + String.valueOf(port));
+        ServerLoadReport initialLoad = ServerLoadMonitor.instance().report("localhost:" + String.valueOf(port));
+        String node = zkServiceImpl.registerInZookeeper(zooKeeper, "/chorano", initialLoad.toBytes());
+
+        LoadReportPublisher loadPublisher = null;
+        if (node != null) {
+            LOGGER.debug("Publishing server load in the data of node {}", node);
+            loadPublisher = LoadReportPublisher.fromProperties(zkServiceImpl, zooKeeper, node, initialLoad);
+            loadPublisher.start();
+        }
 
         LOGGER.debug("Starting the chorano server so that it keeps listening to port: " + port);
-        ServerService serverService = new SocketServerServiceImpl();
+        ServerService serverService = createServerService(PropUtil.getPropVal("server.mode", "socket"));
         serverService.startChoranoServer(port);
+        if (loadPublisher != null) {
+            loadPublisher.stop();
+        }
+
+    }
 
+    /**
+     * Creates the server implementation selected in the properties file.
+     *
+     * @param mode "socket" for the blocking server with a thread pool, "virtual" for the blocking server with
+     *             a virtual thread per connection or "nio" for the selector based server
+     * @return returns the server service
+     */
+    public static ServerService createServerService(String mode) {
+        switch (mode) {
+            case "nio":
+                return new NioServerServiceImpl();
+            case "virtual":
+                if (VirtualThreads.isSupported()) {
+                    LOGGER.debug("Serving every connection on its own virtual thread");
+                    return new SocketServerServiceImpl(VirtualThreads::newVirtualThreadPerTaskExecutor);
+                }
+                LOGGER.debug("Virtual threads need Java 21, falling back to the thread pool");
+                return new SocketServerServiceImpl();
+            case "socket":
+                return new SocketServerServiceImpl();
+            default:
+                LOGGER.debug("Unknown server.mode: {}, falling back to socket", mode);
+                return new SocketServerServiceImpl();
+        }
     }
 
 }
@@ -0,0 +1,302 @@
+package org.chorano.server.buffer;
+
+import org.chorano.server.executor.VirtualThreads;
+import org.chorano.server.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Uses initialization on demand holder pattern to initialize a single buffer pool.
+ *
+ * Server-wide pool of the buffers used for socket I/O. Capacities are rounded up to size classes, the
+ * powers of two from 1 KB up to the largest request that is accepted. Every class has a bounded shared
+ * stock of buffer.pool.class.cache.bytes; the small classes also have a cache of
+ * buffer.pool.thread.cache.size buffers per thread, so a thread that releases what it leased (an event
+ * loop, a connection thread) never touches the shared stock. Virtual threads, which end with their
+ * connection, use the shared stock only. Larger requests are allocated and dropped like any other buffer.
+ *
+ * With buffer.pool.direct (the default) the buffers are direct, so socket reads and writes need no
+ * temporary copy. A leased buffer has to be released exactly once and must not be used afterwards.
+ * With buffer.pool.leak.detection every lease is tracked; a buffer that is collected without being
+ * released, or released twice, is logged with the stack trace of its lease. Tracking is slow and meant
+ * for debugging only.
+ */
+public final class BufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 10;
+    private static final int MAX_THREAD_CACHED_CLASS = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+    private final boolean direct;
+    private final int threadCacheSize;
+    private final int threadCachedClasses;
+    private final int largestClass;
+    private final ArrayBlockingQueue<ByteBuffer>[] stock;
+    private final ThreadLocal<ByteBuffer[][]> threadCaches;
+    private final ThreadLocal<int[]> threadCounts;
+    private final AtomicInteger leased = new AtomicInteger();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final Map<Integer, Lease> leases;
+    private final ReferenceQueue<ByteBuffer> collected;
+
+    /**
+     * @param direct          true to pool direct buffers, false for heap buffers
+     * @param maxBufferBytes  the largest capacity that is pooled
+     * @param classCacheBytes the bytes every size class keeps in its shared stock
+     * @param threadCacheSize the buffers every thread keeps per small size class
+     * @param leakDetection   true to track every lease
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean direct, int maxBufferBytes, int classCacheBytes, int threadCacheSize,
+                      boolean leakDetection) {
+        this.direct = direct;
+        this.threadCacheSize = threadCacheSize;
+        int classes = sizeClass(maxBufferBytes) + 1;
+        this.largestClass = classSize(classes - 1);
+        this.stock = new ArrayBlockingQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            this.stock[i] = new ArrayBlockingQueue<>(Math.max(1, classCacheBytes / classSize(i)));
+        }
+        int threadCached = Math.min(classes, sizeClass(MAX_THREAD_CACHED_CLASS) + 1);
+        this.threadCachedClasses = threadCacheSize > 0 ? threadCached : 0;
+        this.threadCaches = ThreadLocal.withInitial(() -> new ByteBuffer[threadCached][threadCacheSize]);
+        this.threadCounts = ThreadLocal.withInitial(() -> new int[threadCached]);
+        this.leases = leakDetection ? new HashMap<>() : null;
+        this.collected = leakDetection ? new ReferenceQueue<>() : null;
+    }
+
+    /**
+     * Leases a buffer in fill mode, i.e. cleared.
+     *
+     * @param minCapacity the bytes the buffer has to hold at least
+     * @return returns a buffer of the size class of minCapacity or, above the largest class, of exactly
+     * minCapacity bytes
+     */
+    public ByteBuffer lease(int minCapacity) {
+        if (minCapacity > this.largestClass) {
+            return allocate(minCapacity);
+        }
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer buffer = null;
+        if (usesThreadCache(sizeClass)) {
+            int[] counts = this.threadCounts.get();
+            if (counts[sizeClass] > 0) {
+                ByteBuffer[] cache = this.threadCaches.get()[sizeClass];
+                buffer = cache[--counts[sizeClass]];
+                cache[counts[sizeClass]] = null;
+            }
+        }
+        if (buffer == null) {
+            buffer = this.stock[sizeClass].poll();
+        }
+        if (buffer == null) {
+            buffer = allocate(classSize(sizeClass));
+        }
+        this.leased.incrementAndGet();
+        if (this.leases != null) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that were not leased from a size class are left to the
+     * garbage collector; null is ignored.
+     *
+     * @param buffer the leased buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() > this.largestClass) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (buffer.capacity() != classSize(sizeClass) || buffer.isDirect() != this.direct) {
+            return;
+        }
+        if (this.leases != null && !untrack(buffer)) {
+            this.logger.debug("Buffer of {} bytes released twice or not leased from the pool", buffer.capacity(),
+                    new Throwable("Released here"));
+            return;
+        }
+        this.leased.decrementAndGet();
+        buffer.clear();
+        if (usesThreadCache(sizeClass)) {
+            int[] counts = this.threadCounts.get();
+            if (counts[sizeClass] < this.threadCacheSize) {
+                this.threadCaches.get()[sizeClass][counts[sizeClass]++] = buffer;
+                return;
+            }
+        }
+        // a full stock drops the buffer, a direct one frees its memory once it is collected
+        this.stock[sizeClass].offer(buffer);
+    }
+
+    /**
+     * A virtual thread serves a single connection and then ends, taking its cache with it, so it goes
+     * straight to the shared stock.
+     *
+     * @return returns true if the size class is cached per thread for the current thread
+     */
+    private boolean usesThreadCache(int sizeClass) {
+        return sizeClass < this.threadCachedClasses && !VirtualThreads.isVirtual(Thread.currentThread());
+    }
+
+    /**
+     * Moves the bytes of a buffer into a larger one and releases the old one.
+     *
+     * @param buffer      the buffer in fill mode
+     * @param minCapacity the bytes the new buffer has to hold at least
+     * @return returns the new buffer in fill mode
+     */
+    public ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer larger = lease(minCapacity);
+        buffer.flip();
+        larger.put(buffer);
+        release(buffer);
+        return larger;
+    }
+
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * @return returns the number of buffers leased and not yet released
+     */
+    public int getLeasedCount() {
+        return this.leased.get();
+    }
+
+    /**
+     * @return returns the number of buffers the pool had to allocate because none was cached
+     */
+    public long getAllocatedCount() {
+        return this.allocated.sum();
+    }
+
+    /**
+     * @return returns the number of buffers collected without being released, if leak detection is on
+     */
+    public long getLeakCount() {
+        return this.leaks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[direct=" + this.direct + ", leased=" + getLeasedCount() + ", allocated="
+                + getAllocatedCount() + ", leaks=" + getLeakCount() + "]";
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        this.allocated.increment();
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private void track(ByteBuffer buffer) {
+        reportLeaks();
+        Lease lease = new Lease(buffer, this.collected);
+        synchronized (this.leases) {
+            lease.next = this.leases.put(lease.hash, lease);
+        }
+    }
+
+    /**
+     * @return returns true if the buffer was leased and is not released yet
+     */
+    private boolean untrack(ByteBuffer buffer) {
+        int hash = System.identityHashCode(buffer);
+        synchronized (this.leases) {
+            for (Lease lease = this.leases.get(hash); lease != null; lease = lease.next) {
+                if (lease.get() == buffer) {
+                    // a cleared reference is never enqueued, so a released buffer is not reported
+                    lease.clear();
+                    remove(lease);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void reportLeaks() {
+        Lease lease;
+        while ((lease = (Lease) this.collected.poll()) != null) {
+            synchronized (this.leases) {
+                remove(lease);
+            }
+            this.leaks.increment();
+            this.leased.decrementAndGet();
+            this.logger.debug("Buffer of {} bytes was collected without being released", lease.capacity,
+                    lease.origin);
+        }
+    }
+
+    private void remove(Lease lease) {
+        Lease first = this.leases.get(lease.hash);
+        if (first == lease) {
+            if (lease.next == null) {
+                this.leases.remove(lease.hash);
+            } else {
+                this.leases.put(lease.hash, lease.next);
+            }
+            return;
+        }
+        for (Lease previous = first; previous != null; previous = previous.next) {
+            if (previous.next == lease) {
+                previous.next = lease.next;
+                return;
+            }
+        }
+    }
+
+    private static int sizeClass(int capacity) {
+        int size = Math.max(capacity, 1 << MIN_CLASS_SHIFT);
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * An outstanding lease, chained with the other leases of the same identity hash code.
+     */
+    private static final class Lease extends WeakReference<ByteBuffer> {
+
+        private final int hash;
+        private final int capacity;
+        private final Throwable origin;
+        private Lease next;
+
+        Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.hash = System.identityHashCode(buffer);
+            this.capacity = buffer.capacity();
+            this.origin = new Throwable("Leased here");
+        }
+    }
+
+    private static final class Holder {
+        static final BufferPool INSTANCE = new BufferPool(
+                Boolean.parseBoolean(PropUtil.getPropVal("buffer.pool.direct", "true")),
+                PropUtil.getIntPropVal("http.max.header.bytes", 8192)
+                        + PropUtil.getIntPropVal("http.max.body.bytes", 1024 * 1024),
+                PropUtil.getIntPropVal("buffer.pool.class.cache.bytes", 4 * 1024 * 1024),
+                PropUtil.getIntPropVal("buffer.pool.thread.cache.size", 8),
+                Boolean.parseBoolean(PropUtil.getPropVal("buffer.pool.leak.detection", "false")));
+    }
+
+    public static BufferPool instance() {
+        return Holder.INSTANCE;
+    }
+}
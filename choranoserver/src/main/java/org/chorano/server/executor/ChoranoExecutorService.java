@@ -0,0 +1,378 @@
+package org.chorano.server.executor;
+
+import org.chorano.server.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executor that handles the requests of a chorano server.
+ *
+ * Every worker has its own lock-free queue, so submitters do not contend on a single queue. A task
+ * submitted by a worker goes to the worker's own queue, any other task to the queue of a random worker.
+ * A worker whose queue is empty steals the oldest task of another worker, but only while the queued task
+ * counter shows any, so idle workers do not scan each other's queues. An idle worker spins for
+ * executor.spin.count rounds before it parks for at most executor.park.nanos; a submitter unparks the
+ * owner of the queue (or another parked worker) so that a parked pool reacts immediately. The timeout
+ * only bounds the cost of a missed wake-up, so it is long enough for an idle pool to stay asleep.
+ *
+ * The number of queued tasks is bounded by executor.queue.capacity. Tasks beyond that are handled by the
+ * {@link RejectionPolicy}. With a {@link CoDelAdmissionController} every task is timed from submission to
+ * dequeue; tasks that waited too long are shed, and while the controller reports overload the queues
+ * are served newest first. Queue depth, steal, execution, rejection, shed and park counts are exposed to
+ * tune the settings.
+ */
+public class ChoranoExecutorService extends AbstractExecutorService {
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(ChoranoExecutorService.class);
+    private final Worker[] workers;
+    private final int capacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final int spinCount;
+    private final long parkNanos;
+    private final CoDelAdmissionController admission;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger parkedWorkers = new AtomicInteger();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder stolen = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+    private final CountDownLatch terminated;
+    private volatile int state = RUNNING;
+
+    /**
+     * @param threads         the number of worker threads
+     * @param capacity        the maximum number of queued tasks over all workers
+     * @param rejectionPolicy what to do with a task when the queues are full
+     * @param spinCount       the number of rounds an idle worker looks for work before it parks
+     * @param parkNanos       the longest time an idle worker parks before it looks for work again
+     * @param admission       sheds tasks that waited too long, null to run every task
+     */
+    public ChoranoExecutorService(int threads, int capacity, RejectionPolicy rejectionPolicy, int spinCount,
+                                  long parkNanos, CoDelAdmissionController admission) {
+        this.capacity = capacity;
+        this.rejectionPolicy = rejectionPolicy;
+        this.spinCount = spinCount;
+        this.parkNanos = parkNanos;
+        this.admission = admission;
+        this.terminated = new CountDownLatch(threads);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new Worker(i);
+        }
+        for (Worker worker : this.workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Creates an executor configured by the properties file.
+     *
+     * @return returns the executor
+     */
+    public static ChoranoExecutorService fromProperties() {
+        return new ChoranoExecutorService(
+                PropUtil.getIntPropVal("request.handler.thread.pool.size"),
+                PropUtil.getIntPropVal("executor.queue.capacity", 10000),
+                RejectionPolicy.fromProperty(PropUtil.getPropVal("executor.rejection.policy", "abort")),
+                PropUtil.getIntPropVal("executor.spin.count", 100),
+                PropUtil.getIntPropVal("executor.park.nanos", 100_000_000),
+                CoDelAdmissionController.fromProperties());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (this.state != RUNNING) {
+            reject(task, RejectionPolicy.ABORT);
+            return;
+        }
+        if (this.queued.incrementAndGet() > this.capacity) {
+            this.queued.decrementAndGet();
+            reject(task, this.rejectionPolicy);
+            return;
+        }
+        Worker target = currentWorker();
+        if (target == null) {
+            target = this.workers[ThreadLocalRandom.current().nextInt(this.workers.length)];
+        }
+        target.queue.offerLast(new QueuedTask(task, System.nanoTime()));
+        wakeUp(target);
+    }
+
+    /**
+     * @return returns the number of tasks waiting in the queues
+     */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getPoolSize() {
+        return this.workers.length;
+    }
+
+    /**
+     * @return returns the number of workers that currently have nothing to do
+     */
+    public int getParkedWorkers() {
+        return this.parkedWorkers.get();
+    }
+
+    public long getExecutedCount() {
+        return this.executed.sum();
+    }
+
+    /**
+     * @return returns the number of tasks that were run by a worker other than the one they were queued at
+     */
+    public long getStealCount() {
+        return this.stolen.sum();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return returns the number of tasks the admission controller refused after they waited too long
+     */
+    public long getShedCount() {
+        return this.shed.sum();
+    }
+
+    public boolean isOverloaded() {
+        return this.admission != null && this.admission.isOverloaded();
+    }
+
+    public long getParkCount() {
+        return this.parks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ChoranoExecutorService[threads=" + this.workers.length + ", queued=" + getQueueDepth()
+                + "/" + this.capacity + ", executed=" + getExecutedCount() + ", stolen=" + getStealCount()
+                + ", rejected=" + getRejectedCount() + ", shed=" + getShedCount() + ", parks=" + getParkCount() + "]";
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.state == RUNNING) {
+            this.state = SHUTDOWN;
+        }
+        for (Worker worker : this.workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.state = STOP;
+        List<Runnable> pending = new ArrayList<>();
+        for (Worker worker : this.workers) {
+            QueuedTask task;
+            while ((task = worker.queue.pollFirst()) != null) {
+                this.queued.decrementAndGet();
+                pending.add(task.task);
+            }
+            worker.thread.interrupt();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.state != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.terminated.await(timeout, unit);
+    }
+
+    private Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof WorkerThread && ((WorkerThread) thread).executor == this) {
+            return ((WorkerThread) thread).worker;
+        }
+        return null;
+    }
+
+    /**
+     * Unparks the owner of the queue a task was added to or, if it is busy, any other parked worker.
+     * The queued counter is incremented before the parked flags are read, and a worker sets its flag
+     * before it reads the counter, so a task is never left behind with every worker parked.
+     */
+    private void wakeUp(Worker target) {
+        if (target.parked) {
+            LockSupport.unpark(target.thread);
+            return;
+        }
+        if (this.parkedWorkers.get() > 0) {
+            for (Worker worker : this.workers) {
+                if (worker.parked) {
+                    LockSupport.unpark(worker.thread);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void reject(Runnable task, RejectionPolicy policy) {
+        this.rejected.increment();
+        switch (policy) {
+            case CALLER_RUNS:
+                task.run();
+                break;
+            case DISCARD:
+                if (task instanceof RejectableTask) {
+                    ((RejectableTask) task).onRejected();
+                }
+                break;
+            default:
+                throw new RejectedExecutionException("Queue capacity " + this.capacity + " reached or shut down");
+        }
+    }
+
+    private QueuedTask steal(int thief, boolean lifo) {
+        int count = this.workers.length;
+        int start = ThreadLocalRandom.current().nextInt(count);
+        for (int i = 0; i < count; i++) {
+            int victim = (start + i) % count;
+            if (victim == thief) {
+                continue;
+            }
+            ConcurrentLinkedDeque<QueuedTask> queue = this.workers[victim].queue;
+            QueuedTask task = lifo ? queue.pollLast() : queue.pollFirst();
+            if (task != null) {
+                this.stolen.increment();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final int index;
+        private final ConcurrentLinkedDeque<QueuedTask> queue = new ConcurrentLinkedDeque<>();
+        private final Thread thread;
+        private volatile boolean parked;
+
+        Worker(int index) {
+            this.index = index;
+            this.thread = new WorkerThread(ChoranoExecutorService.this, this);
+        }
+
+        @Override
+        public void run() {
+            int idleRounds = 0;
+            try {
+                while (state != STOP) {
+                    // adaptive LIFO: under overload the newest requests still have a client waiting for them
+                    boolean lifo = isOverloaded();
+                    QueuedTask task = lifo ? this.queue.pollLast() : this.queue.pollFirst();
+                    if (task == null && queued.get() > 0) {
+                        task = steal(this.index, lifo);
+                    }
+                    if (task != null) {
+                        queued.decrementAndGet();
+                        idleRounds = 0;
+                        runTask(task);
+                        continue;
+                    }
+                    if (state == SHUTDOWN && queued.get() == 0) {
+                        break;
+                    }
+                    if (idleRounds++ < spinCount) {
+                        continue;
+                    }
+                    park();
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private void runTask(QueuedTask queuedTask) {
+            Runnable task = queuedTask.task;
+            if (admission != null && !admission.admit(System.nanoTime(), queuedTask.enqueuedNanos)) {
+                shed.increment();
+                if (task instanceof RejectableTask) {
+                    ((RejectableTask) task).onRejected();
+                }
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                logger.debug("Task failed on {}: {}", this.thread.getName(), e);
+            }
+            executed.increment();
+        }
+
+        private void park() {
+            this.parked = true;
+            parkedWorkers.incrementAndGet();
+            if (queued.get() == 0 && state == RUNNING) {
+                parks.increment();
+                LockSupport.parkNanos(this, parkNanos);
+            }
+            parkedWorkers.decrementAndGet();
+            this.parked = false;
+        }
+    }
+
+    /**
+     * Lets a submitter find its own worker without searching the pool.
+     */
+    private static final class WorkerThread extends Thread {
+
+        private final ChoranoExecutorService executor;
+        private final Worker worker;
+
+        WorkerThread(ChoranoExecutorService executor, Worker worker) {
+            super(worker, "chorano-worker-" + worker.index);
+            this.executor = executor;
+            this.worker = worker;
+        }
+    }
+
+    private static final class QueuedTask {
+
+        private final Runnable task;
+        private final long enqueuedNanos;
+
+        QueuedTask(Runnable task, long enqueuedNanos) {
+            this.task = task;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
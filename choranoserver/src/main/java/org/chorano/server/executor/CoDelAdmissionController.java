@@ -0,0 +1,77 @@
+package org.chorano.server.executor;
+
+import org.chorano.server.util.PropUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control based on CoDel (controlled delay) as used for server request queues.
+ *
+ * Every task reports how long it waited in the queue when a worker picks it up. If even the shortest
+ * wait within an interval exceeds the target, the queue is not draining and the server is overloaded.
+ * While overloaded a task that waited longer than the target is shed; otherwise only a task that waited
+ * longer than a whole interval is shed. A shed task is answered right away (see
+ * {@link RejectableTask#onRejected()}) instead of being served after the client has given up.
+ *
+ * The executor also switches its queues to LIFO order while overloaded (adaptive LIFO), so that fresh
+ * requests are served first and stale ones are shed once they are finally dequeued.
+ */
+public class CoDelAdmissionController {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final AtomicLong intervalEnd;
+    private final AtomicLong minDelay = new AtomicLong(Long.MAX_VALUE);
+    private volatile boolean overloaded;
+
+    /**
+     * @param targetMs   the queue wait that is acceptable even under load
+     * @param intervalMs the window in which the wait has to drop below the target at least once
+     */
+    public CoDelAdmissionController(long targetMs, long intervalMs) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.intervalEnd = new AtomicLong(System.nanoTime() + this.intervalNanos);
+    }
+
+    /**
+     * @return returns the controller configured by the properties file or null if it is disabled
+     */
+    public static CoDelAdmissionController fromProperties() {
+        if (!Boolean.parseBoolean(PropUtil.getPropVal("admission.codel.enabled", "true"))) {
+            return null;
+        }
+        return new CoDelAdmissionController(PropUtil.getIntPropVal("admission.codel.target.ms", 5),
+                PropUtil.getIntPropVal("admission.codel.interval.ms", 100));
+    }
+
+    /**
+     * Called by a worker when it dequeues a task.
+     *
+     * @param nowNanos      the current time
+     * @param enqueuedNanos the time the task was queued
+     * @return returns true if the task should run, false if it should be shed
+     */
+    public boolean admit(long nowNanos, long enqueuedNanos) {
+        long delay = nowNanos - enqueuedNanos;
+        long end = this.intervalEnd.get();
+        if (nowNanos >= end && this.intervalEnd.compareAndSet(end, nowNanos + this.intervalNanos)) {
+            // one worker closes the interval; the others keep recording into the next one
+            this.overloaded = this.minDelay.getAndSet(delay) > this.targetNanos;
+        } else {
+            long min;
+            while (delay < (min = this.minDelay.get()) && !this.minDelay.compareAndSet(min, delay)) {
+                // retry until the smaller delay is recorded or another worker recorded an even smaller one
+            }
+        }
+        return delay <= (this.overloaded ? this.targetNanos : this.intervalNanos);
+    }
+
+    /**
+     * @return returns true if the queue has not drained below the target during the last interval
+     */
+    public boolean isOverloaded() {
+        return this.overloaded;
+    }
+}
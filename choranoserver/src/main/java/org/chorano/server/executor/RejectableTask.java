@@ -0,0 +1,13 @@
+package org.chorano.server.executor;
+
+/**
+ * A task that owns a resource (e.g. a socket) and must release it if the executor refuses to run it.
+ */
+public interface RejectableTask extends Runnable {
+
+    /**
+     * Called instead of {@link #run()} when the task is discarded by the executor.
+     */
+    void onRejected();
+
+}
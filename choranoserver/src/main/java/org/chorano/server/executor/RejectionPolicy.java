@@ -0,0 +1,26 @@
+package org.chorano.server.executor;
+
+/**
+ * What {@link ChoranoExecutorService} does with a task once its queues are full.
+ */
+public enum RejectionPolicy {
+
+    /**
+     * Throws a {@link java.util.concurrent.RejectedExecutionException} to the submitter.
+     */
+    ABORT,
+
+    /**
+     * Runs the task on the submitting thread, which slows down the submitter (e.g. the accept loop).
+     */
+    CALLER_RUNS,
+
+    /**
+     * Drops the task; a {@link RejectableTask} is told so that it can release its resources.
+     */
+    DISCARD;
+
+    public static RejectionPolicy fromProperty(String value) {
+        return RejectionPolicy.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,92 @@
+package org.chorano.server.executor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates an executor that runs every task on its own virtual thread.
+ *
+ * This is the version for runtimes older than Java 21, which looks the JDK method up reflectively and
+ * reports no support when it is missing or cannot be called, as on Java 19 and 20 without
+ * --enable-preview. The multi-release jar carries a Java 21 version of this class (src/main/java21) that
+ * uses the API directly.
+ */
+public final class VirtualThreads {
+
+    private static final boolean SUPPORTED = probe();
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * @return returns true if the runtime can create virtual threads
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * @param thread the thread
+     * @return returns true if the thread is a virtual thread, which lives for a single task and should not
+     * keep per-thread caches
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return returns a thread-per-task executor on virtual threads or null if the runtime has none
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method method = factoryMethod();
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return returns true if an executor could actually be created
+     */
+    private static boolean probe() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Method factoryMethod() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
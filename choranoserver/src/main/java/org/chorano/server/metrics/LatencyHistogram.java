@@ -0,0 +1,109 @@
+package org.chorano.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free, allocation-free histogram of non-negative values (e.g. latencies in microseconds) in the
+ * style of HdrHistogram. Values are counted in log-linear buckets: below 32 every value has its own
+ * bucket, above that every power of two is split into 16 buckets, so a recorded value is off by at most
+ * 1/16 (~6%). Values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ *
+ * Recording is an atomic increment of the bucket plus an addition to the sum, and is safe from any number
+ * of threads.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1;
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        long bounded = Math.min(Math.max(value, 0), MAX_VALUE);
+        this.counts.incrementAndGet(indexOf(bounded));
+        this.sum.add(bounded);
+    }
+
+    /**
+     * @return returns the sum of the recorded values
+     */
+    public long sum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return returns the number of recorded values
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            total += this.counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile the percentile in (0, 100], e.g. 99
+     * @return returns the highest value equivalent to the percentile or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * @return returns the number of buckets, see {@link #bucketCount(int)}
+     */
+    public int bucketLength() {
+        return this.counts.length();
+    }
+
+    public long bucketCount(int index) {
+        return this.counts.get(index);
+    }
+
+    /**
+     * @return returns the largest value counted in the bucket
+     */
+    public static long highestEquivalentValue(int index) {
+        return index + 1 == indexOf(MAX_VALUE) + 1 ? MAX_VALUE : lowestValue(index + 1) - 1;
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0);
+        }
+        this.sum.reset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return exponent * HALF_SUB_BUCKET_COUNT + (int) (value >>> exponent);
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / HALF_SUB_BUCKET_COUNT - 1;
+        return (long) (index - exponent * HALF_SUB_BUCKET_COUNT) << exponent;
+    }
+}
@@ -0,0 +1,90 @@
+package org.chorano.server.metrics;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.chorano.server.service.ZkService;
+import org.chorano.server.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the load of the server into the data of its zookeeper node. The load is sampled every
+ * zk.load.report.interval.ms but only written when it differs from the published load by more than
+ * zk.load.report.change.threshold percent, so an evenly loaded cluster causes (almost) no zookeeper
+ * writes while clients still learn about a server that saturates within one interval.
+ */
+public class LoadReportPublisher {
+
+    private final Logger logger = LoggerFactory.getLogger(LoadReportPublisher.class);
+    private final ZkService zkService;
+    private final ZooKeeper zooKeeper;
+    private final String path;
+    private final String location;
+    private final ServerLoadMonitor monitor;
+    private final long intervalMs;
+    private final int thresholdPercent;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "chorano-load-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerLoadReport published;
+
+    /**
+     * @param zkService        the zookeeper service
+     * @param zooKeeper        the zookeeper client
+     * @param path             the node of the server, e.g. "/chorano/x_0000000001"
+     * @param published        the report the node was created with
+     * @param monitor          the load monitor of the server
+     * @param intervalMs       the time between two samples
+     * @param thresholdPercent the relative change of a value that is published
+     */
+    public LoadReportPublisher(ZkService zkService, ZooKeeper zooKeeper, String path, ServerLoadReport published,
+                               ServerLoadMonitor monitor, long intervalMs, int thresholdPercent) {
+        this.zkService = zkService;
+        this.zooKeeper = zooKeeper;
+        this.path = path;
+        this.location = published.getLocation();
+        this.published = published;
+        this.monitor = monitor;
+        this.intervalMs = intervalMs;
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /**
+     * Creates a publisher configured by the properties file.
+     */
+    public static LoadReportPublisher fromProperties(ZkService zkService, ZooKeeper zooKeeper, String path,
+                                                     ServerLoadReport published) {
+        return new LoadReportPublisher(zkService, zooKeeper, path, published, ServerLoadMonitor.instance(),
+                PropUtil.getIntPropVal("zk.load.report.interval.ms", 1000),
+                PropUtil.getIntPropVal("zk.load.report.change.threshold", 20));
+    }
+
+    public void start() {
+        this.scheduler.scheduleWithFixedDelay(this::publish, this.intervalMs, this.intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    private void publish() {
+        try {
+            ServerLoadReport report = this.monitor.report(this.location);
+            if (!report.differsFrom(this.published, this.thresholdPercent)) {
+                return;
+            }
+            if (this.zkService.setNodeData(this.zooKeeper, this.path, report.toBytes())) {
+                this.logger.debug("Published {}", report);
+                this.published = report;
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule; the next interval tries again
+            this.logger.debug("Unable to publish load report: {}", e);
+        }
+    }
+}
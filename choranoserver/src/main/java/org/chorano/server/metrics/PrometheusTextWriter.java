@@ -0,0 +1,62 @@
+package org.chorano.server.metrics;
+
+/**
+ * Renders metrics in the Prometheus text exposition format (version 0.0.4).
+ *
+ * A {@link LatencyHistogram} of nanoseconds is exported with a fixed set of buckets in seconds. Its fine
+ * buckets are summed up into the exported ones, so a bucket boundary is as precise as the histogram.
+ */
+final class PrometheusTextWriter {
+
+    private static final long[] BUCKET_NANOS = {
+            1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 500_000L,
+            1_000_000L, 5_000_000L, 10_000_000L, 50_000_000L, 100_000_000L, 500_000_000L,
+            1_000_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final StringBuilder text = new StringBuilder(4096);
+
+    void counter(String name, String help, long value) {
+        header(name, help, "counter");
+        this.text.append(name).append(' ').append(value).append('\n');
+    }
+
+    void gauge(String name, String help, long value) {
+        header(name, help, "gauge");
+        this.text.append(name).append(' ').append(value).append('\n');
+    }
+
+    void histogram(String name, String help, LatencyHistogram histogram) {
+        header(name, help, "histogram");
+        long cumulative = 0;
+        int bucket = 0;
+        for (int i = 0; i < histogram.bucketLength(); i++) {
+            long upper = LatencyHistogram.highestEquivalentValue(i);
+            while (bucket < BUCKET_NANOS.length && upper > BUCKET_NANOS[bucket]) {
+                bucket(name, Double.toString(BUCKET_NANOS[bucket++] / NANOS_PER_SECOND), cumulative);
+            }
+            cumulative += histogram.bucketCount(i);
+        }
+        while (bucket < BUCKET_NANOS.length) {
+            bucket(name, Double.toString(BUCKET_NANOS[bucket++] / NANOS_PER_SECOND), cumulative);
+        }
+        bucket(name, "+Inf", cumulative);
+        this.text.append(name).append("_sum ").append(histogram.sum() / NANOS_PER_SECOND).append('\n');
+        this.text.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private void bucket(String name, String le, long count) {
+        this.text.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(count).append('\n');
+    }
+
+    private void header(String name, String help, String type) {
+        this.text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        this.text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return this.text.toString();
+    }
+}
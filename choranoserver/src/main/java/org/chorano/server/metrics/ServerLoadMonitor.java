@@ -0,0 +1,92 @@
+package org.chorano.server.metrics;
+
+import org.chorano.server.request.binary.BinaryFrames;
+import org.chorano.server.util.PropUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Uses initialization on demand holder pattern to initialize a single load monitor object.
+ *
+ * Tracks the load of the server: the requests that have been read but not yet answered, the latency from
+ * reading a request to writing its response, and the depth of the request queue. Latencies are recorded
+ * into one of two histograms; every {@link #report(String)} swaps them, so the p99 always covers the
+ * last report interval only.
+ *
+ * server.capacity (default request.handler.thread.pool.size) and server.weight (default 100) are
+ * published unchanged so that clients can weigh servers of different size, as are the supported protocols.
+ */
+public final class ServerLoadMonitor {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int capacity = PropUtil.getIntPropVal("server.capacity",
+            PropUtil.getIntPropVal("request.handler.thread.pool.size", 1));
+    private final int weight = PropUtil.getIntPropVal("server.weight", 100);
+    private final int protocols = ServerLoadReport.PROTOCOL_HTTP
+            | (BinaryFrames.ENABLED ? ServerLoadReport.PROTOCOL_BINARY : 0);
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private LatencyHistogram spareLatencies = new LatencyHistogram();
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    private ServerLoadMonitor() {
+
+    }
+
+    /**
+     * Called once a complete request has been read.
+     *
+     * @return returns the start time to pass to {@link #requestCompleted(long)}
+     */
+    public long requestStarted() {
+        this.inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called once the response of a request has been written or the request was dropped.
+     *
+     * @param startNanos the time returned by {@link #requestStarted()}
+     */
+    public void requestCompleted(long startNanos) {
+        this.inFlight.decrementAndGet();
+        this.latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @param queueDepth the source of the number of queued requests, e.g. the executor of the server
+     */
+    public void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Reports the current load and starts a new latency interval. Called by a single thread only.
+     *
+     * @param location the location of the server, e.g. localhost:8111
+     * @return returns the load report
+     */
+    public ServerLoadReport report(String location) {
+        LatencyHistogram interval = this.latencies;
+        this.latencies = this.spareLatencies;
+        // a recorder that still holds the old histogram adds at most a few values to the next interval
+        long p99 = interval.percentile(99);
+        interval.reset();
+        this.spareLatencies = interval;
+        return new ServerLoadReport(location, this.inFlight.get(), this.queueDepth.getAsInt(),
+                (int) Math.min(p99, Integer.MAX_VALUE), this.capacity, this.weight, this.protocols);
+    }
+
+    private static final class Holder {
+        static final ServerLoadMonitor INSTANCE = new ServerLoadMonitor();
+    }
+
+    public static ServerLoadMonitor instance() {
+        return Holder.INSTANCE;
+    }
+}
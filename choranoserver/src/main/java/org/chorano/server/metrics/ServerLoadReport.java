@@ -0,0 +1,122 @@
+package org.chorano.server.metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Load of a chorano server as published in the data of its zookeeper node "/chorano/x_n".
+ *
+ * Binary layout (big endian):
+ * <pre>
+ * byte   0x00 marker, never the first byte of the plain "host:port" data of older servers
+ * byte   version
+ * short  length of the location, followed by the location in UTF-8 (e.g. localhost:8111)
+ * int    in-flight requests
+ * int    queue depth
+ * int    p99 latency of the last interval in microseconds
+ * int    capacity
+ * int    weight
+ * byte   supported protocols, a bitmask of PROTOCOL_ constants (since version 2)
+ * </pre>
+ * Later versions only append fields, so a reader can decode the fields it knows from any version.
+ */
+public final class ServerLoadReport {
+
+    public static final byte MARKER = 0;
+    public static final byte VERSION = 2;
+    public static final int PROTOCOL_HTTP = 1;
+    public static final int PROTOCOL_BINARY = 2;
+
+    private final String location;
+    private final int inFlight;
+    private final int queueDepth;
+    private final int p99Micros;
+    private final int capacity;
+    private final int weight;
+    private final int protocols;
+
+    public ServerLoadReport(String location, int inFlight, int queueDepth, int p99Micros, int capacity,
+                            int weight, int protocols) {
+        this.location = location;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.p99Micros = p99Micros;
+        this.capacity = capacity;
+        this.weight = weight;
+        this.protocols = protocols;
+    }
+
+    public byte[] toBytes() {
+        byte[] locationBytes = this.location.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + locationBytes.length + 5 * 4 + 1)
+                .put(MARKER)
+                .put(VERSION)
+                .putShort((short) locationBytes.length)
+                .put(locationBytes)
+                .putInt(this.inFlight)
+                .putInt(this.queueDepth)
+                .putInt(this.p99Micros)
+                .putInt(this.capacity)
+                .putInt(this.weight)
+                .put((byte) this.protocols)
+                .array();
+    }
+
+    /**
+     * Tells whether this report is worth publishing over the previously published one. A field has
+     * changed when it differs by more than the given percentage of its published value; small absolute
+     * changes (a single request, less than a millisecond of latency) never count.
+     *
+     * @param published        the report currently in zookeeper
+     * @param thresholdPercent the relative change that is significant
+     * @return returns true if the report should be published
+     */
+    public boolean differsFrom(ServerLoadReport published, int thresholdPercent) {
+        return !this.location.equals(published.location)
+                || this.capacity != published.capacity
+                || this.weight != published.weight
+                || this.protocols != published.protocols
+                || differs(this.inFlight, published.inFlight, thresholdPercent, 1)
+                || differs(this.queueDepth, published.queueDepth, thresholdPercent, 1)
+                || differs(this.p99Micros, published.p99Micros, thresholdPercent, 1000);
+    }
+
+    private static boolean differs(long value, long published, int thresholdPercent, long minDelta) {
+        return Math.abs(value - published) > Math.max(minDelta, published * thresholdPercent / 100);
+    }
+
+    public String getLocation() {
+        return this.location;
+    }
+
+    public int getInFlight() {
+        return this.inFlight;
+    }
+
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public int getP99Micros() {
+        return this.p99Micros;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getWeight() {
+        return this.weight;
+    }
+
+    public int getProtocols() {
+        return this.protocols;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerLoadReport[location=" + this.location + ", inFlight=" + this.inFlight + ", queueDepth="
+                + this.queueDepth + ", p99Micros=" + this.p99Micros + ", capacity=" + this.capacity
+                + ", weight=" + this.weight + ", protocols=" + this.protocols + "]";
+    }
+}
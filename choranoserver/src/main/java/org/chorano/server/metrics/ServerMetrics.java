@@ -0,0 +1,112 @@
+package org.chorano.server.metrics;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.request.response.ResponseCompression;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Uses initialization on demand holder pattern to initialize a single metrics object.
+ *
+ * Per-stage instrumentation of the request path, all in nanoseconds:
+ * <ul>
+ *     <li>queue wait: from accepting a connection (socket) or dispatching a request (nio) until a thread
+ *     picks it up</li>
+ *     <li>parse: the time spent in the http parser, without waiting for bytes</li>
+ *     <li>handler: building the response</li>
+ *     <li>write: writing the response to the socket</li>
+ * </ul>
+ * plus the bytes received and sent and the open connections. Recording only increments counters, so it
+ * is lock-free and does not allocate on the request path. {@link #scrape()} renders everything in the
+ * Prometheus text format.
+ */
+public final class ServerMetrics {
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram handler = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private ServerMetrics() {
+
+    }
+
+    public void recordQueueWait(long nanos) {
+        this.queueWait.record(nanos);
+    }
+
+    public void recordParse(long nanos) {
+        this.parse.record(nanos);
+    }
+
+    public void recordHandler(long nanos) {
+        this.handler.record(nanos);
+    }
+
+    public void recordWrite(long nanos) {
+        this.write.record(nanos);
+    }
+
+    public void bytesReceived(long bytes) {
+        this.bytesReceived.add(bytes);
+    }
+
+    public void bytesSent(long bytes) {
+        this.bytesSent.add(bytes);
+    }
+
+    public void connectionOpened() {
+        this.activeConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        this.activeConnections.decrementAndGet();
+    }
+
+    public int getActiveConnections() {
+        return this.activeConnections.get();
+    }
+
+    /**
+     * @return returns all metrics in the Prometheus text format
+     */
+    public ByteBuffer scrape() {
+        PrometheusTextWriter text = new PrometheusTextWriter();
+        text.histogram("chorano_request_queue_wait_seconds",
+                "Time from accept (socket) or dispatch (nio) until a thread picks the request up", this.queueWait);
+        text.histogram("chorano_request_parse_seconds", "Time spent parsing requests", this.parse);
+        text.histogram("chorano_request_handler_seconds", "Time spent building responses", this.handler);
+        text.histogram("chorano_response_write_seconds", "Time spent writing responses", this.write);
+        text.counter("chorano_received_bytes_total", "Request bytes read from the sockets",
+                this.bytesReceived.sum());
+        text.counter("chorano_sent_bytes_total", "Response bytes written to the sockets", this.bytesSent.sum());
+        text.gauge("chorano_active_connections", "Open client connections", this.activeConnections.get());
+        text.gauge("chorano_requests_in_flight", "Requests read but not yet answered",
+                ServerLoadMonitor.instance().getInFlight());
+        BufferPool pool = BufferPool.instance();
+        text.gauge("chorano_buffers_leased", "I/O buffers leased from the pool", pool.getLeasedCount());
+        text.counter("chorano_buffers_allocated_total", "I/O buffers the pool had to allocate",
+                pool.getAllocatedCount());
+        text.counter("chorano_buffers_leaked_total", "I/O buffers collected without being released",
+                pool.getLeakCount());
+        text.counter("chorano_responses_compressed_total", "Response bodies compressed",
+                ResponseCompression.getCompressedCount());
+        text.counter("chorano_compression_cache_hits_total", "Response bodies served from the compressed cache",
+                ResponseCompression.getCacheHitCount());
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Holder {
+        static final ServerMetrics INSTANCE = new ServerMetrics();
+    }
+
+    public static ServerMetrics instance() {
+        return Holder.INSTANCE;
+    }
+}
@@ -0,0 +1,270 @@
+package org.chorano.server.nio;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.executor.RejectableTask;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerMetrics;
+import org.chorano.server.request.binary.BinaryFrameDecoder;
+import org.chorano.server.request.binary.BinaryFrames;
+import org.chorano.server.request.handler.HttpRequestHandler;
+import org.chorano.server.request.handler.KeepAlivePolicy;
+import org.chorano.server.util.PropUtil;
+import org.chorano.server.util.ServerStatusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of a non-blocking connection that speaks the binary protocol (see {@link BinaryFrames}). All
+ * methods are called by the owning {@link NioEventLoop} thread only.
+ *
+ * Unlike http, every frame goes to the workers as soon as it is complete, so the requests of one
+ * connection are served concurrently and their responses are written in the order they finish. At most
+ * binary.max.outstanding.requests frames per connection are with the workers; beyond that the connection
+ * stops reading until responses have been written. Payload copies and response frames are leased from the
+ * {@link BufferPool} and go back to it once they have been served and written.
+ */
+final class NioBinaryConnection implements NioChannelHandler {
+
+    private static final int MAX_OUTSTANDING = PropUtil.getIntPropVal("binary.max.outstanding.requests", 128);
+    private static final int MAX_GATHER = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(NioBinaryConnection.class);
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final BinaryFrameDecoder decoder = new BinaryFrameDecoder(HttpRequestHandler.MAX_BODY_BYTES);
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private ByteBuffer readBuffer;
+    private boolean prefaceSeen;
+    private boolean closeAfterWrite;
+    private boolean closed;
+    private int outstanding;
+    private long lastActivityNanos = System.nanoTime();
+
+    /**
+     * @param readBuffer the leased buffer holding the bytes read so far, starting with (part of) the preface
+     */
+    NioBinaryConnection(NioEventLoop loop, SocketChannel channel, SelectionKey key, ByteBuffer readBuffer) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.readBuffer = readBuffer;
+    }
+
+    @Override
+    public void onReadable() throws IOException {
+        ByteBuffer buffer = HttpRequestHandler.ensureWritable(this.readBuffer);
+        if (buffer == null) {
+            this.logger.debug("Frame exceeds the size limits, closing connection");
+            failConnection();
+            return;
+        }
+        this.readBuffer = buffer;
+        int count = this.channel.read(this.readBuffer);
+        if (count < 0) {
+            close();
+            return;
+        }
+        ServerMetrics.instance().bytesReceived(count);
+        this.lastActivityNanos = System.nanoTime();
+        dispatchFrames();
+    }
+
+    /**
+     * Hands every complete frame in the read buffer to the workers, up to the outstanding limit.
+     */
+    void dispatchFrames() throws IOException {
+        if (ServerStatusUtil.instance().isStopServer()) {
+            close();
+            return;
+        }
+        if (!this.prefaceSeen) {
+            int preface = BinaryFrames.matchPreface(this.readBuffer);
+            if (preface == 0) {
+                return;
+            }
+            if (preface < 0) {
+                close();
+                return;
+            }
+            HttpRequestHandler.consume(this.readBuffer, BinaryFrames.prefaceLength());
+            this.prefaceSeen = true;
+        }
+        while (!this.closeAfterWrite && this.outstanding < MAX_OUTSTANDING) {
+            BinaryFrameDecoder.Result result = this.decoder.decode(this.readBuffer);
+            if (result == BinaryFrameDecoder.Result.INCOMPLETE) {
+                break;
+            }
+            if (result == BinaryFrameDecoder.Result.INVALID) {
+                this.logger.debug("Closing connection after a malformed frame");
+                failConnection();
+                return;
+            }
+            // the read buffer is compacted right away, so the worker gets its own copy of the payload
+            ByteBuffer view = this.decoder.payload(this.readBuffer);
+            ByteBuffer payload = BufferPool.instance().lease(view.remaining());
+            payload.put(view).flip();
+            int requestId = this.decoder.requestId();
+            HttpRequestHandler.consume(this.readBuffer, this.decoder.frameLength());
+            this.outstanding++;
+            FrameTask task = new FrameTask(requestId, payload, ServerLoadMonitor.instance().requestStarted());
+            try {
+                this.loop.workers().execute(task);
+            } catch (RejectedExecutionException e) {
+                task.onRejected();
+            }
+        }
+        updateInterest();
+    }
+
+    /**
+     * Queues the response of a frame. Called from a worker thread.
+     */
+    private void respond(ByteBuffer frame, long startNanos) {
+        this.loop.execute(() -> {
+            ServerLoadMonitor.instance().requestCompleted(startNanos);
+            this.outstanding--;
+            if (this.closed) {
+                BufferPool.instance().release(frame);
+                return;
+            }
+            this.pendingWrites.add(frame);
+            try {
+                onWritable();
+                // reading may have been paused by the outstanding limit
+                dispatchFrames();
+            } catch (IOException e) {
+                this.logger.debug("Unable to write response: {}", e.getMessage());
+                close();
+            } catch (RuntimeException | InternalError e) {
+                this.logger.debug("Unable to write response: {}", e);
+                close();
+            }
+        });
+    }
+
+    @Override
+    public void onWritable() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        while (!this.pendingWrites.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer frame : this.pendingWrites) {
+                if (count == MAX_GATHER) {
+                    break;
+                }
+                this.gather[count++] = frame;
+            }
+            long written = this.channel.write(this.gather, 0, count);
+            ServerMetrics.instance().bytesSent(written);
+            while (!this.pendingWrites.isEmpty() && !this.pendingWrites.peekFirst().hasRemaining()) {
+                BufferPool.instance().release(this.pendingWrites.pollFirst());
+            }
+            if (this.gather[count - 1].hasRemaining()) {
+                // socket send buffer is full, continue once the selector reports it writable
+                break;
+            }
+        }
+        for (int i = 0; i < MAX_GATHER; i++) {
+            this.gather[i] = null;
+        }
+        this.lastActivityNanos = System.nanoTime();
+        if (this.closeAfterWrite && this.pendingWrites.isEmpty()) {
+            close();
+            return;
+        }
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if (this.closed || !this.key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!this.closeAfterWrite && this.outstanding < MAX_OUTSTANDING) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!this.pendingWrites.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        this.key.interestOps(ops);
+    }
+
+    /**
+     * Answers a malformed or oversized frame with an error frame and closes the connection once it is out.
+     */
+    private void failConnection() throws IOException {
+        this.closeAfterWrite = true;
+        this.pendingWrites.add(BinaryFrames.response(0, BinaryFrames.STATUS_ERROR));
+        onWritable();
+    }
+
+    @Override
+    public boolean isIdle(long nowNanos) {
+        return this.outstanding == 0 && this.pendingWrites.isEmpty()
+                && nowNanos - this.lastActivityNanos > KeepAlivePolicy.idleTimeoutMs() * 1_000_000L;
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        ServerMetrics.instance().connectionClosed();
+        this.key.cancel();
+        NioEventLoop.closeQuietly(this.channel);
+        BufferPool.instance().release(this.readBuffer);
+        this.readBuffer = null;
+        ByteBuffer frame;
+        while ((frame = this.pendingWrites.pollFirst()) != null) {
+            BufferPool.instance().release(frame);
+        }
+    }
+
+    /**
+     * Serves a single frame on a worker thread.
+     */
+    private final class FrameTask implements RejectableTask {
+
+        private final int requestId;
+        private final ByteBuffer payload;
+        private final long startNanos;
+
+        FrameTask(int requestId, ByteBuffer payload, long startNanos) {
+            this.requestId = requestId;
+            this.payload = payload;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void run() {
+            long handlerStart = System.nanoTime();
+            ServerMetrics.instance().recordQueueWait(handlerStart - this.startNanos);
+            HttpRequestHandler.checkStop(this.payload);
+            ByteBuffer frame = BinaryFrames.response(this.requestId, BinaryFrames.STATUS_OK,
+                    HttpRequestHandler.SERVING, this.payload);
+            BufferPool.instance().release(this.payload);
+            ServerMetrics.instance().recordHandler(System.nanoTime() - handlerStart);
+            respond(frame, this.startNanos);
+        }
+
+        /**
+         * The frame was shed or did not fit into the queues; the client gets a rejected frame instead.
+         */
+        @Override
+        public void onRejected() {
+            BufferPool.instance().release(this.payload);
+            respond(BinaryFrames.response(this.requestId, BinaryFrames.STATUS_REJECTED), this.startNanos);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.chorano.server.nio;
+
+import java.io.IOException;
+
+/**
+ * Protocol state of a connection attached to a selection key of a {@link NioEventLoop}. Called by the
+ * loop thread only.
+ */
+interface NioChannelHandler {
+
+    void onReadable() throws IOException;
+
+    void onWritable() throws IOException;
+
+    /**
+     * @param nowNanos the current time
+     * @return returns true if the connection has been waiting for a request for longer than the idle timeout
+     */
+    boolean isIdle(long nowNanos);
+
+    void close();
+}
@@ -0,0 +1,421 @@
+package org.chorano.server.nio;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.executor.RejectableTask;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerMetrics;
+import org.chorano.server.request.binary.BinaryFrames;
+import org.chorano.server.request.handler.HttpRequestHandler;
+import org.chorano.server.request.handler.KeepAlivePolicy;
+import org.chorano.server.request.handler.ChecksumBodyHandler;
+import org.chorano.server.request.handler.MetricsEndpoint;
+import org.chorano.server.request.handler.RequestBodyHandler;
+import org.chorano.server.request.handler.StaticContentHandler;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+import org.chorano.server.request.response.ResponseCompression;
+import org.chorano.server.util.ServerStatusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of a single non-blocking http connection. All methods except {@link #respond(boolean)} are
+ * called by the owning {@link NioEventLoop} thread only.
+ *
+ * Only one request per connection is with the workers at a time. Pipelined requests wait in the read
+ * buffer (or the socket) until the response of the previous one has been written, so responses always go
+ * out in request order.
+ *
+ * The read buffer is leased from the {@link BufferPool} when bytes arrive and goes back to it as soon as
+ * every request in it has been answered, so idle keep-alive connections hold no buffer.
+ *
+ * A body above http.max.body.bytes is streamed: every part goes to a worker on its own and the
+ * connection stops reading until the part has been handled, which holds back a client that sends faster
+ * than the server consumes.
+ */
+final class NioConnection implements NioChannelHandler {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final HttpResponseWriter writer = new HttpResponseWriter();
+    private final HttpRequestParser parser = HttpRequestHandler.newParser();
+    private RequestBodyHandler bodyHandler;
+    private ByteBuffer readBuffer;
+    private boolean requestInFlight;
+    private boolean workerHoldsBuffer;
+    private boolean responsePending;
+    private boolean closeAfterWrite;
+    private boolean closed;
+    private int servedRequests;
+    private boolean requestCounted;
+    private long requestStartNanos;
+    private long parseNanos;
+    private long writeStartNanos;
+    private long lastActivityNanos = System.nanoTime();
+
+    NioConnection(NioEventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        ServerMetrics.instance().connectionOpened();
+    }
+
+    @Override
+    public void onReadable() throws IOException {
+        if (this.readBuffer == null) {
+            this.readBuffer = BufferPool.instance().lease(INITIAL_BUFFER_SIZE);
+        }
+        ByteBuffer buffer = HttpRequestHandler.ensureWritable(this.readBuffer);
+        if (buffer == null) {
+            this.logger.debug("Request exceeds the size limits, closing connection");
+            reject(HttpRequestParser.STATUS_PAYLOAD_TOO_LARGE);
+            return;
+        }
+        this.readBuffer = buffer;
+        int count = this.channel.read(this.readBuffer);
+        if (count < 0) {
+            close();
+            return;
+        }
+        ServerMetrics.instance().bytesReceived(count);
+        this.lastActivityNanos = System.nanoTime();
+        if (this.servedRequests == 0 && !this.requestInFlight && BinaryFrames.startsWithPreface(this.readBuffer)) {
+            switchToBinary();
+            return;
+        }
+        dispatchNextRequest();
+    }
+
+    /**
+     * The client speaks the binary protocol; a {@link NioBinaryConnection} takes over the key and the bytes
+     * read so far.
+     */
+    private void switchToBinary() throws IOException {
+        // the binary connection owns the channel and its place in the connection count from now on
+        this.closed = true;
+        NioBinaryConnection binary = new NioBinaryConnection(this.loop, this.channel, this.key, this.readBuffer);
+        this.readBuffer = null;
+        this.key.attach(binary);
+        binary.dispatchFrames();
+    }
+
+    /**
+     * Hands the next complete request in the read buffer to the workers. Stops reading from the socket
+     * until its response has been written; the request stays in the read buffer until then.
+     */
+    private void dispatchNextRequest() {
+        if (this.requestInFlight || this.readBuffer == null) {
+            return;
+        }
+        long parseStart = System.nanoTime();
+        HttpRequestParser.Result result = this.parser.parse(this.readBuffer);
+        this.parseNanos += System.nanoTime() - parseStart;
+        if (result == HttpRequestParser.Result.INCOMPLETE) {
+            return;
+        }
+        if (result == HttpRequestParser.Result.BODY_PART) {
+            dispatchBodyPart();
+            return;
+        }
+        ServerMetrics.instance().recordParse(this.parseNanos);
+        this.parseNanos = 0;
+        if (ServerStatusUtil.instance().isStopServer()) {
+            close();
+            return;
+        }
+        if (result == HttpRequestParser.Result.INVALID) {
+            this.logger.debug("Rejecting malformed request with status {}", this.parser.errorStatus());
+            reject(this.parser.errorStatus());
+            return;
+        }
+        this.servedRequests++;
+        boolean keepAlive = KeepAlivePolicy.keepAlive(this.parser, this.readBuffer, this.servedRequests);
+        if (MetricsEndpoint.matches(this.parser, this.readBuffer)) {
+            // answered on the loop thread so that scraping neither waits for nor adds to the worker queues
+            this.requestInFlight = true;
+            this.key.interestOps(0);
+            MetricsEndpoint.buildResponse(keepAlive, this.writer);
+            respond(keepAlive);
+            return;
+        }
+        boolean content = StaticContentHandler.matches(this.parser, this.readBuffer);
+        ByteBuffer entity = this.parser.isStreaming() || content ? null : this.parser.body(this.readBuffer);
+        this.requestInFlight = true;
+        this.requestCounted = true;
+        this.requestStartNanos = ServerLoadMonitor.instance().requestStarted();
+        this.key.interestOps(0);
+        // the entity is a view of the read buffer, which stays leased until the worker is done with it
+        this.workerHoldsBuffer = true;
+        try {
+            this.loop.workers().execute(new RequestTask(entity, content, keepAlive, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            this.logger.debug("Worker pool rejected request, answering 503");
+            this.writer.complete(HttpResponses.SERVICE_UNAVAILABLE);
+            respond(false);
+        }
+    }
+
+    /**
+     * Hands the current part of a streamed body to the workers and stops reading until it is handled.
+     */
+    private void dispatchBodyPart() {
+        if (ServerStatusUtil.instance().isStopServer()) {
+            close();
+            return;
+        }
+        this.requestInFlight = true;
+        this.workerHoldsBuffer = true;
+        this.key.interestOps(0);
+        try {
+            this.loop.workers().execute(new BodyPartTask(System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            this.logger.debug("Worker pool rejected body part, answering 503");
+            this.writer.complete(HttpResponses.SERVICE_UNAVAILABLE);
+            respond(false);
+        }
+    }
+
+    /**
+     * Removes a handled body part and reads on. Called from a worker thread.
+     */
+    private void bodyPartHandled() {
+        this.loop.execute(() -> {
+            this.workerHoldsBuffer = false;
+            if (this.closed) {
+                releaseReadBuffer();
+                return;
+            }
+            try {
+                this.parser.consumeBodyPart(this.readBuffer);
+                this.requestInFlight = false;
+                this.key.interestOps(SelectionKey.OP_READ);
+                dispatchNextRequest();
+            } catch (RuntimeException | InternalError e) {
+                this.logger.debug("Unable to read on after a body part: {}", e);
+                close();
+            }
+        });
+    }
+
+    private RequestBodyHandler bodyHandler() {
+        if (this.bodyHandler == null) {
+            this.bodyHandler = new ChecksumBodyHandler();
+        }
+        return this.bodyHandler;
+    }
+
+    private void reject(int status) {
+        this.requestInFlight = true;
+        this.key.interestOps(0);
+        this.writer.complete(HttpResponses.errorResponse(status));
+        respond(false);
+    }
+
+    /**
+     * Writes the response prepared in the writer of this connection. Called from a worker thread.
+     *
+     * @param keepAlive true if the connection stays open after the response
+     */
+    void respond(boolean keepAlive) {
+        this.loop.execute(() -> {
+            this.workerHoldsBuffer = false;
+            if (this.closed) {
+                this.writer.abort();
+                releaseReadBuffer();
+                return;
+            }
+            this.responsePending = true;
+            this.closeAfterWrite = !keepAlive;
+            this.writeStartNanos = System.nanoTime();
+            try {
+                onWritable();
+            } catch (IOException e) {
+                this.logger.debug("Unable to write response: {}", e.getMessage());
+                close();
+            } catch (RuntimeException | InternalError e) {
+                this.logger.debug("Unable to write response: {}", e);
+                close();
+            }
+        });
+    }
+
+    @Override
+    public void onWritable() throws IOException {
+        if (!this.channel.isOpen() || !this.responsePending) {
+            return;
+        }
+        if (!this.writer.write(this.channel)) {
+            // socket send buffer is full, continue once the selector reports it writable
+            this.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        this.responsePending = false;
+        this.lastActivityNanos = System.nanoTime();
+        ServerMetrics.instance().recordWrite(this.lastActivityNanos - this.writeStartNanos);
+        ServerMetrics.instance().bytesSent(this.writer.bytesWritten());
+        completeRequest();
+        if (this.closeAfterWrite) {
+            close();
+            return;
+        }
+        HttpRequestHandler.consume(this.readBuffer, this.parser.requestLength());
+        this.parser.reset();
+        this.requestInFlight = false;
+        this.key.interestOps(SelectionKey.OP_READ);
+        if (this.readBuffer.position() == 0) {
+            releaseReadBuffer();
+            return;
+        }
+        // a pipelined request may already be waiting in the read buffer
+        dispatchNextRequest();
+    }
+
+    @Override
+    public boolean isIdle(long nowNanos) {
+        return !this.requestInFlight
+                && nowNanos - this.lastActivityNanos > KeepAlivePolicy.idleTimeoutMs() * 1_000_000L;
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        ServerMetrics.instance().connectionClosed();
+        completeRequest();
+        if (!this.workerHoldsBuffer) {
+            // a worker may still be building the response, it is dropped once handed over
+            this.writer.abort();
+            releaseReadBuffer();
+        }
+        this.key.cancel();
+        NioEventLoop.closeQuietly(this.channel);
+    }
+
+    private void releaseReadBuffer() {
+        BufferPool.instance().release(this.readBuffer);
+        this.readBuffer = null;
+    }
+
+    private void completeRequest() {
+        if (this.requestCounted) {
+            this.requestCounted = false;
+            ServerLoadMonitor.instance().requestCompleted(this.requestStartNanos);
+        }
+    }
+
+    /**
+     * Answers a request whose handler threw with a 500 and closes the connection once it is written, which
+     * also releases its buffers. Without a response the connection would wait for one forever. Called from
+     * a worker thread.
+     *
+     * @param e the failure of the handler
+     */
+    private void failed(Throwable e) {
+        this.logger.debug("Request handler failed, answering 500: {}", e);
+        this.writer.complete(HttpResponses.INTERNAL_SERVER_ERROR);
+        respond(false);
+    }
+
+    /**
+     * Builds the response of a request on a worker thread.
+     */
+    private final class RequestTask implements RejectableTask {
+
+        /**
+         * The buffered request entity or null if the body was streamed, its last part is still in the parser.
+         */
+        private final ByteBuffer entity;
+        /**
+         * True if the request asks for a static file.
+         */
+        private final boolean content;
+        private final boolean keepAlive;
+        private final long dispatchedNanos;
+
+        RequestTask(ByteBuffer entity, boolean content, boolean keepAlive, long dispatchedNanos) {
+            this.entity = entity;
+            this.content = content;
+            this.keepAlive = keepAlive;
+            this.dispatchedNanos = dispatchedNanos;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            ServerMetrics.instance().recordQueueWait(startNanos - this.dispatchedNanos);
+            try {
+                if (this.content) {
+                    StaticContentHandler.buildResponse(parser, readBuffer, this.keepAlive, writer);
+                } else if (this.entity != null) {
+                    HttpRequestHandler.buildResponse(this.entity, ResponseCompression.negotiate(parser, readBuffer),
+                            this.keepAlive, writer);
+                } else {
+                    RequestBodyHandler handler = bodyHandler();
+                    HttpRequestHandler.bodyPart(handler, parser, readBuffer);
+                    handler.onBodyEnd(this.keepAlive, writer);
+                }
+            } catch (RuntimeException | Error e) {
+                failed(e);
+                return;
+            }
+            ServerMetrics.instance().recordHandler(System.nanoTime() - startNanos);
+            respond(this.keepAlive);
+        }
+
+        /**
+         * The request was shed after it waited too long; the client gets a pre-built 503 instead.
+         */
+        @Override
+        public void onRejected() {
+            writer.complete(HttpResponses.SERVICE_UNAVAILABLE);
+            respond(false);
+        }
+    }
+
+    /**
+     * Hands a part of a streamed body to the body handler on a worker thread.
+     */
+    private final class BodyPartTask implements RejectableTask {
+
+        private final long dispatchedNanos;
+
+        BodyPartTask(long dispatchedNanos) {
+            this.dispatchedNanos = dispatchedNanos;
+        }
+
+        @Override
+        public void run() {
+            ServerMetrics.instance().recordQueueWait(System.nanoTime() - this.dispatchedNanos);
+            try {
+                HttpRequestHandler.bodyPart(bodyHandler(), parser, readBuffer);
+            } catch (RuntimeException | Error e) {
+                failed(e);
+                return;
+            }
+            bodyPartHandled();
+        }
+
+        /**
+         * The part was shed after it waited too long; the client gets a pre-built 503 and the rest of the
+         * body is not read.
+         */
+        @Override
+        public void onRejected() {
+            writer.complete(HttpResponses.SERVICE_UNAVAILABLE);
+            respond(false);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.chorano.server.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A single threaded event loop that owns a selector and all the connections registered with it.
+ * Reads and writes of the connections never block; a complete request is handed over to the worker
+ * pool and its response is written back by the loop thread.
+ *
+ * Other threads talk to the loop only through {@link #execute(Runnable)} so that the state of a
+ * connection is touched by the loop thread alone.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final long SELECT_TIMEOUT_MS = 500;
+    private static final long IDLE_SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+    private final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private long lastIdleSweepNanos = System.nanoTime();
+
+    public NioEventLoop(ExecutorService workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+    }
+
+    /**
+     * Hands over an accepted channel to this loop. Called from the acceptor thread.
+     *
+     * @param channel the accepted channel
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, channel, key));
+            } catch (IOException e) {
+                this.logger.debug("Unable to register channel: {}", e);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the loop thread.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    public void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    ExecutorService workers() {
+        return this.workers;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (this.running) {
+                this.selector.select(SELECT_TIMEOUT_MS);
+                runTasks();
+                processSelectedKeys();
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            this.logger.debug("Event loop failed: {}", e);
+        } finally {
+            // responses queued by the workers right before shutdown still get a chance to go out
+            runTasks();
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException | InternalError e) {
+                // the tasks close their connection on I/O errors, anything else is logged and survived
+                this.logger.debug("Loop task failed: {}", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioChannelHandler connection = (NioChannelHandler) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                this.logger.debug("Closing connection after an I/O error: {}", e.getMessage());
+                connection.close();
+            } catch (RuntimeException | InternalError e) {
+                // a bug in one connection must not take the loop and all its other connections down
+                this.logger.debug("Closing connection after an unexpected failure: {}", e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Closes keep-alive connections that have been waiting for their next request for longer than the
+     * idle timeout. Runs at most once per second since it walks all the connections of the loop.
+     */
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        if (now - this.lastIdleSweepNanos < IDLE_SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        this.lastIdleSweepNanos = now;
+        for (SelectionKey key : this.selector.keys()) {
+            NioChannelHandler connection = (NioChannelHandler) key.attachment();
+            if (key.isValid() && connection != null && connection.isIdle(now)) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : this.selector.keys()) {
+            NioChannelHandler connection = (NioChannelHandler) key.attachment();
+            if (connection != null) {
+                connection.close();
+            } else {
+                closeQuietly(key.channel());
+            }
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            this.logger.debug("Unable to close selector: {}", e);
+        }
+    }
+
+    static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing left to do with a broken channel
+        }
+    }
+}
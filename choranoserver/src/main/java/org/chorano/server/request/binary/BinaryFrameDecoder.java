@@ -0,0 +1,70 @@
+package org.chorano.server.request.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes request frames (see {@link BinaryFrames}) directly from a {@link ByteBuffer} without copying.
+ *
+ * The buffer is expected in "fill" mode with the next frame at [0, position). Once a frame is complete
+ * its payload is [8, {@link #frameLength()}); bytes after that belong to the next frame. Not thread safe.
+ */
+public final class BinaryFrameDecoder {
+
+    public enum Result {
+        INCOMPLETE, COMPLETE, INVALID
+    }
+
+    private final int maxPayloadBytes;
+    private int requestId;
+    private int frameLength;
+
+    /**
+     * @param maxPayloadBytes the largest payload that is accepted
+     */
+    public BinaryFrameDecoder(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * @param buffer the buffer in fill mode holding the frame at [0, position)
+     * @return returns COMPLETE once the whole frame is available, INVALID if its length is out of range
+     * and INCOMPLETE otherwise
+     */
+    public Result decode(ByteBuffer buffer) {
+        if (buffer.position() < 4) {
+            return Result.INCOMPLETE;
+        }
+        int length = buffer.getInt(0);
+        if (length < BinaryFrames.REQUEST_HEADER_BYTES - 4
+                || length - (BinaryFrames.REQUEST_HEADER_BYTES - 4) > this.maxPayloadBytes) {
+            return Result.INVALID;
+        }
+        if (buffer.position() < 4 + length) {
+            return Result.INCOMPLETE;
+        }
+        this.requestId = buffer.getInt(4);
+        this.frameLength = 4 + length;
+        return Result.COMPLETE;
+    }
+
+    public int requestId() {
+        return this.requestId;
+    }
+
+    /**
+     * @return returns the length of the frame including its header
+     */
+    public int frameLength() {
+        return this.frameLength;
+    }
+
+    /**
+     * @param buffer the buffer the frame was decoded from
+     * @return returns a view of the payload
+     */
+    public ByteBuffer payload(ByteBuffer buffer) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(this.frameLength).position(BinaryFrames.REQUEST_HEADER_BYTES);
+        return payload;
+    }
+}
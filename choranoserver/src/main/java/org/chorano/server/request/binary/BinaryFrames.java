@@ -0,0 +1,85 @@
+package org.chorano.server.request.binary;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.util.PropUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed binary protocol for service-to-service calls, served next to http on the same port.
+ *
+ * A connection starts with the 4 byte preface 0xCB 'C' 'B' 'P'; 0xCB can never start a http request, so
+ * the first byte tells the protocols apart. After the preface the client sends request frames and the
+ * server answers with response frames (big endian):
+ * <pre>
+ * request:  int length (of what follows), int request id, payload
+ * response: int length (of what follows), int request id, byte status, payload
+ * </pre>
+ * Requests of a connection are served concurrently and answered as soon as they are done, so responses
+ * may arrive in a different order; the client matches them by request id.
+ */
+public final class BinaryFrames {
+
+    public static final boolean ENABLED =
+            Boolean.parseBoolean(PropUtil.getPropVal("binary.protocol.enabled", "true"));
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_REJECTED = 1;
+    public static final byte STATUS_ERROR = 2;
+
+    static final byte[] PREFACE = {(byte) 0xCB, 'C', 'B', 'P'};
+    static final int REQUEST_HEADER_BYTES = 8;
+    private static final int RESPONSE_HEADER_BYTES = 9;
+
+    private BinaryFrames() {
+
+    }
+
+    /**
+     * @param buffer the buffer in fill mode holding at least one byte
+     * @return returns true if the connection speaks the binary protocol
+     */
+    public static boolean startsWithPreface(ByteBuffer buffer) {
+        return ENABLED && buffer.position() > 0 && buffer.get(0) == PREFACE[0];
+    }
+
+    /**
+     * @param buffer the buffer in fill mode
+     * @return returns 1 if the buffer starts with the whole preface, -1 if it does not and 0 if more bytes
+     * are needed to tell
+     */
+    public static int matchPreface(ByteBuffer buffer) {
+        int available = Math.min(buffer.position(), PREFACE.length);
+        for (int i = 0; i < available; i++) {
+            if (buffer.get(i) != PREFACE[i]) {
+                return -1;
+            }
+        }
+        return available == PREFACE.length ? 1 : 0;
+    }
+
+    public static int prefaceLength() {
+        return PREFACE.length;
+    }
+
+    /**
+     * Encodes a response frame.
+     *
+     * @param requestId the id of the request
+     * @param status    one of the STATUS_ constants
+     * @param body      the parts of the payload, read from their position to their limit
+     * @return returns the frame ready to be written, leased from the {@link BufferPool}
+     */
+    public static ByteBuffer response(int requestId, byte status, ByteBuffer... body) {
+        int length = 0;
+        for (ByteBuffer part : body) {
+            length += part.remaining();
+        }
+        ByteBuffer frame = BufferPool.instance().lease(RESPONSE_HEADER_BYTES + length);
+        frame.putInt(RESPONSE_HEADER_BYTES - 4 + length).putInt(requestId).put(status);
+        for (ByteBuffer part : body) {
+            frame.put(part.duplicate());
+        }
+        frame.flip();
+        return frame;
+    }
+}
@@ -0,0 +1,194 @@
+package org.chorano.server.request.content;
+
+import org.chorano.server.request.response.ContentEncoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A file of the content root with its pre-encoded headers (Content-Type, ETag and Accept-Ranges), also in
+ * a variant per content coding whose ETag carries the coding, e.g. "1f4-18c2a7e3b10-gzip": a compressed
+ * response is a different representation and must not share the strong ETag of the identity one. Small
+ * files also carry their content, read once into a direct buffer, so serving them again costs no read from
+ * disk. An instance is immutable and shared by all connections.
+ *
+ * The content is a copy rather than a mapping of the file: a mapped file that is truncated or rewritten
+ * while it is being sent raises SIGBUS, which the JVM reports as an InternalError on the writing thread.
+ */
+public final class CachedFile {
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "application/javascript");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("gz", "application/gzip");
+    }
+
+    private final Path path;
+    private final long size;
+    private final FileTime lastModified;
+    private final byte[] etag;
+    private final ByteBuffer headers;
+    private final byte[][] codedEtags = new byte[ContentEncoding.values().length][];
+    private final ByteBuffer[] codedHeaders = new ByteBuffer[ContentEncoding.values().length];
+    private final ByteBuffer content;
+    private final boolean compressible;
+
+    private CachedFile(Path path, long size, FileTime lastModified, ByteBuffer content) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified.toMillis()) + "\"";
+        this.etag = etag.getBytes(StandardCharsets.US_ASCII);
+        String contentType = contentType(path);
+        this.headers = headers(contentType, etag);
+        for (ContentEncoding coding : ContentEncoding.values()) {
+            String codedEtag = etag.substring(0, etag.length() - 1) + "-" + coding.name().toLowerCase(Locale.ROOT)
+                    + "\"";
+            this.codedEtags[coding.ordinal()] = codedEtag.getBytes(StandardCharsets.US_ASCII);
+            this.codedHeaders[coding.ordinal()] = headers(contentType, codedEtag);
+        }
+        this.content = content;
+        // images and archives are compressed already
+        this.compressible = contentType.startsWith("text/") || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json") || contentType.startsWith("application/xml")
+                || contentType.startsWith("image/svg");
+    }
+
+    /**
+     * Describes a file that is sent from disk.
+     *
+     * @param path       the file
+     * @param attributes the attributes of the file
+     * @return returns the file without content
+     */
+    static CachedFile of(Path path, BasicFileAttributes attributes) {
+        return new CachedFile(path, attributes.size(), attributes.lastModifiedTime(), null);
+    }
+
+    /**
+     * Reads a file into memory.
+     *
+     * @param path       the file
+     * @param attributes the attributes of the file
+     * @return returns the file with its content
+     * @throws IOException if the file cannot be read
+     */
+    static CachedFile load(Path path, BasicFileAttributes attributes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the file may have changed since its attributes were read
+            ByteBuffer content = ByteBuffer.allocateDirect((int) Math.min(attributes.size(), channel.size()));
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // a file that shrinks meanwhile ends the read early
+            }
+            content.flip();
+            return new CachedFile(path, content.remaining(), attributes.lastModifiedTime(),
+                    content.asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * @param attributes the current attributes of the file
+     * @return returns false if the file has been modified since it was cached
+     */
+    boolean isCurrent(BasicFileAttributes attributes) {
+        return attributes.size() == this.size && attributes.lastModifiedTime().equals(this.lastModified);
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return returns the quoted entity tag
+     */
+    public byte[] getEtag() {
+        return this.etag;
+    }
+
+    /**
+     * @param coding the content coding of the response
+     * @return returns the quoted entity tag of the variant compressed with the coding
+     */
+    public byte[] getEtag(ContentEncoding coding) {
+        return this.codedEtags[coding.ordinal()];
+    }
+
+    /**
+     * @return returns the shared, pre-encoded Content-Type, ETag and Accept-Ranges headers
+     */
+    public ByteBuffer getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @param coding the content coding of the response
+     * @return returns the shared, pre-encoded headers of the variant compressed with the coding
+     */
+    public ByteBuffer getHeaders(ContentEncoding coding) {
+        return this.codedHeaders[coding.ordinal()];
+    }
+
+    /**
+     * @return returns true if the content is in memory, false if it has to be sent from disk
+     */
+    public boolean hasContent() {
+        return this.content != null;
+    }
+
+    /**
+     * @return returns true if the content type is text that is worth compressing
+     */
+    public boolean isCompressible() {
+        return this.compressible;
+    }
+
+    /**
+     * @param offset the first byte
+     * @param length the number of bytes
+     * @return returns a view of a range of the content, which has to be in memory
+     */
+    public ByteBuffer content(long offset, long length) {
+        ByteBuffer view = this.content.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return view;
+    }
+
+    private static ByteBuffer headers(String contentType, String etag) {
+        return ByteBuffer.wrap(("Content-Type: " + contentType + "\r\nETag: " + etag
+                + "\r\nAccept-Ranges: bytes\r\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    private static String contentType(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? "application/octet-stream" : type;
+    }
+}
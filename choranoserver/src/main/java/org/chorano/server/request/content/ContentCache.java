@@ -0,0 +1,97 @@
+package org.chorano.server.request.content;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded LRU cache of small files held in direct memory. Files up to maxFileBytes are read on their
+ * first request and kept until the cached bytes exceed maxBytes, when the least recently served files are
+ * evicted. Every lookup compares the size and modification time of the file with the cached ones, so a
+ * changed file is read again on its next request.
+ *
+ * The memory of an evicted file is released by the garbage collector once no response refers to it any more.
+ */
+public final class ContentCache {
+
+    private final Logger logger = LoggerFactory.getLogger(ContentCache.class);
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final LinkedHashMap<Path, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long bytes;
+
+    /**
+     * @param maxBytes     the bytes of all cached files together
+     * @param maxFileBytes the largest file that is cached
+     */
+    public ContentCache(long maxBytes, long maxFileBytes) {
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+    }
+
+    /**
+     * @param path       the regular file
+     * @param attributes the current attributes of the file
+     * @return returns the cached file, with its content if it is small enough
+     * @throws IOException if the file cannot be read
+     */
+    public CachedFile get(Path path, BasicFileAttributes attributes) throws IOException {
+        if (attributes.size() > this.maxFileBytes) {
+            return CachedFile.of(path, attributes);
+        }
+        synchronized (this) {
+            CachedFile cached = this.files.get(path);
+            if (cached != null && cached.isCurrent(attributes)) {
+                this.hits.increment();
+                return cached;
+            }
+        }
+        this.misses.increment();
+        CachedFile loaded = CachedFile.load(path, attributes);
+        synchronized (this) {
+            CachedFile replaced = this.files.put(path, loaded);
+            if (replaced != null) {
+                this.bytes -= replaced.getSize();
+            }
+            this.bytes += loaded.getSize();
+            Iterator<Map.Entry<Path, CachedFile>> eldest = this.files.entrySet().iterator();
+            while (this.bytes > this.maxBytes && eldest.hasNext()) {
+                CachedFile evicted = eldest.next().getValue();
+                eldest.remove();
+                this.bytes -= evicted.getSize();
+                this.logger.debug("Evicted {} from the content cache", evicted.getPath());
+            }
+        }
+        return loaded;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return returns the bytes of all cached files
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentCache[bytes=" + getBytes() + "/" + this.maxBytes + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + "]";
+    }
+}
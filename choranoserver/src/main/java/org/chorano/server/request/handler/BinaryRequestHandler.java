@@ -0,0 +1,134 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerMetrics;
+import org.chorano.server.request.binary.BinaryFrameDecoder;
+import org.chorano.server.request.binary.BinaryFrames;
+import org.chorano.server.util.ServerStatusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Handles the length-prefixed binary protocol (see {@link BinaryFrames}) on a blocking socket. Frames are
+ * served one after another on the connection thread; a client may still send many of them without
+ * waiting, the request ids tell the responses apart.
+ */
+public class BinaryRequestHandler extends AbstractRequestHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(BinaryRequestHandler.class);
+
+    @Override
+    public void handle(Socket socket) {
+        try (InputStream in = socket.getInputStream()) {
+            socket.setSoTimeout(KeepAlivePolicy.idleTimeoutMs());
+            WritableByteChannel out = socket.getChannel() != null
+                    ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+            serve(BufferPool.instance().lease(BinaryFrames.prefaceLength()), in, out);
+        } catch (SocketTimeoutException e) {
+            this.logger.debug("Closing idle connection");
+        } catch (IOException e) {
+            this.logger.debug("Binary connection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Serves frames until the client closes the connection or sends a malformed frame.
+     *
+     * @param buffer the leased buffer in fill mode holding the bytes read so far, starting with (part of)
+     *               the preface; it goes back to the {@link BufferPool} when the connection ends
+     * @param in     the input of the connection
+     * @param out    the output of the connection
+     * @throws IOException if reading or writing fails
+     */
+    void serve(ByteBuffer buffer, InputStream in, WritableByteChannel out) throws IOException {
+        ServerMetrics metrics = ServerMetrics.instance();
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder(HttpRequestHandler.MAX_BODY_BYTES);
+        try {
+            int preface;
+            while ((preface = BinaryFrames.matchPreface(buffer)) == 0) {
+                ByteBuffer writable = HttpRequestHandler.ensureWritable(buffer);
+                if (writable == null) {
+                    return;
+                }
+                buffer = writable;
+                if (!read(buffer, in)) {
+                    return;
+                }
+            }
+            if (preface < 0) {
+                this.logger.debug("Closing connection without a valid binary preface");
+                return;
+            }
+            HttpRequestHandler.consume(buffer, BinaryFrames.prefaceLength());
+            while (!ServerStatusUtil.instance().isStopServer()) {
+                BinaryFrameDecoder.Result result;
+                while ((result = decoder.decode(buffer)) == BinaryFrameDecoder.Result.INCOMPLETE) {
+                    ByteBuffer writable = HttpRequestHandler.ensureWritable(buffer);
+                    if (writable == null) {
+                        return;
+                    }
+                    buffer = writable;
+                    if (!read(buffer, in)) {
+                        return;
+                    }
+                }
+                if (result == BinaryFrameDecoder.Result.INVALID) {
+                    this.logger.debug("Closing connection after a malformed frame");
+                    writeFully(BinaryFrames.response(0, BinaryFrames.STATUS_ERROR), out);
+                    return;
+                }
+                long startNanos = ServerLoadMonitor.instance().requestStarted();
+                try {
+                    ByteBuffer entity = decoder.payload(buffer);
+                    HttpRequestHandler.checkStop(entity);
+                    ByteBuffer frame = BinaryFrames.response(decoder.requestId(), BinaryFrames.STATUS_OK,
+                            HttpRequestHandler.SERVING, entity);
+                    long writeStart = System.nanoTime();
+                    metrics.recordHandler(writeStart - startNanos);
+                    metrics.bytesSent(frame.remaining());
+                    writeFully(frame, out);
+                    metrics.recordWrite(System.nanoTime() - writeStart);
+                } finally {
+                    ServerLoadMonitor.instance().requestCompleted(startNanos);
+                }
+                HttpRequestHandler.consume(buffer, decoder.frameLength());
+            }
+        } finally {
+            BufferPool.instance().release(buffer);
+        }
+    }
+
+    /**
+     * @return returns false if the client closed the connection
+     */
+    private static boolean read(ByteBuffer buffer, InputStream in) throws IOException {
+        int count = HttpRequestHandler.read(in, buffer);
+        if (count < 0) {
+            return false;
+        }
+        ServerMetrics.instance().bytesReceived(count);
+        return true;
+    }
+
+    /**
+     * Writes a leased frame and returns it to the pool.
+     */
+    private static void writeFully(ByteBuffer frame, WritableByteChannel out) throws IOException {
+        try {
+            while (frame.hasRemaining()) {
+                out.write(frame);
+            }
+        } finally {
+            BufferPool.instance().release(frame);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Answers a streamed request body with its length and CRC-32 instead of echoing it, e.g.
+ * "Serving: 5242880 bytes, crc32 6ac5ec3f". Allocates nothing per request.
+ */
+public final class ChecksumBodyHandler implements RequestBodyHandler {
+
+    private static final ByteBuffer BYTES = HttpResponses.ascii(" bytes, crc32 ");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer length = ByteBuffer.allocate(20);
+    private final ByteBuffer checksum = ByteBuffer.allocate(8);
+    private long bodyLength;
+
+    @Override
+    public void onBodyStart(HttpRequestParser parser, ByteBuffer buffer) {
+        this.crc.reset();
+        this.bodyLength = 0;
+    }
+
+    @Override
+    public void onBodyPart(ByteBuffer part) {
+        int position = part.position();
+        this.bodyLength += part.remaining();
+        this.crc.update(part);
+        part.position(position);
+    }
+
+    @Override
+    public HttpResponseWriter onBodyEnd(boolean keepAlive, HttpResponseWriter writer) {
+        return writer.status(HttpResponses.STATUS_200)
+                .header(HttpResponses.CONTENT_TYPE_TEXT_PLAIN)
+                .connection(keepAlive)
+                .bodyTemplate(HttpRequestHandler.SERVING)
+                .body(encodeLength())
+                .bodyTemplate(BYTES)
+                .body(encodeChecksum())
+                .finish();
+    }
+
+    private ByteBuffer encodeLength() {
+        this.length.clear();
+        long value = this.bodyLength;
+        int index = this.length.capacity();
+        do {
+            this.length.put(--index, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        this.length.position(index);
+        return this.length;
+    }
+
+    private ByteBuffer encodeChecksum() {
+        this.checksum.clear();
+        long value = this.crc.getValue();
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            this.checksum.put(HEX[(int) (value >>> shift) & 0xF]);
+        }
+        this.checksum.flip();
+        return this.checksum;
+    }
+}
@@ -1,23 +1,48 @@
 package org.chorano.server.request.handler;
 
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.executor.RejectableTask;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.metrics.ServerMetrics;
+import org.chorano.server.request.binary.BinaryFrames;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.ContentEncoding;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+import org.chorano.server.request.response.ResponseCompression;
+import org.chorano.server.util.PropUtil;
 import org.chorano.server.util.ServerStatusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Handles http request and writes a http response back.
  */
-public class HttpRequestHandler extends AbstractRequestHandler implements Runnable {
+public class HttpRequestHandler extends AbstractRequestHandler implements RejectableTask {
+
+    public static final int MAX_HEADER_BYTES = PropUtil.getIntPropVal("http.max.header.bytes", 8192);
+    public static final int MAX_BODY_BYTES = PropUtil.getIntPropVal("http.max.body.bytes", 1024 * 1024);
+    public static final long MAX_STREAMED_BODY_BYTES =
+            Long.parseLong(PropUtil.getPropVal("http.max.streamed.body.bytes", "104857600"));
+    public static final int BODY_PART_BYTES = PropUtil.getIntPropVal("http.body.part.bytes", 64 * 1024);
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int READ_CHUNK_BYTES = 8192;
+    private static final ThreadLocal<byte[]> READ_CHUNK = ThreadLocal.withInitial(() -> new byte[READ_CHUNK_BYTES]);
+    private static final byte[] STOP = "stop".getBytes(StandardCharsets.US_ASCII);
+    public static final ByteBuffer SERVING = HttpResponses.ascii("Serving: ");
 
     private final Logger logger = LoggerFactory.getLogger(HttpRequestHandler.class);
-    private static final int CONTENT_LENGTH_BEGIN_INDEX = 16;
     private final Socket socket;
+    private final long acceptedNanos = System.nanoTime();
 
     public HttpRequestHandler(Socket socket) {
         this.socket = socket;
@@ -25,44 +50,315 @@ public class HttpRequestHandler extends AbstractRequestHandler implements Runnab
 
     @Override
     public void run() {
-        handle(this.socket);
+        ServerMetrics.instance().recordQueueWait(System.nanoTime() - this.acceptedNanos);
+        ServerMetrics.instance().connectionOpened();
+        try {
+            handle(this.socket);
+        } finally {
+            ServerMetrics.instance().connectionClosed();
+        }
+    }
+
+    /**
+     * The executor has no room for the connection or shed it after it waited too long. The client gets a
+     * pre-built 503 with Retry-After right away and the connection is closed without being served.
+     */
+    @Override
+    public void onRejected() {
+        try {
+            if (this.socket.getChannel() != null) {
+                ByteBuffer response = HttpResponses.SERVICE_UNAVAILABLE.duplicate();
+                while (response.hasRemaining()) {
+                    this.socket.getChannel().write(response);
+                }
+                this.socket.shutdownOutput();
+            }
+        } catch (IOException e) {
+            this.logger.debug("Unable to send 503: {}", e.getMessage());
+        }
+        closeSocket();
     }
 
+    /**
+     * Serves requests from the socket until the client closes the connection, asks for it to be closed,
+     * the idle timeout expires or the connection reaches its request limit. Pipelined requests are read
+     * (and answered) one after another in the order they were sent.
+     *
+     * @param socket the accepted socket
+     */
     @Override
     public void handle(Socket socket) {
         this.logger.debug("Handler thread: {}", Thread.currentThread().getName());
-        try(BufferedReader reader = new BufferedReader(new InputStreamReader(this.socket.getInputStream()))) {
-            String line;
-            int contentLength = 0;
-            StringBuilder sb = new StringBuilder();
-            while ((line = reader.readLine()) != null && line.length() > 0) {
-                if (contentLength == 0 && line.contains("Content-Length")) {
-                    contentLength = Integer.parseInt(line.substring(CONTENT_LENGTH_BEGIN_INDEX));
+        HttpRequestParser parser = newParser();
+        HttpResponseWriter writer = new HttpResponseWriter();
+        RequestBodyHandler bodyHandler = null;
+        ByteBuffer buffer = BufferPool.instance().lease(INITIAL_BUFFER_SIZE);
+        try(InputStream in = this.socket.getInputStream()) {
+            this.socket.setSoTimeout(KeepAlivePolicy.idleTimeoutMs());
+            // sockets accepted from a ServerSocketChannel support gathering writes
+            WritableByteChannel out = this.socket.getChannel() != null
+                    ? this.socket.getChannel() : Channels.newChannel(this.socket.getOutputStream());
+            ServerMetrics metrics = ServerMetrics.instance();
+            if (BinaryFrames.ENABLED) {
+                // the first byte tells a binary connection from a http one
+                int count = read(in, buffer);
+                if (count < 0) {
+                    this.socket.close();
+                    return;
+                }
+                metrics.bytesReceived(count);
+                if (BinaryFrames.startsWithPreface(buffer)) {
+                    // the binary handler owns the buffer from now on
+                    ByteBuffer bytesRead = buffer;
+                    buffer = null;
+                    new BinaryRequestHandler().serve(bytesRead, in, out);
+                    this.socket.close();
+                    return;
                 }
-                sb.append(line);
             }
-            if (!ServerStatusUtil.instance().isStopServer()) {
-                char[] content = new char[contentLength];
-                reader.read(content);
-                String entity = new String(content);
-                this.logger.debug("{}\nEntity payload: {}", sb.toString(), entity);
-                if (entity.equals("stop")) {
-                    this.logger.debug("recieved signal to stop server");
-                    ServerStatusUtil.instance().stopServer(true);
+            int servedRequests = 0;
+            boolean keepAlive = true;
+            while (keepAlive && !ServerStatusUtil.instance().isStopServer()) {
+                HttpRequestParser.Result result;
+                boolean tooLarge = false;
+                long parseNanos = 0;
+                long parseStart = System.nanoTime();
+                while ((result = parser.parse(buffer)) == HttpRequestParser.Result.INCOMPLETE
+                        || result == HttpRequestParser.Result.BODY_PART) {
+                    parseNanos += System.nanoTime() - parseStart;
+                    if (result == HttpRequestParser.Result.BODY_PART) {
+                        // nothing more is read until the part is handled, which holds back the client
+                        if (bodyHandler == null) {
+                            bodyHandler = new ChecksumBodyHandler();
+                        }
+                        bodyPart(bodyHandler, parser, buffer);
+                        parser.consumeBodyPart(buffer);
+                        parseStart = System.nanoTime();
+                        continue;
+                    }
+                    ByteBuffer writable = ensureWritable(buffer);
+                    if (writable == null) {
+                        tooLarge = true;
+                        result = HttpRequestParser.Result.INVALID;
+                        break;
+                    }
+                    buffer = writable;
+                    int count = read(in, buffer);
+                    if (count < 0) {
+                        this.socket.close();
+                        return;
+                    }
+                    metrics.bytesReceived(count);
+                    parseStart = System.nanoTime();
+                }
+                metrics.recordParse(parseNanos + System.nanoTime() - parseStart);
+                if (ServerStatusUtil.instance().isStopServer()) {
+                    break;
+                }
+                if (result == HttpRequestParser.Result.INVALID) {
+                    int status = tooLarge ? HttpRequestParser.STATUS_PAYLOAD_TOO_LARGE : parser.errorStatus();
+                    this.logger.debug("Rejecting malformed request with status {}", status);
+                    writer.complete(HttpResponses.errorResponse(status)).writeFully(out);
+                    break;
                 }
-                OutputStreamWriter writer = new OutputStreamWriter(this.socket.getOutputStream());
-                // jax-rs client expects a well formed http response
-                writer.write("HTTP/1.1 200 \r\n");
-                writer.write("Content-Type: text/plain\r\n");
-                writer.write("Connection: close\r\n");
-                writer.write("\r\n");
-                writer.write("Serving: " + entity);
-                writer.flush();
+                servedRequests++;
+                keepAlive = KeepAlivePolicy.keepAlive(parser, buffer, servedRequests);
+                if (MetricsEndpoint.matches(parser, buffer)) {
+                    // answered right here, the connection already has its thread
+                    MetricsEndpoint.buildResponse(keepAlive, writer).writeFully(out);
+                    metrics.bytesSent(writer.bytesWritten());
+                } else if (StaticContentHandler.matches(parser, buffer)) {
+                    serve(parser, buffer, null, keepAlive, writer, out);
+                } else if (parser.isStreaming()) {
+                    if (bodyHandler == null) {
+                        bodyHandler = new ChecksumBodyHandler();
+                    }
+                    bodyPart(bodyHandler, parser, buffer);
+                    serve(parser, buffer, bodyHandler, keepAlive, writer, out);
+                } else {
+                    serve(parser, buffer, null, keepAlive, writer, out);
+                }
+                consume(buffer, parser.requestLength());
+                parser.reset();
             }
             this.socket.close();
             this.logger.debug("Socket connection closed");
+        } catch (SocketTimeoutException e) {
+            this.logger.debug("Closing idle connection");
+            closeSocket();
         } catch (IOException e) {
             e.printStackTrace();
+            closeSocket();
+        } finally {
+            // closes the file of a response that was cut short
+            writer.abort();
+            BufferPool.instance().release(buffer);
+        }
+    }
+
+    /**
+     * Builds and writes the response of a request, recording the handler and write time.
+     *
+     * @param parser      the parser holding the complete request
+     * @param buffer      the buffer the request was parsed from
+     * @param bodyHandler the handler that received the streamed entity or null for a buffered one
+     */
+    private void serve(HttpRequestParser parser, ByteBuffer buffer, RequestBodyHandler bodyHandler,
+                       boolean keepAlive, HttpResponseWriter writer, WritableByteChannel out) throws IOException {
+        ServerMetrics metrics = ServerMetrics.instance();
+        long startNanos = ServerLoadMonitor.instance().requestStarted();
+        try {
+            if (bodyHandler != null) {
+                bodyHandler.onBodyEnd(keepAlive, writer);
+            } else if (StaticContentHandler.matches(parser, buffer)) {
+                StaticContentHandler.buildResponse(parser, buffer, keepAlive, writer);
+            } else {
+                ByteBuffer entity = parser.body(buffer);
+                if (this.logger.isDebugEnabled()) {
+                    this.logger.debug("Entity payload: {}", StandardCharsets.UTF_8.decode(entity.duplicate()));
+                }
+                buildResponse(entity, ResponseCompression.negotiate(parser, buffer), keepAlive, writer);
+            }
+            long writeStart = System.nanoTime();
+            metrics.recordHandler(writeStart - startNanos);
+            writer.writeFully(out);
+            metrics.recordWrite(System.nanoTime() - writeStart);
+            metrics.bytesSent(writer.bytesWritten());
+        } finally {
+            ServerLoadMonitor.instance().requestCompleted(startNanos);
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            this.logger.debug("Unable to close socket: {}", e);
+        }
+    }
+
+    /**
+     * @return returns a parser with the configured size limits, streaming bodies above http.max.body.bytes
+     */
+    public static HttpRequestParser newParser() {
+        return new HttpRequestParser(MAX_HEADER_BYTES, MAX_BODY_BYTES, MAX_STREAMED_BODY_BYTES, BODY_PART_BYTES);
+    }
+
+    /**
+     * Hands the current part of a streamed body to a handler, starting the body with its first part.
+     *
+     * @param bodyHandler the handler of the connection
+     * @param parser      the parser that returned BODY_PART or a complete streamed request
+     * @param buffer      the buffer that has been parsed
+     */
+    public static void bodyPart(RequestBodyHandler bodyHandler, HttpRequestParser parser, ByteBuffer buffer) {
+        if (parser.streamedBytes() == 0) {
+            bodyHandler.onBodyStart(parser, buffer);
+        }
+        bodyHandler.onBodyPart(parser.body(buffer));
+    }
+
+    /**
+     * Makes room for more request bytes, growing the buffer up to the largest request that is accepted.
+     * A buffer that is replaced by a larger one goes back to the {@link BufferPool}.
+     *
+     * @param buffer the leased buffer in fill mode
+     * @return returns a buffer with free space or null if the request would exceed the limits
+     */
+    public static ByteBuffer ensureWritable(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            return buffer;
+        }
+        int maxRequestBytes = MAX_HEADER_BYTES + MAX_BODY_BYTES;
+        if (buffer.capacity() >= maxRequestBytes) {
+            return null;
+        }
+        return BufferPool.instance().grow(buffer, Math.min(buffer.capacity() * 2, maxRequestBytes));
+    }
+
+    /**
+     * Reads from a blocking socket into a buffer. Reads go through the input stream of the socket, which
+     * honours the idle timeout; a direct buffer is filled through a per-thread chunk.
+     *
+     * @param in     the input of the connection
+     * @param buffer the buffer in fill mode with free space
+     * @return returns the number of bytes read or -1 at the end of the stream
+     * @throws IOException if the read fails or times out
+     */
+    public static int read(InputStream in, ByteBuffer buffer) throws IOException {
+        int count;
+        if (buffer.hasArray()) {
+            count = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (count > 0) {
+                buffer.position(buffer.position() + count);
+            }
+            return count;
+        }
+        byte[] chunk = READ_CHUNK.get();
+        count = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+        if (count > 0) {
+            buffer.put(chunk, 0, count);
+        }
+        return count;
+    }
+
+    /**
+     * Removes a served request from the start of the buffer, keeping the bytes of a pipelined request.
+     *
+     * @param buffer the buffer in fill mode
+     * @param length the raw length of the served request
+     */
+    public static void consume(ByteBuffer buffer, int length) {
+        buffer.flip();
+        buffer.position(length);
+        buffer.compact();
+    }
+
+    /**
+     * Builds the (hardcoded) http response for a request entity. Shared by the blocking socket server
+     * and the non-blocking nio server so that both answer the same way.
+     * A request entity "stop" signals the server to shut down.
+     *
+     * @param entity    the request entity, echoed back without copying
+     * @param keepAlive true if the connection stays open after the response
+     * @param writer    the response writer of the connection
+     * @return returns the writer holding the response
+     */
+    public static HttpResponseWriter buildResponse(ByteBuffer entity, boolean keepAlive, HttpResponseWriter writer) {
+        return buildResponse(entity, null, keepAlive, writer);
+    }
+
+    /**
+     * Builds the (hardcoded) http response for a request entity, compressed if the client accepts it.
+     *
+     * @param entity    the request entity, echoed back without copying unless it is compressed
+     * @param encoding  the coding negotiated with {@link ResponseCompression#negotiate} or null for none
+     * @param keepAlive true if the connection stays open after the response
+     * @param writer    the response writer of the connection
+     * @return returns the writer holding the response
+     */
+    public static HttpResponseWriter buildResponse(ByteBuffer entity, ContentEncoding encoding, boolean keepAlive,
+                                                   HttpResponseWriter writer) {
+        checkStop(entity);
+        // jax-rs client expects a well formed http response
+        return writer.status(HttpResponses.STATUS_200)
+                .header(HttpResponses.CONTENT_TYPE_TEXT_PLAIN)
+                .connection(keepAlive)
+                .bodyTemplate(SERVING)
+                .body(entity)
+                .compress(encoding)
+                .finish();
+    }
+
+    /**
+     * A request entity "stop" signals the server to shut down, whatever the protocol.
+     *
+     * @param entity the request entity
+     */
+    public static void checkStop(ByteBuffer entity) {
+        if (HttpRequestParser.regionEquals(entity, entity.position(), entity.limit(), STOP, false)) {
+            LoggerFactory.getLogger(HttpRequestHandler.class).debug("recieved signal to stop server");
+            ServerStatusUtil.instance().stopServer(true);
         }
     }
 }
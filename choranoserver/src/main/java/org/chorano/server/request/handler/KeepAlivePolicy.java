@@ -0,0 +1,62 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.request.parser.HttpHeaders;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.util.PropUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a http connection stays open after a response. Shared by the blocking handler and the
+ * non-blocking connections so that both honour the same idle timeout and request limit.
+ *
+ * A HTTP/1.1 connection is persistent unless the client sends "Connection: close", a HTTP/1.0 connection
+ * only if the client asks for "Connection: keep-alive". Either way it is closed once it has served
+ * http.keepalive.max.requests requests.
+ */
+public final class KeepAlivePolicy {
+
+    private static final int IDLE_TIMEOUT_MS = PropUtil.getIntPropVal("http.keepalive.idle.timeout.ms", 5000);
+    private static final int MAX_REQUESTS = PropUtil.getIntPropVal("http.keepalive.max.requests", 100);
+
+    private KeepAlivePolicy() {
+
+    }
+
+    /**
+     * @return returns how long (in ms) an idle persistent connection is kept open
+     */
+    public static int idleTimeoutMs() {
+        return IDLE_TIMEOUT_MS;
+    }
+
+    /**
+     * @param http11          true if the request line ends with HTTP/1.1
+     * @param connectionClose true if the Connection header contains "close"
+     * @param connectionKeepAlive true if the Connection header contains "keep-alive"
+     * @param servedRequests  the number of requests served on the connection including the current one
+     * @return returns true if the connection should stay open after the current response
+     */
+    public static boolean keepAlive(boolean http11, boolean connectionClose, boolean connectionKeepAlive,
+                                    int servedRequests) {
+        if (servedRequests >= MAX_REQUESTS || connectionClose) {
+            return false;
+        }
+        return http11 || connectionKeepAlive;
+    }
+
+    /**
+     * Applies the policy to a request parsed by {@link HttpRequestParser}.
+     *
+     * @param parser         the parser holding a complete request
+     * @param buffer         the buffer that has been parsed
+     * @param servedRequests the number of requests served on the connection including the current one
+     * @return returns true if the connection should stay open after the current response
+     */
+    public static boolean keepAlive(HttpRequestParser parser, ByteBuffer buffer, int servedRequests) {
+        return keepAlive(parser.isHttp11(buffer),
+                parser.headerContainsToken(buffer, HttpHeaders.CONNECTION, HttpHeaders.CLOSE),
+                parser.headerContainsToken(buffer, HttpHeaders.CONNECTION, HttpHeaders.KEEP_ALIVE),
+                servedRequests);
+    }
+}
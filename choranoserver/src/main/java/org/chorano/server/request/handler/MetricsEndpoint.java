@@ -0,0 +1,48 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.metrics.ServerMetrics;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+import org.chorano.server.util.PropUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers "GET /metrics" (the path is set by metrics.path) with the {@link ServerMetrics} in the
+ * Prometheus text format. The servers answer it on the thread that read the request instead of queueing
+ * it for a worker, so that scraping neither waits behind the requests it measures nor adds to them.
+ */
+public final class MetricsEndpoint {
+
+    private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PATH =
+            PropUtil.getPropVal("metrics.path", "/metrics").getBytes(StandardCharsets.US_ASCII);
+
+    private MetricsEndpoint() {
+
+    }
+
+    /**
+     * @param parser the parser holding a complete request
+     * @param buffer the buffer the request was parsed from
+     * @return returns true if the request asks for the metrics
+     */
+    public static boolean matches(HttpRequestParser parser, ByteBuffer buffer) {
+        return parser.uriEquals(buffer, PATH) && parser.methodEquals(buffer, GET);
+    }
+
+    /**
+     * @param keepAlive true if the connection stays open after the response
+     * @param writer    the response writer of the connection
+     * @return returns the writer holding the response
+     */
+    public static HttpResponseWriter buildResponse(boolean keepAlive, HttpResponseWriter writer) {
+        return writer.status(HttpResponses.STATUS_200)
+                .header(HttpResponses.CONTENT_TYPE_PROMETHEUS)
+                .connection(keepAlive)
+                .body(ServerMetrics.instance().scrape())
+                .finish();
+    }
+}
@@ -0,0 +1,40 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.HttpResponseWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Processes a request body that is too large to be buffered (see http.max.body.bytes) as it arrives.
+ *
+ * The body is handed over in parts of about http.body.part.bytes. Parts come one at a time and the
+ * connection does not read further until the current part has been handled, so a slow handler slows the
+ * client down (through the TCP window) instead of making the server buffer the body. A handler belongs to
+ * one connection and is reused for all of its streamed requests; it is called from one thread at a time,
+ * though not always the same one.
+ */
+public interface RequestBodyHandler {
+
+    /**
+     * Starts a new body.
+     *
+     * @param parser the parser holding the request line and headers
+     * @param buffer the buffer the request is parsed from
+     */
+    void onBodyStart(HttpRequestParser parser, ByteBuffer buffer);
+
+    /**
+     * @param part the next part of the decoded body, only valid during the call
+     */
+    void onBodyPart(ByteBuffer part);
+
+    /**
+     * Ends the body after its last part and builds the response.
+     *
+     * @param keepAlive true if the connection stays open after the response
+     * @param writer    the response writer of the connection
+     * @return returns the writer holding the response
+     */
+    HttpResponseWriter onBodyEnd(boolean keepAlive, HttpResponseWriter writer);
+}
@@ -0,0 +1,273 @@
+package org.chorano.server.request.handler;
+
+import org.chorano.server.request.content.CachedFile;
+import org.chorano.server.request.content.ContentCache;
+import org.chorano.server.request.parser.HttpHeaders;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.request.response.ContentEncoding;
+import org.chorano.server.request.response.HttpResponseWriter;
+import org.chorano.server.request.response.HttpResponses;
+import org.chorano.server.request.response.ResponseCompression;
+import org.chorano.server.util.PropUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Serves the files below content.root for GET and HEAD requests whose path starts with
+ * content.path.prefix, next to the echo of {@link HttpRequestHandler}. Serving is off while content.root
+ * is empty.
+ *
+ * Small files come from the {@link ContentCache} (held in memory, with pre-encoded headers); larger files
+ * are sent from disk with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * A single byte range (Range: bytes=first-last, first- or -suffix) is answered with 206; a request whose
+ * If-None-Match lists the current ETag is answered with 304. Cached text files are compressed when the client
+ * accepts it (see {@link ResponseCompression}); ranges and files sent from disk never are. A compressed
+ * response carries the ETag of its coding (see {@link CachedFile}), which If-None-Match matches as well.
+ *
+ * Content files have to be replaced atomically, i.e. written elsewhere and renamed into place, not rewritten
+ * in place: a file that changes while it is sent from disk is sent torn or cut short, and one that changes
+ * between its stat and its read may be cached with its old ETag.
+ *
+ * Resolving the file and opening it blocks, so the nio server calls {@link #buildResponse} on a worker.
+ */
+public final class StaticContentHandler {
+
+    private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEAD = "HEAD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ANY = "*".getBytes(StandardCharsets.US_ASCII);
+    private static final ContentEncoding[] CODINGS = ContentEncoding.values();
+    private static final String ROOT = PropUtil.getPropVal("content.root", "");
+    private static final byte[] PREFIX =
+            PropUtil.getPropVal("content.path.prefix", "/static/").getBytes(StandardCharsets.US_ASCII);
+    private static final Path ROOT_PATH = ROOT.isEmpty() ? null : Paths.get(ROOT).toAbsolutePath().normalize();
+    private static final ContentCache CACHE = new ContentCache(
+            PropUtil.getIntPropVal("content.cache.bytes", 32 * 1024 * 1024),
+            PropUtil.getIntPropVal("content.cache.max.file.bytes", 256 * 1024));
+
+    private StaticContentHandler() {
+
+    }
+
+    /**
+     * @param parser the parser holding a complete request
+     * @param buffer the buffer the request was parsed from
+     * @return returns true if the request asks for a file of the content root
+     */
+    public static boolean matches(HttpRequestParser parser, ByteBuffer buffer) {
+        return ROOT_PATH != null && parser.uriStartsWith(buffer, PREFIX)
+                && (parser.methodEquals(buffer, GET) || parser.methodEquals(buffer, HEAD));
+    }
+
+    /**
+     * @param parser    the parser holding a complete request for which {@link #matches} is true
+     * @param buffer    the buffer the request was parsed from
+     * @param keepAlive true if the connection stays open after the response
+     * @param writer    the response writer of the connection
+     * @return returns the writer holding the response
+     */
+    public static HttpResponseWriter buildResponse(HttpRequestParser parser, ByteBuffer buffer, boolean keepAlive,
+                                                   HttpResponseWriter writer) {
+        Logger logger = LoggerFactory.getLogger(StaticContentHandler.class);
+        Path path = resolve(parser, buffer);
+        if (path == null) {
+            return notFound(keepAlive, writer);
+        }
+        CachedFile file;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return notFound(keepAlive, writer);
+            }
+            file = CACHE.get(path, attributes);
+        } catch (NoSuchFileException e) {
+            return notFound(keepAlive, writer);
+        } catch (IOException e) {
+            logger.debug("Unable to read {}: {}", path, e.getMessage());
+            return writer.complete(HttpResponses.INTERNAL_SERVER_ERROR);
+        }
+        boolean head = parser.methodEquals(buffer, HEAD);
+        if (parser.headerContainsToken(buffer, HttpHeaders.IF_NONE_MATCH, file.getEtag())
+                || parser.headerContainsToken(buffer, HttpHeaders.IF_NONE_MATCH, ANY)) {
+            return writer.status(HttpResponses.STATUS_304)
+                    .encodedHeader(file.getHeaders().duplicate())
+                    .connection(keepAlive)
+                    .finishWithoutBody();
+        }
+        for (ContentEncoding coding : CODINGS) {
+            if (parser.headerContainsToken(buffer, HttpHeaders.IF_NONE_MATCH, file.getEtag(coding))) {
+                return writer.status(HttpResponses.STATUS_304)
+                        .encodedHeader(file.getHeaders(coding).duplicate())
+                        .header(HttpResponses.VARY_ACCEPT_ENCODING)
+                        .connection(keepAlive)
+                        .finishWithoutBody();
+            }
+        }
+        long size = file.getSize();
+        long first = 0;
+        long last = size - 1;
+        int range = parser.indexOfHeader(buffer, HttpHeaders.RANGE);
+        if (range >= 0) {
+            long[] bounds = parseRange(buffer, parser.headerValueStart(range), parser.headerValueEnd(range), size);
+            if (bounds == null) {
+                return writer.status(HttpResponses.STATUS_416)
+                        .encodedHeader(HttpResponses.ascii("Content-Range: bytes */" + size + "\r\n"))
+                        .connection(keepAlive)
+                        .finish();
+            }
+            if (bounds.length == 2) {
+                first = bounds[0];
+                last = bounds[1];
+            }
+        }
+        long length = last - first + 1;
+        boolean partial = length != size;
+        ByteBuffer headers = file.getHeaders().duplicate();
+        writer.status(partial ? HttpResponses.STATUS_206 : HttpResponses.STATUS_200)
+                .encodedHeader(headers)
+                .connection(keepAlive);
+        if (partial) {
+            writer.encodedHeader(HttpResponses.ascii("Content-Range: bytes " + first + "-" + last + "/" + size
+                    + "\r\n"));
+        }
+        if (head || length == 0) {
+            return writer.finish(length);
+        }
+        if (file.hasContent()) {
+            writer.body(file.content(first, length));
+            if (!partial && file.isCompressible()) {
+                ContentEncoding coding = writer.compress(ResponseCompression.negotiate(parser, buffer))
+                        .contentEncoding();
+                if (coding != null) {
+                    writer.replaceHeader(headers, file.getHeaders(coding).duplicate());
+                }
+            }
+            return writer.finish();
+        }
+        try {
+            return writer.fileBody(FileChannel.open(path, StandardOpenOption.READ), first, length).finish();
+        } catch (IOException e) {
+            logger.debug("Unable to open {}: {}", path, e.getMessage());
+            return writer.complete(HttpResponses.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * @return returns the cache of the small files
+     */
+    public static ContentCache cache() {
+        return CACHE;
+    }
+
+    private static HttpResponseWriter notFound(boolean keepAlive, HttpResponseWriter writer) {
+        return writer.status(HttpResponses.STATUS_404).connection(keepAlive).finish();
+    }
+
+    /**
+     * @return returns the file below the content root the request path names, or null if it names none
+     */
+    static Path resolve(HttpRequestParser parser, ByteBuffer buffer) {
+        int end = parser.uriEnd();
+        for (int i = parser.uriStart() + PREFIX.length; i < end; i++) {
+            if (buffer.get(i) == '?' || buffer.get(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+        String relative = decode(buffer, parser.uriStart() + PREFIX.length, end);
+        if (relative == null || relative.isEmpty()) {
+            return null;
+        }
+        try {
+            Path path = ROOT_PATH.resolve(relative).normalize();
+            // rejects ../ and absolute paths that lead out of the root
+            return path.startsWith(ROOT_PATH) && !path.equals(ROOT_PATH) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Percent-decodes a region of the request path as UTF-8.
+     *
+     * @return returns the decoded path or null if it is malformed or contains a NUL
+     */
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(end - start);
+        for (int i = start; i < end; i++) {
+            int b = buffer.get(i);
+            if (b == '%') {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                int high = Character.digit(buffer.get(i + 1), 16);
+                int low = Character.digit(buffer.get(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                b = high * 16 + low;
+                i += 2;
+            }
+            if (b == 0) {
+                return null;
+            }
+            decoded.write(b);
+        }
+        return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a Range header with a single byte range.
+     *
+     * @param size the size of the file
+     * @return returns {first, last}, an empty array to ignore the header (multiple or unknown ranges) or
+     * null if the range cannot be satisfied
+     */
+    static long[] parseRange(ByteBuffer buffer, int start, int end, long size) {
+        String value = StandardCharsets.US_ASCII.decode(
+                (ByteBuffer) buffer.duplicate().limit(end).position(start)).toString().trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            long first;
+            long last;
+            if (from.isEmpty()) {
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = to.isEmpty() ? size - 1 : Math.min(Long.parseLong(to), size - 1);
+                if (last < first) {
+                    return first >= size ? null : new long[0];
+                }
+            }
+            return first >= size ? null : new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
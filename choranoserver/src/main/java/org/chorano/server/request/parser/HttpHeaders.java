@@ -0,0 +1,33 @@
+package org.chorano.server.request.parser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pre-encoded (lower case) header names and tokens used to look up headers in a parsed request
+ * without creating strings.
+ */
+public final class HttpHeaders {
+
+    private HttpHeaders() {
+
+    }
+
+    public static final byte[] CONTENT_LENGTH = ascii("content-length");
+    public static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    public static final byte[] CONNECTION = ascii("connection");
+    public static final byte[] RANGE = ascii("range");
+    public static final byte[] IF_NONE_MATCH = ascii("if-none-match");
+    public static final byte[] ACCEPT_ENCODING = ascii("accept-encoding");
+
+    public static final byte[] CHUNKED = ascii("chunked");
+    public static final byte[] CLOSE = ascii("close");
+    public static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    public static final byte[] GZIP = ascii("gzip");
+    public static final byte[] X_GZIP = ascii("x-gzip");
+    public static final byte[] DEFLATE = ascii("deflate");
+    public static final byte[] ANY = ascii("*");
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,613 @@
+package org.chorano.server.request.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental, allocation-free http/1.x request parser that works directly on the bytes of a
+ * {@link ByteBuffer}. The parser keeps only offsets into the buffer, so the request line and the headers
+ * are never copied into strings; header names are matched case-insensitively against pre-encoded names
+ * (see {@link HttpHeaders}).
+ *
+ * The buffer is expected in "fill" mode, i.e. the bytes received so far are [0, position). Call
+ * {@link #parse(ByteBuffer)} every time more bytes have been read; it resumes where it stopped. A body is
+ * framed either by Content-Length or by chunked transfer encoding. Chunked bodies are decoded in place,
+ * so once the request is complete the body is always the contiguous range
+ * [{@link #bodyStart()}, {@link #bodyStart()} + {@link #bodyLength()}) of the buffer. Bytes after
+ * {@link #requestLength()} belong to the next (pipelined) request.
+ *
+ * A body larger than maxBodyBytes is rejected, unless streaming is enabled with a larger
+ * maxStreamedBodyBytes. Such a body is never held as a whole: the parser returns BODY_PART whenever
+ * partBytes of it (or a full buffer) are decoded, the caller hands {@link #body(ByteBuffer)} to its
+ * handler and calls {@link #consumeBodyPart(ByteBuffer)} before it reads more. The buffer then only ever
+ * holds the headers and one part of the body.
+ *
+ * An instance is reusable (see {@link #reset()}) but not thread safe.
+ */
+public final class HttpRequestParser {
+
+    public enum Result {
+        INCOMPLETE, BODY_PART, COMPLETE, INVALID
+    }
+
+    private enum State {
+        REQUEST_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, TRAILERS, COMPLETE, INVALID
+    }
+
+    public static final int STATUS_BAD_REQUEST = 400;
+    public static final int STATUS_PAYLOAD_TOO_LARGE = 413;
+    public static final int STATUS_HEADERS_TOO_LARGE = 431;
+    public static final int STATUS_NOT_IMPLEMENTED = 501;
+
+    private static final int MAX_HEADERS = 64;
+    private static final byte[] HTTP_1 = HttpHeaders.ascii("HTTP/1.");
+
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+    private final long maxStreamedBodyBytes;
+    private final int partBytes;
+    private final int[] nameStart = new int[MAX_HEADERS];
+    private final int[] nameEnd = new int[MAX_HEADERS];
+    private final int[] valueStart = new int[MAX_HEADERS];
+    private final int[] valueEnd = new int[MAX_HEADERS];
+
+    private State state;
+    private int offset;
+    private int requestStart;
+    private int methodEnd;
+    private int uriStart;
+    private int uriEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int headerCount;
+    private int bodyStart;
+    private int bodyLength;
+    private long remaining;
+    private boolean streaming;
+    private long streamedBytes;
+    private int errorStatus;
+
+    /**
+     * Creates a parser that buffers every body.
+     *
+     * @param maxHeaderBytes the maximum size of the request line and headers
+     * @param maxBodyBytes   the maximum size of a (decoded) request body
+     */
+    public HttpRequestParser(int maxHeaderBytes, int maxBodyBytes) {
+        this(maxHeaderBytes, maxBodyBytes, 0, maxBodyBytes);
+    }
+
+    /**
+     * @param maxHeaderBytes       the maximum size of the request line and headers
+     * @param maxBodyBytes         the maximum size of a (decoded) request body that is buffered as a whole
+     * @param maxStreamedBodyBytes the maximum size of a body that is streamed in parts, not above
+     *                             maxBodyBytes to disable streaming
+     * @param partBytes            the decoded bytes of a streamed body handed out at once
+     */
+    public HttpRequestParser(int maxHeaderBytes, int maxBodyBytes, long maxStreamedBodyBytes, int partBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxStreamedBodyBytes = Math.max(maxStreamedBodyBytes, maxBodyBytes);
+        this.partBytes = partBytes;
+        reset();
+    }
+
+    /**
+     * Prepares the parser for the next request. The next request is expected to start at index 0 of the
+     * buffer, so the bytes of the previous request must have been removed (e.g. by compacting).
+     */
+    public void reset() {
+        this.state = State.REQUEST_LINE;
+        this.offset = 0;
+        this.requestStart = 0;
+        this.headerCount = 0;
+        this.bodyStart = 0;
+        this.bodyLength = 0;
+        this.remaining = 0;
+        this.streaming = false;
+        this.streamedBytes = 0;
+        this.errorStatus = 0;
+    }
+
+    /**
+     * Parses the bytes received so far.
+     *
+     * @param buffer the buffer in fill mode holding the request at [0, position)
+     * @return returns COMPLETE once the whole request including its body is available, BODY_PART if the
+     * next part of a streamed body is available, INVALID if the request is malformed or too large (see
+     * {@link #errorStatus()}) and INCOMPLETE otherwise
+     */
+    public Result parse(ByteBuffer buffer) {
+        int limit = buffer.position();
+        while (true) {
+            switch (this.state) {
+                case REQUEST_LINE:
+                    if (!parseRequestLine(buffer, limit)) {
+                        return pending(buffer, limit);
+                    }
+                    break;
+                case HEADERS:
+                    if (!parseHeaderLine(buffer, limit)) {
+                        return pending(buffer, limit);
+                    }
+                    break;
+                case BODY:
+                    if (this.streaming) {
+                        if (!streamBody(limit)) {
+                            return pending(buffer, limit);
+                        }
+                        break;
+                    }
+                    if (limit - this.bodyStart < this.bodyLength) {
+                        return Result.INCOMPLETE;
+                    }
+                    this.offset = this.bodyStart + this.bodyLength;
+                    this.state = State.COMPLETE;
+                    break;
+                case CHUNK_SIZE:
+                    if (!parseChunkSize(buffer, limit)) {
+                        return pending(buffer, limit);
+                    }
+                    break;
+                case CHUNK_DATA:
+                    if (!moveChunkData(buffer, limit)) {
+                        return pending(buffer, limit);
+                    }
+                    break;
+                case CHUNK_DATA_END:
+                    if (limit - this.offset < 2) {
+                        return pending(buffer, limit);
+                    }
+                    if (buffer.get(this.offset) != '\r' || buffer.get(this.offset + 1) != '\n') {
+                        return invalid(STATUS_BAD_REQUEST);
+                    }
+                    this.offset += 2;
+                    this.state = State.CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    int lineEnd = indexOfLineFeed(buffer, this.offset, limit);
+                    if (lineEnd < 0) {
+                        return pending(buffer, limit);
+                    }
+                    boolean emptyLine = lineEnd == this.offset || (lineEnd == this.offset + 1
+                            && buffer.get(this.offset) == '\r');
+                    this.offset = lineEnd + 1;
+                    if (emptyLine) {
+                        this.state = State.COMPLETE;
+                    }
+                    break;
+                case COMPLETE:
+                    return Result.COMPLETE;
+                default:
+                    return Result.INVALID;
+            }
+        }
+    }
+
+    /**
+     * @return returns the http status that describes why the request is invalid
+     */
+    public int errorStatus() {
+        return this.errorStatus;
+    }
+
+    /**
+     * @return returns the number of raw bytes of the complete request, i.e. the bytes to consume
+     */
+    public int requestLength() {
+        return this.offset;
+    }
+
+    public int bodyStart() {
+        return this.bodyStart;
+    }
+
+    public int bodyLength() {
+        return this.bodyLength;
+    }
+
+    /**
+     * @return returns true if the body of the current request is streamed in parts
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * @return returns the body bytes of the current request that were handed out in earlier parts
+     */
+    public long streamedBytes() {
+        return this.streamedBytes;
+    }
+
+    /**
+     * Removes the part of a streamed body that has been handled from the buffer, keeping the headers and
+     * the bytes that have not been parsed yet. Call it after BODY_PART, before reading more bytes.
+     *
+     * @param buffer the buffer in fill mode that has been parsed
+     */
+    public void consumeBodyPart(ByteBuffer buffer) {
+        int position = buffer.position();
+        for (int i = this.offset; i < position; i++) {
+            buffer.put(this.bodyStart + i - this.offset, buffer.get(i));
+        }
+        buffer.position(this.bodyStart + position - this.offset);
+        this.streamedBytes += this.bodyLength;
+        this.bodyLength = 0;
+        this.offset = this.bodyStart;
+    }
+
+    /**
+     * @param buffer the buffer that has been parsed
+     * @return returns a view of the (decoded) request body, or of the current part of a streamed body
+     */
+    public ByteBuffer body(ByteBuffer buffer) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(this.bodyStart + this.bodyLength);
+        body.position(this.bodyStart);
+        return body;
+    }
+
+    /**
+     * @param buffer the buffer that has been parsed
+     * @return returns true for a HTTP/1.1 request, false for HTTP/1.0
+     */
+    public boolean isHttp11(ByteBuffer buffer) {
+        return buffer.get(this.versionEnd - 1) == '1';
+    }
+
+    /**
+     * @param buffer the buffer that has been parsed
+     * @param method the method in upper case e.g. GET
+     * @return returns true if the request has the method
+     */
+    public boolean methodEquals(ByteBuffer buffer, byte[] method) {
+        return regionEquals(buffer, this.requestStart, this.methodEnd, method, false);
+    }
+
+    public boolean uriEquals(ByteBuffer buffer, byte[] uri) {
+        return regionEquals(buffer, this.uriStart, this.uriEnd, uri, false);
+    }
+
+    public boolean uriStartsWith(ByteBuffer buffer, byte[] prefix) {
+        return this.uriEnd - this.uriStart >= prefix.length
+                && regionEquals(buffer, this.uriStart, this.uriStart + prefix.length, prefix, false);
+    }
+
+    public int uriStart() {
+        return this.uriStart;
+    }
+
+    public int uriEnd() {
+        return this.uriEnd;
+    }
+
+    public int headerCount() {
+        return this.headerCount;
+    }
+
+    /**
+     * @param buffer the buffer that has been parsed
+     * @param name   the header name in lower case, see {@link HttpHeaders}
+     * @return returns the index of the first header with the name or -1 if absent
+     */
+    public int indexOfHeader(ByteBuffer buffer, byte[] name) {
+        for (int i = 0; i < this.headerCount; i++) {
+            if (regionEquals(buffer, this.nameStart[i], this.nameEnd[i], name, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int headerValueStart(int index) {
+        return this.valueStart[index];
+    }
+
+    public int headerValueEnd(int index) {
+        return this.valueEnd[index];
+    }
+
+    /**
+     * Checks a comma separated header value such as "Connection: keep-alive, Upgrade" for a token.
+     *
+     * @param buffer the buffer that has been parsed
+     * @param name   the header name in lower case
+     * @param token  the token in lower case
+     * @return returns true if any header with the name contains the token
+     */
+    public boolean headerContainsToken(ByteBuffer buffer, byte[] name, byte[] token) {
+        for (int i = 0; i < this.headerCount; i++) {
+            if (!regionEquals(buffer, this.nameStart[i], this.nameEnd[i], name, true)) {
+                continue;
+            }
+            int tokenStart = this.valueStart[i];
+            while (tokenStart < this.valueEnd[i]) {
+                int tokenEnd = tokenStart;
+                while (tokenEnd < this.valueEnd[i] && buffer.get(tokenEnd) != ',') {
+                    tokenEnd++;
+                }
+                int next = tokenEnd + 1;
+                tokenStart = skipBlanks(buffer, tokenStart, tokenEnd);
+                while (tokenEnd > tokenStart && isBlank(buffer.get(tokenEnd - 1))) {
+                    tokenEnd--;
+                }
+                if (regionEquals(buffer, tokenStart, tokenEnd, token, true)) {
+                    return true;
+                }
+                tokenStart = next;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param buffer the buffer that has been parsed
+     * @param name   the header name in lower case
+     * @return returns the decimal value of the header, -1 if absent and -2 if not a number
+     */
+    public long headerValueAsLong(ByteBuffer buffer, byte[] name) {
+        int index = indexOfHeader(buffer, name);
+        if (index < 0) {
+            return -1;
+        }
+        int start = this.valueStart[index];
+        int end = this.valueEnd[index];
+        if (start == end || end - start > 18) {
+            return -2;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return -2;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Compares a region of the buffer with the expected bytes.
+     *
+     * @param ignoreCase if true the region is lower cased before comparing, expected must be lower case
+     */
+    public static boolean regionEquals(ByteBuffer buffer, int start, int end, byte[] expected, boolean ignoreCase) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            byte b = buffer.get(start + i);
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseRequestLine(ByteBuffer buffer, int limit) {
+        int lineEnd = indexOfLineFeed(buffer, this.offset, limit);
+        if (lineEnd < 0) {
+            return false;
+        }
+        int contentEnd = lineEnd > this.offset && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+        if (contentEnd == this.offset) {
+            // tolerate empty lines before the request line
+            this.offset = lineEnd + 1;
+            this.requestStart = this.offset;
+            return true;
+        }
+        int firstSpace = indexOf(buffer, this.offset, contentEnd, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(buffer, firstSpace + 1, contentEnd, (byte) ' ');
+        if (firstSpace <= this.offset || secondSpace <= firstSpace + 1) {
+            invalid(STATUS_BAD_REQUEST);
+            return true;
+        }
+        this.methodEnd = firstSpace;
+        this.uriStart = firstSpace + 1;
+        this.uriEnd = secondSpace;
+        this.versionStart = secondSpace + 1;
+        this.versionEnd = contentEnd;
+        if (this.versionEnd - this.versionStart != HTTP_1.length + 1
+                || !regionEquals(buffer, this.versionStart, this.versionStart + HTTP_1.length, HTTP_1, false)) {
+            invalid(STATUS_BAD_REQUEST);
+            return true;
+        }
+        this.offset = lineEnd + 1;
+        this.state = State.HEADERS;
+        return true;
+    }
+
+    private boolean parseHeaderLine(ByteBuffer buffer, int limit) {
+        int lineEnd = indexOfLineFeed(buffer, this.offset, limit);
+        if (lineEnd < 0) {
+            return false;
+        }
+        if (lineEnd - this.requestStart > this.maxHeaderBytes) {
+            invalid(STATUS_HEADERS_TOO_LARGE);
+            return true;
+        }
+        int contentEnd = lineEnd > this.offset && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+        if (contentEnd == this.offset) {
+            this.offset = lineEnd + 1;
+            startBody(buffer);
+            return true;
+        }
+        int colon = indexOf(buffer, this.offset, contentEnd, (byte) ':');
+        if (colon <= this.offset || isBlank(buffer.get(this.offset)) || isBlank(buffer.get(colon - 1))) {
+            // also rejects obsolete line folding
+            invalid(STATUS_BAD_REQUEST);
+            return true;
+        }
+        if (this.headerCount == MAX_HEADERS) {
+            invalid(STATUS_HEADERS_TOO_LARGE);
+            return true;
+        }
+        int valueEnd = contentEnd;
+        while (valueEnd > colon + 1 && isBlank(buffer.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+        this.nameStart[this.headerCount] = this.offset;
+        this.nameEnd[this.headerCount] = colon;
+        this.valueStart[this.headerCount] = skipBlanks(buffer, colon + 1, valueEnd);
+        this.valueEnd[this.headerCount] = valueEnd;
+        this.headerCount++;
+        this.offset = lineEnd + 1;
+        return true;
+    }
+
+    private void startBody(ByteBuffer buffer) {
+        this.bodyStart = this.offset;
+        if (indexOfHeader(buffer, HttpHeaders.TRANSFER_ENCODING) >= 0) {
+            // transfer encoding takes precedence over Content-Length
+            if (!headerContainsToken(buffer, HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CHUNKED)) {
+                invalid(STATUS_NOT_IMPLEMENTED);
+                return;
+            }
+            this.state = State.CHUNK_SIZE;
+            return;
+        }
+        long contentLength = headerValueAsLong(buffer, HttpHeaders.CONTENT_LENGTH);
+        if (contentLength == -2) {
+            invalid(STATUS_BAD_REQUEST);
+            return;
+        }
+        if (contentLength > this.maxStreamedBodyBytes) {
+            invalid(STATUS_PAYLOAD_TOO_LARGE);
+            return;
+        }
+        if (contentLength > this.maxBodyBytes) {
+            this.streaming = true;
+            this.remaining = contentLength;
+        } else {
+            this.bodyLength = (int) Math.max(contentLength, 0);
+        }
+        this.state = State.BODY;
+    }
+
+    /**
+     * Takes the received bytes of a streamed Content-Length body into the current part.
+     *
+     * @return returns true once the body is complete
+     */
+    private boolean streamBody(int limit) {
+        int available = (int) Math.min(limit - this.offset, this.remaining);
+        this.offset += available;
+        this.bodyLength += available;
+        this.remaining -= available;
+        if (this.remaining > 0) {
+            return false;
+        }
+        this.state = State.COMPLETE;
+        return true;
+    }
+
+    private boolean parseChunkSize(ByteBuffer buffer, int limit) {
+        int lineEnd = indexOfLineFeed(buffer, this.offset, limit);
+        if (lineEnd < 0) {
+            return false;
+        }
+        long size = 0;
+        int digits = 0;
+        for (int i = this.offset; i < lineEnd; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit < 0) {
+                // chunk extensions (";name=value") and the CR are ignored
+                break;
+            }
+            if (++digits > 8) {
+                invalid(STATUS_PAYLOAD_TOO_LARGE);
+                return true;
+            }
+            size = size * 16 + digit;
+        }
+        if (digits == 0) {
+            invalid(STATUS_BAD_REQUEST);
+            return true;
+        }
+        long bodyBytes = this.streamedBytes + this.bodyLength + size;
+        if (bodyBytes > this.maxStreamedBodyBytes) {
+            invalid(STATUS_PAYLOAD_TOO_LARGE);
+            return true;
+        }
+        if (bodyBytes > this.maxBodyBytes) {
+            // the chunks that arrived so far become the first part
+            this.streaming = true;
+        }
+        this.offset = lineEnd + 1;
+        this.remaining = size;
+        this.state = size == 0 ? State.TRAILERS : State.CHUNK_DATA;
+        return true;
+    }
+
+    /**
+     * Moves the received bytes of the current chunk to the end of the decoded body.
+     *
+     * @return returns true once the chunk is complete
+     */
+    private boolean moveChunkData(ByteBuffer buffer, int limit) {
+        int available = (int) Math.min(limit - this.offset, this.remaining);
+        int target = this.bodyStart + this.bodyLength;
+        if (target != this.offset) {
+            for (int i = 0; i < available; i++) {
+                buffer.put(target + i, buffer.get(this.offset + i));
+            }
+        }
+        this.offset += available;
+        this.bodyLength += available;
+        this.remaining -= available;
+        if (this.remaining > 0) {
+            return false;
+        }
+        this.state = State.CHUNK_DATA_END;
+        return true;
+    }
+
+    private Result pending(ByteBuffer buffer, int limit) {
+        if (this.state == State.INVALID) {
+            return Result.INVALID;
+        }
+        if ((this.state == State.REQUEST_LINE || this.state == State.HEADERS)
+                && limit - this.requestStart > this.maxHeaderBytes) {
+            return invalid(STATUS_HEADERS_TOO_LARGE);
+        }
+        if (this.streaming && this.bodyLength > 0
+                && (this.bodyLength >= this.partBytes || limit == buffer.capacity())) {
+            // hand out the part instead of growing the buffer
+            return Result.BODY_PART;
+        }
+        return Result.INCOMPLETE;
+    }
+
+    private Result invalid(int status) {
+        this.state = State.INVALID;
+        this.errorStatus = status;
+        return Result.INVALID;
+    }
+
+    private static int indexOfLineFeed(ByteBuffer buffer, int from, int limit) {
+        return indexOf(buffer, from, limit, (byte) '\n');
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int limit, byte value) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipBlanks(ByteBuffer buffer, int from, int limit) {
+        while (from < limit && isBlank(buffer.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,40 @@
+package org.chorano.server.request.response;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The content codings the server compresses responses with, see {@link ResponseCompression}.
+ */
+public enum ContentEncoding {
+
+    /**
+     * A raw deflate stream framed by the gzip header and trailer (RFC 1952).
+     */
+    GZIP(HttpResponses.ascii("Content-Encoding: gzip\r\n"), true),
+    /**
+     * A deflate stream in the zlib format (RFC 1950), which is what "deflate" means in http.
+     */
+    DEFLATE(HttpResponses.ascii("Content-Encoding: deflate\r\n"), false);
+
+    private final ByteBuffer header;
+    private final boolean nowrap;
+
+    ContentEncoding(ByteBuffer header, boolean nowrap) {
+        this.header = header;
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * @return returns the pre-encoded Content-Encoding header
+     */
+    public ByteBuffer header() {
+        return this.header;
+    }
+
+    /**
+     * @return returns true if the deflater writes a raw deflate stream without the zlib header
+     */
+    boolean nowrap() {
+        return this.nowrap;
+    }
+}
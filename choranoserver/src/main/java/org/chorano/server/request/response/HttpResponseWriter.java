@@ -0,0 +1,386 @@
+package org.chorano.server.request.response;
+
+import org.chorano.server.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Assembles a http response from pre-encoded parts (see {@link HttpResponses}) and body buffers and sends
+ * it with a single gathering write. The Content-Length header is computed from the body parts.
+ *
+ * <pre>
+ * writer.status(HttpResponses.STATUS_200)
+ *       .header(HttpResponses.CONTENT_TYPE_TEXT_PLAIN)
+ *       .connection(keepAlive)
+ *       .body(entity)
+ *       .finish()
+ *       .writeFully(channel);
+ * </pre>
+ *
+ * A writer belongs to one connection and is reused for all of its responses. Shared templates are never
+ * written directly; the writer keeps its own duplicates of them, so assembling a response allocates
+ * nothing. Not thread safe.
+ *
+ * The body may end with a region of a file (see {@link #fileBody(FileChannel, long, long)}), which is
+ * sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)} after the buffers, i.e. with
+ * sendfile where the platform supports it.
+ *
+ * The body may also be compressed (see {@link #compress(ContentEncoding)}) before the header is finished.
+ */
+public final class HttpResponseWriter {
+
+    private static final int MAX_PARTS = 16;
+    private static final ByteBuffer CRLF = HttpResponses.ascii("\r\n");
+
+    private final ByteBuffer[] parts = new ByteBuffer[MAX_PARTS];
+    private final ByteBuffer[] templates = new ByteBuffer[MAX_PARTS];
+    private final ByteBuffer[] views = new ByteBuffer[MAX_PARTS];
+    private final ByteBuffer contentLength = ByteBuffer.allocate(HttpResponses.CONTENT_LENGTH.length + 21);
+    private final byte[] digits = new byte[20];
+    private int templateCount;
+    private int count;
+    private int bodyIndex = -1;
+    private int next;
+    private long bytesWritten;
+    private FileChannel file;
+    private long filePosition;
+    private long fileRemaining;
+    private ByteBuffer compressed;
+    private ContentEncoding encoding;
+
+    /**
+     * Starts a new response.
+     *
+     * @param statusLine the pre-encoded status line
+     * @return returns this writer
+     */
+    public HttpResponseWriter status(ByteBuffer statusLine) {
+        clear();
+        return add(view(statusLine));
+    }
+
+    /**
+     * Starts a new response that consists of a single pre-encoded buffer, e.g. an error response.
+     *
+     * @param response the pre-encoded response
+     * @return returns this writer
+     */
+    public HttpResponseWriter complete(ByteBuffer response) {
+        clear();
+        return add(view(response));
+    }
+
+    public HttpResponseWriter header(ByteBuffer header) {
+        return add(view(header));
+    }
+
+    /**
+     * Appends headers encoded for this response only. The buffer is written from its position to its limit
+     * and must not be modified until the response has been written.
+     *
+     * @param headers one or more header lines
+     * @return returns this writer
+     */
+    public HttpResponseWriter encodedHeader(ByteBuffer headers) {
+        return add(headers);
+    }
+
+    /**
+     * Swaps headers appended with {@link #encodedHeader(ByteBuffer)} for others, e.g. for the ETag of the
+     * compressed variant once {@link #compress(ContentEncoding)} has encoded the body.
+     *
+     * @param headers     the buffer passed to encodedHeader
+     * @param replacement the headers to write instead, under the same conditions as encodedHeader
+     * @return returns this writer
+     */
+    public HttpResponseWriter replaceHeader(ByteBuffer headers, ByteBuffer replacement) {
+        int headerEnd = this.bodyIndex < 0 ? this.count : this.bodyIndex;
+        for (int i = 0; i < headerEnd; i++) {
+            if (this.parts[i] == headers) {
+                this.parts[i] = replacement;
+                return this;
+            }
+        }
+        throw new IllegalArgumentException("No such header part");
+    }
+
+    public HttpResponseWriter connection(boolean keepAlive) {
+        return header(keepAlive ? HttpResponses.CONNECTION_KEEP_ALIVE : HttpResponses.CONNECTION_CLOSE);
+    }
+
+    /**
+     * Appends a part of the body. The buffer is written from its position to its limit and must not be
+     * modified until the response has been written.
+     *
+     * @param body the body part
+     * @return returns this writer
+     */
+    public HttpResponseWriter body(ByteBuffer body) {
+        if (this.bodyIndex < 0) {
+            this.bodyIndex = this.count;
+        }
+        return add(body);
+    }
+
+    /**
+     * Appends a pre-encoded part of the body.
+     *
+     * @param template the shared body part
+     * @return returns this writer
+     */
+    public HttpResponseWriter bodyTemplate(ByteBuffer template) {
+        return body(view(template));
+    }
+
+    /**
+     * Ends the body with a region of a file. The writer owns the channel from now on and closes it once the
+     * region has been written or the response is dropped.
+     *
+     * @param file     the open file
+     * @param position the offset of the region in the file
+     * @param count    the length of the region
+     * @return returns this writer
+     */
+    public HttpResponseWriter fileBody(FileChannel file, long position, long count) {
+        if (this.bodyIndex < 0) {
+            this.bodyIndex = this.count;
+        }
+        this.file = file;
+        this.filePosition = position;
+        this.fileRemaining = count;
+        return this;
+    }
+
+    /**
+     * Compresses the body parts appended so far, see {@link ResponseCompression}. A body below
+     * http.compression.min.bytes or one that ends with a file region is left alone, as is a body that does
+     * not get smaller. Every response with a body large enough to be compressed gets Vary: Accept-Encoding,
+     * whether it is compressed or not, so that caches keep the variants apart.
+     *
+     * @param encoding the coding negotiated with the client or null if it accepts none
+     * @return returns this writer
+     */
+    public HttpResponseWriter compress(ContentEncoding encoding) {
+        if (!ResponseCompression.ENABLED || this.bodyIndex < 0 || this.file != null) {
+            return this;
+        }
+        long length = 0;
+        for (int i = this.bodyIndex; i < this.count; i++) {
+            length += this.parts[i].remaining();
+        }
+        if (length < ResponseCompression.MIN_BYTES || length > Integer.MAX_VALUE) {
+            return this;
+        }
+        ByteBuffer compressed = encoding == null ? null
+                : ResponseCompression.compress(this.parts, this.bodyIndex, this.count, (int) length, encoding);
+        if (compressed == null) {
+            if (this.count == MAX_PARTS) {
+                throw new IllegalStateException("Too many response parts");
+            }
+            System.arraycopy(this.parts, this.bodyIndex, this.parts, this.bodyIndex + 1, this.count - this.bodyIndex);
+            this.parts[this.bodyIndex++] = view(HttpResponses.VARY_ACCEPT_ENCODING);
+            this.count++;
+            return this;
+        }
+        if (!compressed.isReadOnly()) {
+            // shared buffers from the cache are read-only, everything else was leased for this response
+            this.compressed = compressed;
+        }
+        for (int i = this.bodyIndex; i < this.count; i++) {
+            this.parts[i] = null;
+        }
+        this.count = this.bodyIndex;
+        this.encoding = encoding;
+        add(view(HttpResponses.VARY_ACCEPT_ENCODING));
+        add(view(encoding.header()));
+        this.bodyIndex = this.count;
+        return add(compressed);
+    }
+
+    /**
+     * @return returns the coding {@link #compress(ContentEncoding)} encoded the body with, null if it is sent
+     * as it is
+     */
+    public ContentEncoding contentEncoding() {
+        return this.encoding;
+    }
+
+    /**
+     * Ends the header with the Content-Length of the body parts.
+     *
+     * @return returns this writer
+     */
+    public HttpResponseWriter finish() {
+        int bodyStart = this.bodyIndex < 0 ? this.count : this.bodyIndex;
+        long length = this.fileRemaining;
+        for (int i = bodyStart; i < this.count; i++) {
+            length += this.parts[i].remaining();
+        }
+        return finish(length);
+    }
+
+    /**
+     * Ends the header with the given Content-Length, e.g. the length of the body a HEAD request leaves out.
+     *
+     * @param length the Content-Length
+     * @return returns this writer
+     */
+    public HttpResponseWriter finish(long length) {
+        int bodyStart = this.bodyIndex < 0 ? this.count : this.bodyIndex;
+        if (this.count + 2 > MAX_PARTS) {
+            throw new IllegalStateException("Too many response parts");
+        }
+        System.arraycopy(this.parts, bodyStart, this.parts, bodyStart + 2, this.count - bodyStart);
+        this.parts[bodyStart] = encodeContentLength(length);
+        this.parts[bodyStart + 1] = view(CRLF);
+        this.count += 2;
+        return this;
+    }
+
+    /**
+     * Ends the header without a Content-Length, for a response that never has a body such as a 304.
+     *
+     * @return returns this writer
+     */
+    public HttpResponseWriter finishWithoutBody() {
+        return add(view(CRLF));
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts. Used with non-blocking channels.
+     *
+     * @param channel the channel
+     * @return returns true once the whole response has been written
+     * @throws IOException if the write fails
+     */
+    public boolean write(WritableByteChannel channel) throws IOException {
+        if (this.next < this.count) {
+            if (channel instanceof GatheringByteChannel) {
+                this.bytesWritten += ((GatheringByteChannel) channel)
+                        .write(this.parts, this.next, this.count - this.next);
+            } else {
+                this.bytesWritten += channel.write(this.parts[this.next]);
+            }
+            while (this.next < this.count && !this.parts[this.next].hasRemaining()) {
+                this.parts[this.next++] = null;
+            }
+            if (this.next < this.count) {
+                return false;
+            }
+        }
+        if (this.fileRemaining > 0) {
+            long transferred = this.file.transferTo(this.filePosition, this.fileRemaining, channel);
+            if (transferred == 0 && this.filePosition >= this.file.size()) {
+                throw new IOException("File shrank while it was sent");
+            }
+            this.filePosition += transferred;
+            this.fileRemaining -= transferred;
+            this.bytesWritten += transferred;
+            if (this.fileRemaining > 0) {
+                return false;
+            }
+        }
+        closeFile();
+        return true;
+    }
+
+    /**
+     * Writes the whole response to a blocking channel.
+     *
+     * @param channel the channel
+     * @throws IOException if the write fails
+     */
+    public void writeFully(WritableByteChannel channel) throws IOException {
+        while (!write(channel)) {
+            // a blocking channel may still write partially, e.g. when interrupted by a signal
+        }
+    }
+
+    /**
+     * @return returns the number of bytes of the current response written so far
+     */
+    public long bytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * Drops the current response, e.g. when the connection closes before it has been written.
+     */
+    public void abort() {
+        clear();
+    }
+
+    private void clear() {
+        closeFile();
+        BufferPool.instance().release(this.compressed);
+        this.compressed = null;
+        this.encoding = null;
+        for (int i = 0; i < this.count; i++) {
+            this.parts[i] = null;
+        }
+        this.count = 0;
+        this.next = 0;
+        this.bytesWritten = 0;
+        this.bodyIndex = -1;
+    }
+
+    private void closeFile() {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            // nothing left to read from it
+        }
+        this.file = null;
+        this.fileRemaining = 0;
+    }
+
+    private HttpResponseWriter add(ByteBuffer part) {
+        if (this.count == MAX_PARTS) {
+            throw new IllegalStateException("Too many response parts");
+        }
+        this.parts[this.count++] = part;
+        return this;
+    }
+
+    /**
+     * @return returns the rewound duplicate of a shared template owned by this writer
+     */
+    private ByteBuffer view(ByteBuffer template) {
+        for (int i = 0; i < this.templateCount; i++) {
+            if (this.templates[i] == template) {
+                ByteBuffer view = this.views[i];
+                view.clear();
+                return view;
+            }
+        }
+        ByteBuffer view = template.duplicate();
+        if (this.templateCount < MAX_PARTS) {
+            this.templates[this.templateCount] = template;
+            this.views[this.templateCount++] = view;
+        }
+        return view;
+    }
+
+    private ByteBuffer encodeContentLength(long length) {
+        int digitCount = 0;
+        do {
+            this.digits[digitCount++] = (byte) ('0' + length % 10);
+            length /= 10;
+        } while (length > 0);
+        this.contentLength.clear();
+        this.contentLength.put(HttpResponses.CONTENT_LENGTH);
+        while (digitCount > 0) {
+            this.contentLength.put(this.digits[--digitCount]);
+        }
+        this.contentLength.put((byte) '\r').put((byte) '\n');
+        this.contentLength.flip();
+        return this.contentLength;
+    }
+}
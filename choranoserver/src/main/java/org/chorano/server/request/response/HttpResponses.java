@@ -0,0 +1,75 @@
+package org.chorano.server.request.response;
+
+import org.chorano.server.util.PropUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Status lines, headers and complete responses that are encoded once and shared by all connections.
+ * The buffers are read-only; a writer works on its own duplicates so that positions are never shared.
+ */
+public final class HttpResponses {
+
+    private HttpResponses() {
+
+    }
+
+    public static final ByteBuffer STATUS_200 = ascii("HTTP/1.1 200 OK\r\n");
+    public static final ByteBuffer STATUS_206 = ascii("HTTP/1.1 206 Partial Content\r\n");
+    public static final ByteBuffer STATUS_304 = ascii("HTTP/1.1 304 Not Modified\r\n");
+    public static final ByteBuffer STATUS_404 = ascii("HTTP/1.1 404 Not Found\r\n");
+    public static final ByteBuffer STATUS_416 = ascii("HTTP/1.1 416 Range Not Satisfiable\r\n");
+
+    public static final ByteBuffer CONTENT_TYPE_TEXT_PLAIN = ascii("Content-Type: text/plain\r\n");
+    public static final ByteBuffer CONTENT_TYPE_PROMETHEUS =
+            ascii("Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n");
+    public static final ByteBuffer CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    public static final ByteBuffer CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    public static final ByteBuffer ACCEPT_RANGES_BYTES = ascii("Accept-Ranges: bytes\r\n");
+    public static final ByteBuffer VARY_ACCEPT_ENCODING = ascii("Vary: Accept-Encoding\r\n");
+
+    public static final ByteBuffer BAD_REQUEST = error("400 Bad Request");
+    public static final ByteBuffer PAYLOAD_TOO_LARGE = error("413 Payload Too Large");
+    public static final ByteBuffer HEADERS_TOO_LARGE = error("431 Request Header Fields Too Large");
+    public static final ByteBuffer NOT_IMPLEMENTED = error("501 Not Implemented");
+    public static final ByteBuffer INTERNAL_SERVER_ERROR = error("500 Internal Server Error");
+
+    /**
+     * Answer to a request the server sheds under overload. Retry-After tells the client when to come back.
+     */
+    public static final ByteBuffer SERVICE_UNAVAILABLE = ascii("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: " + PropUtil.getIntPropVal("admission.retry.after.seconds", 1) + "\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n");
+
+    static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param status the http status of a rejected request
+     * @return returns the complete pre-encoded response that closes the connection
+     */
+    public static ByteBuffer errorResponse(int status) {
+        switch (status) {
+            case 400:
+                return BAD_REQUEST;
+            case 413:
+                return PAYLOAD_TOO_LARGE;
+            case 431:
+                return HEADERS_TOO_LARGE;
+            case 501:
+                return NOT_IMPLEMENTED;
+            case 503:
+                return SERVICE_UNAVAILABLE;
+            default:
+                return INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    public static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer error(String status) {
+        return ascii("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    }
+}
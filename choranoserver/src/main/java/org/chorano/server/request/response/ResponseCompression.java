@@ -0,0 +1,432 @@
+package org.chorano.server.request.response;
+
+import org.chorano.server.buffer.BufferPool;
+import org.chorano.server.executor.VirtualThreads;
+import org.chorano.server.request.parser.HttpHeaders;
+import org.chorano.server.request.parser.HttpRequestParser;
+import org.chorano.server.util.PropUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Negotiates the content coding of a response (Accept-Encoding) and compresses response bodies with gzip or
+ * deflate, see {@link HttpResponseWriter#compress(ContentEncoding)}. Bodies below http.compression.min.bytes
+ * are not worth the cpu and are sent as they are.
+ *
+ * A {@link Deflater} holds about 256 KB of native zlib memory, so the deflaters are pooled per coding
+ * (http.compression.pool.size) rather than created per response. Bodies of up to
+ * http.compression.cache.max.body.bytes that are seen a second time are kept compressed in an LRU cache of
+ * http.compression.cache.bytes, so a body that is sent again and again is compressed only once. The first
+ * sighting only remembers the hash of the body, so that unique bodies do not churn the cache.
+ */
+public final class ResponseCompression {
+
+    private ResponseCompression() {
+
+    }
+
+    static final boolean ENABLED = Boolean.parseBoolean(PropUtil.getPropVal("http.compression.enabled", "true"));
+    static final int MIN_BYTES = PropUtil.getIntPropVal("http.compression.min.bytes", 1024);
+    private static final int LEVEL = PropUtil.getIntPropVal("http.compression.level", 6);
+    private static final int POOL_SIZE = PropUtil.getIntPropVal("http.compression.pool.size", 32);
+    private static final long CACHE_BYTES = PropUtil.getIntPropVal("http.compression.cache.bytes", 4 * 1024 * 1024);
+    private static final int CACHE_MAX_BODY_BYTES =
+            PropUtil.getIntPropVal("http.compression.cache.max.body.bytes", 64 * 1024);
+    private static final int CHUNK_BYTES = 8192;
+    private static final int SEEN_SLOTS = 4096;
+    private static final int GZIP_TRAILER_BYTES = 8;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte[] INCOMPRESSIBLE = new byte[0];
+
+    private static final BlockingQueue<Deflater> GZIP_DEFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+    private static final BlockingQueue<Deflater> DEFLATE_DEFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    private static final BlockingQueue<Scratch> SHARED_SCRATCH = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+    private static final LinkedHashMap<BodyKey, byte[]> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Hashes of bodies seen once; racy on purpose, a lost update only delays caching a body.
+     */
+    private static final int[] SEEN = new int[SEEN_SLOTS];
+    private static final LongAdder COMPRESSED = new LongAdder();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static long cacheBytes;
+
+    /**
+     * Picks the coding of the response from the Accept-Encoding header of the request, honouring q-values.
+     * gzip wins over deflate when both are equally acceptable.
+     *
+     * @param parser the parser holding a complete request
+     * @param buffer the buffer the request was parsed from
+     * @return returns the coding to compress the response with or null if the client accepts neither
+     */
+    public static ContentEncoding negotiate(HttpRequestParser parser, ByteBuffer buffer) {
+        if (!ENABLED) {
+            return null;
+        }
+        int index = parser.indexOfHeader(buffer, HttpHeaders.ACCEPT_ENCODING);
+        if (index < 0) {
+            return null;
+        }
+        int gzip = -1;
+        int deflate = -1;
+        int any = -1;
+        int end = parser.headerValueEnd(index);
+        int start = parser.headerValueStart(index);
+        while (start < end) {
+            int next = start;
+            while (next < end && buffer.get(next) != ',') {
+                next++;
+            }
+            int tokenEnd = start;
+            while (tokenEnd < next && buffer.get(tokenEnd) != ';') {
+                tokenEnd++;
+            }
+            int quality = quality(buffer, tokenEnd, next);
+            while (start < tokenEnd && isBlank(buffer.get(start))) {
+                start++;
+            }
+            while (tokenEnd > start && isBlank(buffer.get(tokenEnd - 1))) {
+                tokenEnd--;
+            }
+            if (HttpRequestParser.regionEquals(buffer, start, tokenEnd, HttpHeaders.GZIP, true)
+                    || HttpRequestParser.regionEquals(buffer, start, tokenEnd, HttpHeaders.X_GZIP, true)) {
+                gzip = quality;
+            } else if (HttpRequestParser.regionEquals(buffer, start, tokenEnd, HttpHeaders.DEFLATE, true)) {
+                deflate = quality;
+            } else if (HttpRequestParser.regionEquals(buffer, start, tokenEnd, HttpHeaders.ANY, false)) {
+                any = quality;
+            }
+            start = next + 1;
+        }
+        // codings that are not listed are only acceptable through *
+        if (gzip < 0) {
+            gzip = Math.max(any, 0);
+        }
+        if (deflate < 0) {
+            deflate = Math.max(any, 0);
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return ContentEncoding.GZIP;
+        }
+        return deflate > 0 ? ContentEncoding.DEFLATE : null;
+    }
+
+    /**
+     * Compresses a body that is spread over several buffers.
+     *
+     * @param parts    the body parts, read from their positions to their limits and left unchanged
+     * @param from     the index of the first part
+     * @param to       the index after the last part
+     * @param length   the bytes of all parts together
+     * @param encoding the coding
+     * @return returns the compressed body: either a read-only buffer shared through the cache or a buffer
+     * leased from the {@link BufferPool}, which the caller has to release. Returns null if the body does not
+     * get smaller.
+     */
+    static ByteBuffer compress(ByteBuffer[] parts, int from, int to, int length, ContentEncoding encoding) {
+        if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+            return compress(parts, from, to, length, encoding, SCRATCH.get());
+        }
+        // a virtual thread ends with its connection, so it borrows a shared scratch instead of growing its own
+        Scratch scratch = SHARED_SCRATCH.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        try {
+            return compress(parts, from, to, length, encoding, scratch);
+        } finally {
+            SHARED_SCRATCH.offer(scratch);
+        }
+    }
+
+    private static ByteBuffer compress(ByteBuffer[] parts, int from, int to, int length, ContentEncoding encoding,
+                                       Scratch scratch) {
+        if (length > CACHE_MAX_BODY_BYTES || CACHE_BYTES <= 0) {
+            return deflate(encoding, scratch, parts, from, to, null, length);
+        }
+        byte[] body = scratch.body(length);
+        int offset = 0;
+        for (int i = from; i < to; i++) {
+            int remaining = parts[i].remaining();
+            parts[i].duplicate().get(body, offset, remaining);
+            offset += remaining;
+        }
+        int hash = 31 * encoding.ordinal() + hash(body, length);
+        byte[] cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(scratch.probe.set(encoding, body, length, hash));
+        }
+        if (cached != null) {
+            CACHE_HITS.increment();
+            return cached == INCOMPRESSIBLE ? null : ByteBuffer.wrap(cached).asReadOnlyBuffer();
+        }
+        ByteBuffer compressed = deflate(encoding, scratch, null, 0, 0, body, length);
+        int slot = hash & (SEEN_SLOTS - 1);
+        if (SEEN[slot] != hash) {
+            SEEN[slot] = hash;
+        } else {
+            byte[] value = INCOMPRESSIBLE;
+            if (compressed != null) {
+                value = new byte[compressed.remaining()];
+                compressed.duplicate().get(value);
+            }
+            store(new BodyKey().set(encoding, Arrays.copyOf(body, length), length, hash), value);
+        }
+        return compressed;
+    }
+
+    /**
+     * @return returns the number of response bodies compressed so far, not counting cache hits
+     */
+    public static long getCompressedCount() {
+        return COMPRESSED.sum();
+    }
+
+    /**
+     * @return returns the number of bodies that were taken from the cache instead of being compressed
+     */
+    public static long getCacheHitCount() {
+        return CACHE_HITS.sum();
+    }
+
+    /**
+     * @return returns the bytes of the bodies in the cache, compressed and uncompressed
+     */
+    public static long getCacheBytes() {
+        synchronized (CACHE) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Deflates either a body array or a sequence of body parts into a leased buffer.
+     *
+     * @return returns the leased buffer in read mode or null if the output reaches the length of the input
+     */
+    private static ByteBuffer deflate(ContentEncoding encoding, Scratch scratch, ByteBuffer[] parts, int from,
+                                      int to, byte[] body, int length) {
+        BlockingQueue<Deflater> pool = encoding == ContentEncoding.GZIP ? GZIP_DEFLATERS : DEFLATE_DEFLATERS;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(LEVEL, encoding.nowrap());
+        }
+        ByteBuffer out = BufferPool.instance().lease(length);
+        boolean smaller = false;
+        try {
+            CRC32 crc = scratch.crc;
+            crc.reset();
+            if (encoding == ContentEncoding.GZIP) {
+                out.put(GZIP_HEADER);
+            }
+            if (body != null) {
+                crc.update(body, 0, length);
+                if (!feed(deflater, body, length, out, scratch.output, length)) {
+                    return null;
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    ByteBuffer part = parts[i].duplicate();
+                    while (part.hasRemaining()) {
+                        int count = Math.min(part.remaining(), CHUNK_BYTES);
+                        part.get(scratch.input, 0, count);
+                        crc.update(scratch.input, 0, count);
+                        if (!feed(deflater, scratch.input, count, out, scratch.output, length)) {
+                            return null;
+                        }
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!append(out, scratch.output, deflater.deflate(scratch.output), length)) {
+                    return null;
+                }
+            }
+            if (encoding == ContentEncoding.GZIP) {
+                if (out.position() + GZIP_TRAILER_BYTES >= length) {
+                    return null;
+                }
+                putIntLittleEndian(out, (int) crc.getValue());
+                putIntLittleEndian(out, length);
+            }
+            out.flip();
+            smaller = true;
+            COMPRESSED.increment();
+            return out;
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+            if (!smaller) {
+                BufferPool.instance().release(out);
+            }
+        }
+    }
+
+    /**
+     * @return returns false if the output reached the limit
+     */
+    private static boolean feed(Deflater deflater, byte[] input, int count, ByteBuffer out, byte[] output,
+                                int limit) {
+        deflater.setInput(input, 0, count);
+        while (!deflater.needsInput()) {
+            if (!append(out, output, deflater.deflate(output), limit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean append(ByteBuffer out, byte[] output, int count, int limit) {
+        if (out.position() + count >= limit) {
+            return false;
+        }
+        out.put(output, 0, count);
+        return true;
+    }
+
+    private static void putIntLittleEndian(ByteBuffer out, int value) {
+        out.put((byte) value).put((byte) (value >>> 8)).put((byte) (value >>> 16)).put((byte) (value >>> 24));
+    }
+
+    private static void store(BodyKey key, byte[] value) {
+        synchronized (CACHE) {
+            byte[] replaced = CACHE.put(key, value);
+            if (replaced != null) {
+                cacheBytes -= key.length + replaced.length;
+            }
+            cacheBytes += key.length + value.length;
+            Iterator<Map.Entry<BodyKey, byte[]>> eldest = CACHE.entrySet().iterator();
+            while (cacheBytes > CACHE_BYTES && eldest.hasNext()) {
+                Map.Entry<BodyKey, byte[]> evicted = eldest.next();
+                eldest.remove();
+                cacheBytes -= evicted.getKey().length + evicted.getValue().length;
+            }
+        }
+    }
+
+    /**
+     * Parses the q-value of the parameters of a coding, e.g. ";q=0.5".
+     *
+     * @return returns the quality in thousandths, 1000 if absent or malformed
+     */
+    private static int quality(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        while (i < end) {
+            // skip the ; and blanks in front of the parameter name
+            i++;
+            while (i < end && isBlank(buffer.get(i))) {
+                i++;
+            }
+            if (i + 1 < end && (buffer.get(i) == 'q' || buffer.get(i) == 'Q') && buffer.get(i + 1) == '=') {
+                return parseQuality(buffer, i + 2, end);
+            }
+            while (i < end && buffer.get(i) != ';') {
+                i++;
+            }
+        }
+        return 1000;
+    }
+
+    private static int parseQuality(ByteBuffer buffer, int start, int end) {
+        if (start >= end || (buffer.get(start) != '0' && buffer.get(start) != '1')) {
+            return 1000;
+        }
+        int quality = (buffer.get(start) - '0') * 1000;
+        int i = start + 1;
+        if (i < end && buffer.get(i) == '.') {
+            int scale = 100;
+            for (i++; i < end && scale > 0 && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+                quality += (buffer.get(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return Math.min(quality, 1000);
+    }
+
+    private static int hash(byte[] body, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + body[i];
+        }
+        return hash;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * The per-thread buffers of a compression.
+     */
+    private static final class Scratch {
+
+        private final byte[] input = new byte[CHUNK_BYTES];
+        private final byte[] output = new byte[CHUNK_BYTES];
+        private final CRC32 crc = new CRC32();
+        private final BodyKey probe = new BodyKey();
+        private byte[] body = new byte[CHUNK_BYTES];
+
+        byte[] body(int length) {
+            if (this.body.length < length) {
+                this.body = new byte[Math.min(Math.max(length, this.body.length * 2), CACHE_MAX_BODY_BYTES)];
+            }
+            return this.body;
+        }
+    }
+
+    /**
+     * An uncompressed body and its coding. The key of a cached body owns its array; the probe of a thread
+     * refers to its scratch array during a lookup.
+     */
+    private static final class BodyKey {
+
+        private ContentEncoding encoding;
+        private byte[] body;
+        private int length;
+        private int hash;
+
+        BodyKey set(ContentEncoding encoding, byte[] body, int length, int hash) {
+            this.encoding = encoding;
+            this.body = body;
+            this.length = length;
+            this.hash = hash;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BodyKey)) {
+                return false;
+            }
+            BodyKey other = (BodyKey) o;
+            if (this.hash != other.hash || this.length != other.length || this.encoding != other.encoding) {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++) {
+                if (this.body[i] != other.body[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -11,7 +11,9 @@ public interface ZkService {
 
     ZooKeeper connectZookeeper(String zkClientConnection, int sessionTimeout);
 
-    void registerInZookeeper(ZooKeeper zooKeeper, String path, String data);
+    String registerInZookeeper(ZooKeeper zooKeeper, String path, byte[] data);
+
+    boolean setNodeData(ZooKeeper zooKeeper, String path, byte[] data);
 
     void createNode(ZooKeeper zooKeeper, String path, String data, CreateMode creationMode);
 
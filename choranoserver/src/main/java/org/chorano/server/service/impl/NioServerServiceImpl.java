@@ -0,0 +1,90 @@
+package org.chorano.server.service.impl;
+
+import org.chorano.server.executor.ChoranoExecutorService;
+import org.chorano.server.metrics.ServerLoadMonitor;
+import org.chorano.server.nio.NioEventLoop;
+import org.chorano.server.service.ServerService;
+import org.chorano.server.util.PropUtil;
+import org.chorano.server.util.ServerStatusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking chorano server. The calling thread accepts connections and hands them over to a small
+ * set of event loops in a round-robin fashion. The event loops read and write without blocking, so an
+ * open (or slow) connection does not hold a worker thread; only complete requests reach the workers.
+ */
+public class NioServerServiceImpl implements ServerService {
+
+    private static final int EVENT_LOOP_COUNT =
+            PropUtil.getIntPropVal("nio.event.loop.count", Runtime.getRuntime().availableProcessors());
+    private static final int ACCEPT_BACKLOG = PropUtil.getIntPropVal("nio.accept.backlog", 1024);
+    private static final long ACCEPT_SELECT_TIMEOUT_MS = 500;
+    private final Logger logger = LoggerFactory.getLogger(NioServerServiceImpl.class);
+
+    @Override
+    public void startChoranoServer(int port) {
+        ChoranoExecutorService service = ChoranoExecutorService.fromProperties();
+        ServerLoadMonitor.instance().setQueueDepth(service::getQueueDepth);
+        NioEventLoop[] loops = new NioEventLoop[EVENT_LOOP_COUNT];
+        Thread[] loopThreads = new Thread[EVENT_LOOP_COUNT];
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector acceptSelector = Selector.open()) {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop(service);
+                loopThreads[i] = new Thread(loops[i], "chorano-nio-loop-" + i);
+                loopThreads[i].start();
+            }
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            this.logger.debug("Accepting connections with {} event loops", loops.length);
+
+            int next = 0;
+            while (!ServerStatusUtil.instance().isStopServer()) {
+                if (acceptSelector.select(ACCEPT_SELECT_TIMEOUT_MS) == 0) {
+                    continue;
+                }
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        } catch (IOException e) {
+            this.logger.debug("An I/O error occurs when opening the server socket channel: {}", e);
+        } finally {
+            this.logger.debug("Shutting down server, {}", service);
+            shutdown(loops, loopThreads, service);
+        }
+    }
+
+    private void shutdown(NioEventLoop[] loops, Thread[] loopThreads, ExecutorService service) {
+        service.shutdown();
+        try {
+            if (!service.awaitTermination(5000, TimeUnit.SECONDS)) {
+                this.logger.debug("Forced thread shutdown");
+                service.shutdownNow();
+            }
+            // let the loops flush the responses of the last requests before closing them
+            for (int i = 0; i < loops.length; i++) {
+                if (loops[i] != null) {
+                    loops[i].shutdown();
+                    loopThreads[i].join();
+                }
+            }
+        } catch (InterruptedException e) {
+            this.logger.debug("Unable to shut down threads properly: {}", e);
+        }
+    }
+}
@@ -1,36 +1,68 @@
 package org.chorano.server.service.impl;
 
+import org.chorano.server.executor.ChoranoExecutorService;
+import org.chorano.server.metrics.ServerLoadMonitor;
 import org.chorano.server.request.handler.HttpRequestHandler;
-import org.chorano.server.util.PropUtil;
 import org.chorano.server.service.ServerService;
 import org.chorano.server.util.ServerStatusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * Blocking chorano server. Every accepted connection is served by a {@link HttpRequestHandler} on a thread
+ * of the given executor, by default the chorano work-stealing pool.
+ */
 public class SocketServerServiceImpl implements ServerService {
 
-    private static final int SERVER_THREAD_POOL_SIZE =
-            PropUtil.getIntPropVal("request.handler.thread.pool.size");
     private final Logger logger = LoggerFactory.getLogger(SocketServerServiceImpl.class);
+    private final Supplier<ExecutorService> executorFactory;
+
+    public SocketServerServiceImpl() {
+        this(ChoranoExecutorService::fromProperties);
+    }
+
+    /**
+     * @param executorFactory creates the executor that runs the connection handlers once the server starts;
+     *                        if it yields null the chorano pool is used
+     */
+    public SocketServerServiceImpl(Supplier<ExecutorService> executorFactory) {
+        this.executorFactory = executorFactory;
+    }
 
     @Override
     public void startChoranoServer(int port) {
-        try(ServerSocket serverSocket = new ServerSocket(port)) {
-            // TODO: implement our own ExecutorService class
-            ExecutorService service = Executors.newFixedThreadPool(SERVER_THREAD_POOL_SIZE);
+        // a blocking ServerSocketChannel hands out sockets backed by channels, which allows gathering writes
+        try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            ExecutorService service = this.executorFactory.get();
+            if (service == null) {
+                this.logger.debug("Executor unavailable, falling back to the thread pool");
+                service = ChoranoExecutorService.fromProperties();
+            }
+            if (service instanceof ChoranoExecutorService) {
+                ServerLoadMonitor.instance().setQueueDepth(((ChoranoExecutorService) service)::getQueueDepth);
+            }
             while (!ServerStatusUtil.instance().isStopServer()) {
-                Socket socket = serverSocket.accept();
-                service.execute(new HttpRequestHandler(socket));
+                SocketChannel channel = serverChannel.accept();
+                HttpRequestHandler handler = new HttpRequestHandler(channel.socket());
+                try {
+                    service.execute(handler);
+                } catch (RejectedExecutionException e) {
+                    this.logger.debug("Request queue is full, closing connection");
+                    handler.onRejected();
+                }
                 this.logger.debug("Main thread exiting: " + Thread.currentThread().getName());
             }
-            this.logger.debug("Shutting down server");
+            this.logger.debug("Shutting down server, {}", service);
             service.shutdown();
             try {
                 if (!service.awaitTermination(5000, TimeUnit.SECONDS)) {
@@ -69,22 +69,43 @@ public class ZkServiceImpl implements ZkService {
 
     /**
      * When the server starts it registers itself in zookeeper by creating a node
-     * at path "/chorano/n_1..x" with ip(localhost) and port. The node created is persistent.
+     * at path "/chorano/x_1..n" with its location and load (see ServerLoadReport). The node created is
+     * ephemeral.
      *
      * @param zooKeeper the zookeeper client instance
      * @param path      the node path
-     * @param data      the port at which the server itself is running
+     * @param data      the encoded load report of the server
+     * @return returns the path of the created node or null if it could not be created
      */
-    public void registerInZookeeper(ZooKeeper zooKeeper, String path, String data) {
+    public String registerInZookeeper(ZooKeeper zooKeeper, String path, byte[] data) {
         try {
             if (zooKeeper.exists(path, false) == null) {
                 zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
             }
-            zooKeeper.create(path + "/x_", data.getBytes(),
+            return zooKeeper.create(path + "/x_", data,
                     ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
         } catch (KeeperException | InterruptedException e) {
             e.printStackTrace();
         }
+        return null;
+    }
+
+    /**
+     * Replaces the data of an existing node regardless of its version.
+     *
+     * @param zooKeeper the zookeeper client object
+     * @param path      the path
+     * @param data      the data
+     * @return returns true if the data was written
+     */
+    public boolean setNodeData(ZooKeeper zooKeeper, String path, byte[] data) {
+        try {
+            zooKeeper.setData(path, data, -1);
+            return true;
+        } catch (KeeperException | InterruptedException e) {
+            logger.debug("Unable to set data at path: {}\n{}", path, e);
+        }
+        return false;
     }
 
     /**
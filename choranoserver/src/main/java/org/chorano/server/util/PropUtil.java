@@ -34,4 +34,13 @@ public final class PropUtil {
     public static int getIntPropVal(String propertyName) {
         return Integer.valueOf(PropertyServiceHolder.properties.getProperty(propertyName));
     }
+
+    public static String getPropVal(String propertyName, String defaultValue) {
+        return PropertyServiceHolder.properties.getProperty(propertyName, defaultValue);
+    }
+
+    public static int getIntPropVal(String propertyName, int defaultValue) {
+        String value = PropertyServiceHolder.properties.getProperty(propertyName);
+        return value == null ? defaultValue : Integer.valueOf(value.trim());
+    }
 }
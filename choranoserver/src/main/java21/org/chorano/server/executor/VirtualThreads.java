@@ -0,0 +1,39 @@
+package org.chorano.server.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates an executor that runs every task on its own virtual thread.
+ *
+ * Java 21 version of this class, packaged under META-INF/versions/21 of the multi-release jar.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * @return returns true if the runtime supports virtual threads
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param thread the thread
+     * @return returns true if the thread is a virtual thread, which lives for a single task and should not
+     * keep per-thread caches
+     */
+    public static boolean isVirtual(Thread thread) {
+        return thread.isVirtual();
+    }
+
+    /**
+     * @return returns a thread-per-task executor on named virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chorano-vthread-", 0).factory());
+    }
+}